@@ -0,0 +1,60 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.Utilities.BatchResponse;
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.service.KeyValueStoreService;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// KeyValueStoreService.createKeyValueBatch: one batch of new keys per operation, so scores are batches per
+// second; multiply by batchSize for keys per second.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchCreateBenchmark {
+
+    @Param({"memory", "postgres"})
+    public String storage;
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    private ServiceContext context;
+    private KeyValueStoreService service;
+    private Map<String, Object> value;
+    private final AtomicLong nextKey = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new ServiceContext(storage);
+        service = context.service();
+        value = Values.ofSize(valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public BatchResponse createKeyValueBatch(){
+        List<KeyValueRequest> requests = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++){
+            requests.add(new KeyValueRequest("key" + nextKey.incrementAndGet(), value, null));
+        }
+        return service.createKeyValueBatch(requests, "tenant1");
+    }
+}
@@ -0,0 +1,50 @@
+package com.kvstore.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvstore.codec.EncodedValue;
+import com.kvstore.codec.ValueCodec;
+import com.kvstore.codec.ValueCompression;
+import com.kvstore.codec.ValueFormat;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Serializing a value for storage and reading it back, from 100 B to the 16 KB limit.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public ValueFormat format;
+
+    @Param({"100", "1024", "4096", "16384"})
+    public int size;
+
+    private ValueCodec codec;
+    private Map<String, Object> value;
+    private byte[] stored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        codec = new ValueCodec(new ObjectMapper(), format, ValueCompression.NONE, 1024);
+        value = Values.ofSize(size);
+        stored = codec.encode(value).stored();
+    }
+
+    @Benchmark
+    public EncodedValue serialize() throws IOException {
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return codec.decode(stored);
+    }
+}
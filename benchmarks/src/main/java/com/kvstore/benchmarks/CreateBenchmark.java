@@ -0,0 +1,49 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.service.KeyValueStoreService;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// KeyValueStoreService.createKeyValue: one new key per operation.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CreateBenchmark {
+
+    @Param({"memory", "postgres"})
+    public String storage;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    private ServiceContext context;
+    private KeyValueStoreService service;
+    private Map<String, Object> value;
+    private final AtomicLong nextKey = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new ServiceContext(storage);
+        service = context.service();
+        value = Values.ofSize(valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public void createKeyValue(){
+        service.createKeyValue(new KeyValueRequest("key" + nextKey.incrementAndGet(), value, null), "tenant1");
+    }
+}
@@ -0,0 +1,64 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.dto.KeyValueResponse;
+import com.kvstore.service.KeyValueStoreService;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// KeyValueStoreService.getKeyValue on random keys of a pre-filled tenant, with the read cache on and off.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetBenchmark {
+
+    private static final int KEYS = 10_000;
+
+    @Param({"memory", "postgres"})
+    public String storage;
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    @Param({"1024"})
+    public int valueSize;
+
+    private ServiceContext context;
+    private KeyValueStoreService service;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new ServiceContext(storage, "kvstore.cache.enabled=" + cache);
+        service = context.service();
+
+        Map<String, Object> value = Values.ofSize(valueSize);
+        keys = new String[KEYS];
+        List<KeyValueRequest> requests = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++){
+            keys[i] = "key" + i;
+            requests.add(new KeyValueRequest(keys[i], value, null));
+        }
+        service.createKeyValueBatch(requests, "tenant1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public KeyValueResponse getKeyValue(){
+        return service.getKeyValue(keys[ThreadLocalRandom.current().nextInt(KEYS)], "tenant1");
+    }
+}
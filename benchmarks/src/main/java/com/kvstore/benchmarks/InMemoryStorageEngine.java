@@ -0,0 +1,191 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.entity.KeyValueEntity;
+import com.kvstore.storage.StorageEngine;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Repository stand-in: entities kept in maps, so the service benchmarks measure the service itself
+// (locking, validation, encoding, caching) without database round trips.
+public class InMemoryStorageEngine implements StorageEngine {
+
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, KeyValueEntity>> tenants = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<KeyValueEntity> find(String tenantId, String key){
+        return Optional.ofNullable(tenant(tenantId).get(key));
+    }
+
+    @Override
+    public boolean exists(String tenantId, String key){
+        return tenant(tenantId).containsKey(key);
+    }
+
+    @Override
+    public Optional<Long> findContentHash(String tenantId, String key, LocalDateTime now){
+        KeyValueEntity entity = tenant(tenantId).get(key);
+        return entity == null || !isLive(entity, now) ? Optional.empty() : Optional.ofNullable(entity.getContentHash());
+    }
+
+    @Override
+    public List<KeyValueEntity> findLive(String tenantId, Collection<String> keys, LocalDateTime now){
+        List<KeyValueEntity> live = new ArrayList<>();
+        for (String key : keys){
+            KeyValueEntity entity = tenant(tenantId).get(key);
+            if (entity != null && isLive(entity, now)){
+                live.add(entity);
+            }
+        }
+        return live;
+    }
+
+    @Override
+    public List<KeyValueEntity> scan(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        List<KeyValueEntity> entities = new ArrayList<>();
+        Map<String, KeyValueEntity> range = after == null ? tenant(tenantId) : tenant(tenantId).tailMap(after, false);
+        for (KeyValueEntity entity : range.values()){
+            if (entities.size() == limit){
+                break;
+            }
+            if ((prefix == null || entity.getKey().startsWith(prefix)) && isLive(entity, now)){
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    @Override
+    public List<String> scanKeys(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        return scan(tenantId, prefix, after, now, limit).stream().map(KeyValueEntity::getKey).toList();
+    }
+
+    @Override
+    public void insert(KeyValueEntity entity){
+        tenant(entity.getTenantId()).put(entity.getKey(), entity);
+    }
+
+    @Override
+    public Set<String> findExistingKeys(String tenantId, Collection<String> keys){
+        Set<String> existing = new HashSet<>();
+        for (String key : keys){
+            if (tenant(tenantId).containsKey(key)){
+                existing.add(key);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Set<String> insertAllIfAbsent(List<KeyValueEntity> entities){
+        Set<String> inserted = new HashSet<>();
+        for (KeyValueEntity entity : entities){
+            if (tenant(entity.getTenantId()).putIfAbsent(entity.getKey(), entity) == null){
+                inserted.add(entity.getKey());
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public long upsert(KeyValueEntity entity, LocalDateTime now){
+        return tenant(entity.getTenantId()).compute(entity.getKey(), (key, current) -> {
+            entity.setVersion(current != null && isLive(current, now) ? current.getVersion() + 1 : 1);
+            return entity;
+        }).getVersion();
+    }
+
+    @Override
+    public CompareAndSetResult compareAndSet(KeyValueEntity entity, long expectedVersion, LocalDateTime now){
+        CompareAndSetResult[] result = new CompareAndSetResult[1];
+        tenant(entity.getTenantId()).compute(entity.getKey(), (key, current) -> {
+            if (current == null || !isLive(current, now) || current.getVersion() != expectedVersion){
+                result[0] = new CompareAndSetResult(false, current == null || !isLive(current, now) ? 0 : current.getVersion());
+                return current;
+            }
+            entity.setVersion(expectedVersion + 1);
+            result[0] = new CompareAndSetResult(true, entity.getVersion());
+            return entity;
+        });
+        return result[0];
+    }
+
+    @Override
+    public void delete(KeyValueEntity entity){
+        tenant(entity.getTenantId()).remove(entity.getKey());
+    }
+
+    @Override
+    public Set<String> deleteAll(String tenantId, Collection<String> keys){
+        Set<String> deleted = new HashSet<>();
+        for (String key : keys){
+            if (tenant(tenantId).remove(key) != null){
+                deleted.add(key);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public Set<String> deleteByPrefix(String tenantId, String prefix){
+        Set<String> deleted = new HashSet<>();
+        Iterator<String> keys = tenant(tenantId).tailMap(prefix, true).keySet().iterator();
+        while (keys.hasNext()){
+            String key = keys.next();
+            if (!key.startsWith(prefix)){
+                break;
+            }
+            keys.remove();
+            deleted.add(key);
+        }
+        return deleted;
+    }
+
+    @Override
+    public List<TenantKey> deleteExpired(LocalDateTime now, int limit){
+        List<TenantKey> deleted = new ArrayList<>();
+        for (ConcurrentSkipListMap<String, KeyValueEntity> tenant : tenants.values()){
+            Iterator<KeyValueEntity> entities = tenant.values().iterator();
+            while (entities.hasNext() && deleted.size() < limit){
+                KeyValueEntity entity = entities.next();
+                if (!isLive(entity, now)){
+                    entities.remove();
+                    deleted.add(new TenantKey(entity.getTenantId(), entity.getKey()));
+                }
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public LocalDateTime findOldestExpiry(LocalDateTime now){
+        LocalDateTime oldest = null;
+        for (ConcurrentSkipListMap<String, KeyValueEntity> tenant : tenants.values()){
+            for (KeyValueEntity entity : tenant.values()){
+                if (!isLive(entity, now) && (oldest == null || entity.getExpiresAt().isBefore(oldest))){
+                    oldest = entity.getExpiresAt();
+                }
+            }
+        }
+        return oldest;
+    }
+
+    private ConcurrentSkipListMap<String, KeyValueEntity> tenant(String tenantId){
+        return tenants.computeIfAbsent(tenantId, t -> new ConcurrentSkipListMap<>());
+    }
+
+    private static boolean isLive(KeyValueEntity entity, LocalDateTime now){
+        return entity.getExpiresAt() == null || entity.getExpiresAt().isAfter(now);
+    }
+}
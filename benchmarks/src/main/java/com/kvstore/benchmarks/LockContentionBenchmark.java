@@ -0,0 +1,55 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.Utilities.StripedKeyLocks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Write throughput of a single global monitor against striped (tenant, key) locks. Each operation holds its lock
+// across a few microseconds of work, standing in for the existence check, serialization and save.
+// Runs with 4 threads; compare thread counts with -t, e.g. -Djmh.args="LockContentionBenchmark -t 16".
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LockContentionBenchmark {
+
+    private static final int TENANTS = 16;
+    private static final int KEYS = 100_000;
+    private static final long WORK_NANOS = 2_000;
+
+    @Param({"synchronized", "striped"})
+    public String lock;
+
+    private final Object monitor = new Object();
+    private final StripedKeyLocks locks = new StripedKeyLocks();
+
+    @Benchmark
+    public void write(){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String tenantId = "tenant" + random.nextInt(TENANTS);
+        String key = "key" + random.nextInt(KEYS);
+
+        if ("synchronized".equals(lock)){
+            synchronized (monitor){
+                work();
+            }
+        } else {
+            try (StripedKeyLocks.Held ignored = locks.lockKey(tenantId, key)){
+                work();
+            }
+        }
+    }
+
+    private static void work(){
+        long end = System.nanoTime() + WORK_NANOS;
+        while (System.nanoTime() < end){
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.kvstore.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvstore.dto.KeyValueResponse;
+import com.kvstore.dto.RawKeyValueResponse;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The GET response path for 1 KB and 16 KB values: parsing the stored JSON into a Map and serializing it again,
+// against passing the stored text through (kvstore.read.passthrough).
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadPathBenchmark {
+
+    @Param({"1024", "16384"})
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String stored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        stored = objectMapper.writeValueAsString(Values.ofSize(size));
+    }
+
+    @Benchmark
+    public byte[] parsed() throws IOException {
+        return objectMapper.writeValueAsBytes(new KeyValueResponse("key1", objectMapper.readValue(stored, Map.class), 1, 0));
+    }
+
+    @Benchmark
+    public byte[] passthrough() throws IOException {
+        return objectMapper.writeValueAsBytes(new RawKeyValueResponse("key1", stored, 1, 0));
+    }
+}
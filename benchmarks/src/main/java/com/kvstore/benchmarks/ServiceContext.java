@@ -0,0 +1,92 @@
+package com.kvstore.benchmarks;
+
+import com.kvstore.Application;
+import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.storage.StorageEngine;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// The service as the application wires it (transactional proxy, codec, cache, locks), backed either by the
+// in-memory stand-in ("memory") or by the JPA engine on a throwaway embedded PostgreSQL ("postgres").
+public class ServiceContext implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+    private final EmbeddedPostgres postgres;
+
+    public ServiceContext(String storage, String... properties) throws IOException {
+        List<String> settings = new ArrayList<>(List.of(properties));
+        settings.add("spring.jpa.show-sql=false");
+        settings.add("logging.level.root=WARN");
+        settings.add("kvstore.ttl.sweep-interval-ms=3600000");
+
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE);
+
+        if (storage.equals("postgres")){
+            postgres = EmbeddedPostgres.builder().start();
+            settings.add("spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"));
+            settings.add("spring.datasource.username=postgres");
+            settings.add("spring.datasource.password=");
+        } else if (storage.equals("memory")){
+            postgres = null;
+            settings.add("kvstore.storage.engine=memory");
+            settings.add("spring.autoconfigure.exclude="
+                    + "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+                    + "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration");
+            builder.initializers((GenericApplicationContext ctx) -> {
+                ctx.registerBean(StorageEngine.class, InMemoryStorageEngine::new);
+                ctx.registerBean(PlatformTransactionManager.class, NoOpTransactionManager::new);
+            });
+        } else {
+            throw new IllegalArgumentException("Unknown storage: " + storage);
+        }
+
+        // As command line arguments, so they take precedence over the service's application.properties.
+        context = builder.run(settings.stream().map(setting -> "--" + setting).toArray(String[]::new));
+    }
+
+    public KeyValueStoreService service(){
+        return context.getBean(KeyValueStoreService.class);
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        if (postgres != null){
+            postgres.close();
+        }
+    }
+
+    // Lets @Transactional service methods run against the in-memory engine, which has no transactions.
+    private static class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction(){
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition){
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status){
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status){
+        }
+    }
+}
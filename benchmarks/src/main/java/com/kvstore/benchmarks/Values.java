@@ -0,0 +1,27 @@
+package com.kvstore.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class Values {
+
+    private Values(){
+    }
+
+    // A JSON object of roughly the given serialized size: short fields of mixed types, like a typical stored record.
+    static Map<String, Object> ofSize(int bytes){
+        Map<String, Object> value = new LinkedHashMap<>();
+        int approximate = 2;
+        for (int i = 0; approximate < bytes; i++){
+            String field = "field" + i;
+            Object item = switch (i % 3){
+                case 0 -> "value-" + i;
+                case 1 -> i * 31L;
+                default -> i % 2 == 0;
+            };
+            value.put(field, item);
+            approximate += field.length() + String.valueOf(item).length() + 6;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,127 @@
+package com.kvstore.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvstore.Utilities.BatchResponse;
+import com.kvstore.Utilities.ImportSummary;
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.service.BulkImportService;
+import com.kvstore.service.ConcurrencyLimiter;
+import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.StoreMetrics;
+import com.kvstore.service.TenantRateLimiter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.validation.Validation;
+
+import org.junit.jupiter.api.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BulkImportServiceTest {
+
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final KeyValueStoreService store = mock(KeyValueStoreService.class);
+
+    private BulkImportService importService;
+
+    @BeforeEach
+    void setUp() {
+        importService = new BulkImportService(store, mapper,
+                Validation.buildDefaultValidatorFactory().getValidator(), TenantRateLimiter.disabled(),
+                new ConcurrencyLimiter(registry, true, 4, 1, 1000), new StoreMetrics(registry, true, 100), 2, 1, 2);
+        when(store.createKeyValueBatch(anyList(), eq("tenant1"))).thenAnswer(invocation -> {
+            BatchResponse response = new BatchResponse();
+            for (KeyValueRequest request : invocation.<List<KeyValueRequest>>getArgument(0)){
+                response.addSuccess(request.getKey());
+            }
+            return response;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        importService.shutdown();
+    }
+
+    //records are committed in chunks and each chunk is reported on its own line, in order
+    @Test
+    void testImport_ReportsEveryChunk() throws IOException {
+        String input = """
+                {"key":"key1","data":{"a":1}}
+                {"key":"key2","data":2,"ttl":60}
+                {"key":"key3","data":[3]}
+                """;
+
+        List<JsonNode> lines = run(input);
+
+        assertEquals(3, lines.size());
+        assertEquals(1, lines.get(0).get("chunk").asInt());
+        assertEquals(2, lines.get(0).get("accepted").asInt());
+        assertEquals(3, lines.get(1).get("firstLine").asInt());
+        assertEquals(1, lines.get(1).get("accepted").asInt());
+        assertTrue(lines.get(2).get("completed").asBoolean());
+        assertEquals(3, lines.get(2).get("accepted").asLong());
+        verify(store, times(2)).createKeyValueBatch(anyList(), eq("tenant1"));
+        assertEquals(2, registry.get("kvstore.operation").tag("operation", "import_chunk").timer().count());
+    }
+
+    //an invalid record fails on its own and the rest of its chunk is still written
+    @Test
+    void testImport_InvalidRecord() throws IOException {
+        String input = """
+                {"key":"","data":1}
+                {"key":"key2","data":2}
+                """;
+
+        List<JsonNode> lines = run(input);
+
+        assertEquals(1, lines.get(0).get("accepted").asInt());
+        assertEquals(1, lines.get(0).get("failures").size());
+        assertTrue(lines.get(0).get("failures").get(0).get("reason").asText().startsWith("Line 1:"));
+        assertEquals(1, lines.get(1).get("failed").asLong());
+    }
+
+    //malformed JSON ends the import, after the chunks read so far have been committed and reported
+    @Test
+    void testImport_MalformedInputStops() throws IOException {
+        String input = """
+                {"key":"key1","data":1}
+                {"key":"key2","data":2}
+                {"key":"key3",
+                """;
+
+        List<JsonNode> lines = run(input);
+        ImportSummary summary = mapper.treeToValue(lines.get(lines.size() - 1), ImportSummary.class);
+
+        assertEquals(2, lines.size());
+        assertFalse(summary.isCompleted());
+        assertEquals(2, summary.getAccepted());
+        assertNotNull(summary.getError());
+    }
+
+    private List<JsonNode> run(String input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        importService.importNdjson("tenant1", new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")){
+            lines.add(mapper.readTree(line));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,108 @@
+package com.kvstore.Test;
+
+import com.kvstore.dto.ChangeEvent;
+import com.kvstore.dto.ChangePage;
+import com.kvstore.exception.ConcurrencyLimitException;
+import com.kvstore.service.ChangeFeed;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ChangeFeed feed = new ChangeFeed(registry, true, 3, 10, 1, 1);
+
+    @AfterEach
+    void tearDown() {
+        feed.shutdown();
+    }
+
+    //changes are read in order a page at a time, and each tenant only sees its own
+    @Test
+    void testRead_PagesInOrder() {
+        String start = feed.read("tenant1", null, 10).getCursor();
+        feed.publish("tenant1", ChangeEvent.Type.CREATE, "a", 1);
+        feed.publish("tenant2", ChangeEvent.Type.CREATE, "x", 1);
+        feed.publish("tenant1", ChangeEvent.Type.UPDATE, "a", 2);
+        feed.publishAll("tenant1", ChangeEvent.Type.DELETE, List.of("a"), 0);
+
+        ChangePage first = feed.read("tenant1", start, 2);
+        assertEquals(List.of(ChangeEvent.Type.CREATE, ChangeEvent.Type.UPDATE),
+                first.getChanges().stream().map(ChangeEvent::getType).toList());
+        assertEquals(2, first.getChanges().get(1).getVersion());
+        ChangePage second = feed.read("tenant1", first.getCursor(), 2);
+        assertEquals(ChangeEvent.Type.DELETE, second.getChanges().get(0).getType());
+        assertFalse(second.isReset());
+        assertTrue(feed.read("tenant1", second.getCursor(), 2).getChanges().isEmpty());
+    }
+
+    //a cursor whose changes were pushed out of the log, or that comes from another run, asks the client to reset
+    @Test
+    void testRead_ResetsWhenChangesWereDropped() {
+        String start = feed.read("tenant1", null, 10).getCursor();
+        for (int i = 0; i < 4; i++){
+            feed.publish("tenant1", ChangeEvent.Type.CREATE, "key" + i, 1);
+        }
+
+        ChangePage dropped = feed.read("tenant1", start, 10);
+        assertTrue(dropped.isReset());
+        assertTrue(dropped.getChanges().isEmpty());
+        assertTrue(feed.read("tenant1", dropped.getCursor(), 10).getChanges().isEmpty());
+        assertTrue(feed.read("tenant1", "otherrun-5", 10).isReset());
+        assertEquals(2, registry.get("kvstore.feed.resets").counter().count());
+    }
+
+    //inside a transaction changes are only published once it commits
+    @Test
+    void testPublish_AfterCommitOnly() {
+        String start = feed.read("tenant1", null, 10).getCursor();
+        TransactionSynchronizationManager.initSynchronization();
+        try{
+            feed.publish("tenant1", ChangeEvent.Type.CREATE, "rolled-back", 1);
+            rollBack();
+            TransactionSynchronizationManager.initSynchronization();
+            feed.publish("tenant1", ChangeEvent.Type.CREATE, "committed", 1);
+            assertTrue(feed.read("tenant1", start, 10).getChanges().isEmpty());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        }finally{
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(List.of("committed"),
+                feed.read("tenant1", start, 10).getChanges().stream().map(ChangeEvent::getKey).toList());
+    }
+
+    //subscribers are told about new changes of their tenant until they close, and their number is capped
+    @Test
+    void testSubscribe_NotifiesUntilClosed() throws InterruptedException {
+        CountDownLatch notified = new CountDownLatch(1);
+        ChangeFeed.Subscription subscription = feed.subscribe("tenant1", notified::countDown);
+        assertThrows(ConcurrencyLimitException.class, () -> feed.subscribe("tenant2", () -> {}));
+
+        feed.publish("tenant2", ChangeEvent.Type.CREATE, "other", 1);
+        feed.publish("tenant1", ChangeEvent.Type.CREATE, "key1", 1);
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+
+        subscription.close();
+        subscription.close();
+        assertEquals(0, registry.get("kvstore.feed.subscribers").gauge().value());
+        assertDoesNotThrow(() -> feed.subscribe("tenant2", () -> {}).close());
+    }
+
+    private static void rollBack(){
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+}
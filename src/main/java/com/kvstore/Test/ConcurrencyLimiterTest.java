@@ -0,0 +1,87 @@
+package com.kvstore.Test;
+
+import com.kvstore.exception.ConcurrencyLimitException;
+import com.kvstore.service.ConcurrencyLimiter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    //a tenant at its limit is rejected after the timeout while another tenant still gets through
+    @Test
+    void testTenantLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(registry, true, 4, 1, 100);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> busy = executor.submit(() -> limiter.call("tenant1", () -> {
+            holding.countDown();
+            awaitQuietly(release);
+            return null;
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        assertThrows(ConcurrencyLimitException.class, () -> limiter.call("tenant1", () -> "second"));
+        assertEquals("other", limiter.call("tenant2", () -> "other"));
+        assertEquals(1, limiter.inFlight());
+
+        release.countDown();
+        busy.get(5, TimeUnit.SECONDS);
+        assertEquals("again", limiter.call("tenant1", () -> "again"));
+        assertEquals(0, limiter.inFlight());
+        assertEquals(1.0, registry.get("kvstore.concurrency.rejected").tag("limit", "tenant").counter().count());
+    }
+
+    //the global limit applies across tenants and permits are returned when the action fails
+    @Test
+    void testGlobalLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(registry, true, 1, 1, 100);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> busy = executor.submit(() -> limiter.call("tenant1", () -> {
+            holding.countDown();
+            awaitQuietly(release);
+            return null;
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        assertThrows(ConcurrencyLimitException.class, () -> limiter.call("tenant2", () -> "blocked"));
+        release.countDown();
+        busy.get(5, TimeUnit.SECONDS);
+
+        assertThrows(IllegalStateException.class, () -> limiter.call("tenant2", () -> {
+            throw new IllegalStateException("failed");
+        }));
+        assertEquals("ok", limiter.call("tenant2", () -> "ok"));
+        assertEquals(1.0, registry.get("kvstore.concurrency.rejected").tag("limit", "global").counter().count());
+    }
+
+    //disabled, calls are not limited at all
+    @Test
+    void testDisabled() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(registry, false, 1, 1, 0);
+        assertEquals("nested", limiter.call("tenant1", () -> limiter.call("tenant1", () -> "nested")));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch){
+        try{
+            latch.await(5, TimeUnit.SECONDS);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
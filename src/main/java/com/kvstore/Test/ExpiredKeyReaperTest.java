@@ -0,0 +1,124 @@
+package com.kvstore.Test;
+
+import com.kvstore.Utilities.ExpirySweep;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.dto.ChangeEvent;
+import com.kvstore.repository.KeyValueRepository;
+import com.kvstore.service.ChangeFeed;
+import com.kvstore.service.ExpiredKeyReaper;
+import com.kvstore.storage.ExpiryPartitions;
+import com.kvstore.storage.JpaStorageEngine;
+import com.kvstore.storage.ReadRouter;
+import com.kvstore.storage.ShardContext;
+import com.kvstore.storage.ShardRouter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ExpiredKeyReaperTest {
+
+    @Mock
+    private KeyValueRepository repository;
+
+    private SimpleMeterRegistry registry;
+
+    private ExpiredKeyReaper reaper;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        registry = new SimpleMeterRegistry();
+        reaper = new ExpiredKeyReaper(new JpaStorageEngine(repository), registry);
+    }
+
+    //keeps deleting full chunks until one comes back short
+    @Test
+    void testReap_DeletesChunksUntilCaughtUp() {
+        when(repository.deleteExpired(any(LocalDateTime.class), eq(1000))).thenReturn(expired(1000))
+                .thenReturn(expired(1000))
+                .thenReturn(expired(17));
+
+        assertEquals(2017, reaper.reap());
+        verify(repository, times(3)).deleteExpired(any(LocalDateTime.class), eq(1000));
+        verify(repository, never()).findAll();
+        verify(repository, never()).findOldestExpiry(any());
+        assertEquals(2017, registry.get("kvstore.ttl.reaped").counter().count());
+        assertEquals(0, reaper.getLagMillis());
+    }
+
+    //nothing expired means a single cheap statement
+    @Test
+    void testReap_NothingExpired() {
+        when(repository.deleteExpired(any(LocalDateTime.class), anyInt())).thenReturn(List.of());
+
+        assertEquals(0, reaper.reap());
+        verify(repository, times(1)).deleteExpired(any(LocalDateTime.class), anyInt());
+    }
+
+    //every shard is swept on its own, with the shard selected while its chunks are deleted
+    @Test
+    void testReap_SweepsEveryShard() {
+        ShardRouter router = new ShardRouter(List.of("shard0", "shard1"), 16);
+        reaper = new ExpiredKeyReaper(new JpaStorageEngine(repository, router, ReadRouter.primaryOnly()), registry, router);
+        List<String> swept = new ArrayList<>();
+        when(repository.deleteExpired(any(LocalDateTime.class), eq(1000))).thenAnswer(invocation -> {
+            swept.add(ShardContext.current());
+            return expired(swept.size() == 1 ? 5 : 7);
+        });
+
+        assertEquals(12, reaper.reap());
+        assertEquals(List.of("shard0", "shard1"), swept);
+        assertNull(ShardContext.current());
+        assertEquals(7, registry.get("kvstore.ttl.reaped").tag("shard", "shard1").counter().count());
+    }
+
+    //removed keys are published to their tenants' change feeds as expiries
+    @Test
+    void testReap_PublishesExpiries() {
+        ChangeFeed feed = new ChangeFeed(registry, true, 16, 10, 10, 1);
+        reaper = new ExpiredKeyReaper(new JpaStorageEngine(repository), registry, ShardRouter.single(), feed);
+        String tenant1 = feed.read("tenant1", null, 10).getCursor();
+        String tenant2 = feed.read("tenant2", null, 10).getCursor();
+        when(repository.deleteExpired(any(LocalDateTime.class), eq(1000))).thenReturn(List.of(
+                new TenantKey("tenant1", "a"), new TenantKey("tenant2", "b"), new TenantKey("tenant1", "c")));
+
+        assertEquals(3, reaper.reap());
+        List<ChangeEvent> changes = feed.read("tenant1", tenant1, 10).getChanges();
+        assertEquals(List.of("a", "c"), changes.stream().map(ChangeEvent::getKey).toList());
+        assertTrue(changes.stream().allMatch(change -> change.getType() == ChangeEvent.Type.EXPIRE));
+        assertEquals("b", feed.read("tenant2", tenant2, 10).getChanges().get(0).getKey());
+    }
+
+    //partitioned by expiry, a sweep drops buckets instead of deleting rows, and lag counts the buckets it left
+    @Test
+    void testReap_DropsExpiryBuckets() {
+        ExpiryPartitions partitions = mock(ExpiryPartitions.class);
+        reaper = new ExpiredKeyReaper(new JpaStorageEngine(repository), registry, ShardRouter.single(), ChangeFeed.disabled(),
+                partitions);
+        when(partitions.sweep(any(LocalDateTime.class))).thenAnswer(invocation ->
+                new ExpirySweep(4200, invocation.<LocalDateTime>getArgument(0).minusMinutes(2)));
+
+        assertEquals(4200, reaper.reap());
+        verify(repository, never()).deleteExpired(any(), anyInt());
+        assertEquals(4200, registry.get("kvstore.ttl.reaped").counter().count());
+        assertEquals(120_000, reaper.getLagMillis());
+    }
+
+    private static List<TenantKey> expired(int count){
+        List<TenantKey> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            keys.add(new TenantKey("tenant1", "key" + i));
+        }
+        return keys;
+    }
+}
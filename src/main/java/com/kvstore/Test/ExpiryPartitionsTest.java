@@ -0,0 +1,87 @@
+package com.kvstore.Test;
+
+import com.kvstore.Utilities.ExpirySweep;
+import com.kvstore.storage.ExpiryPartitions;
+
+import org.junit.jupiter.api.*;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// The catalog is stood in for by a mocked JdbcTemplate that lists the table's partitions.
+class ExpiryPartitionsTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 10, 18, 10, 30);
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    private ExpiryPartitions partitions;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        partitions = new ExpiryPartitions(jdbcTemplate, mock(PlatformTransactionManager.class), 60, 1, 500);
+        when(jdbcTemplate.query(startsWith("SELECT c.relname"), any(RowMapper.class))).thenAnswer(invocation -> {
+            RowMapper<Object> mapper = invocation.getArgument(1);
+            List<Object> rows = new ArrayList<>();
+            rows.add(mapper.mapRow(partition("key_value_store_persistent", "FOR VALUES FROM ('infinity') TO (MAXVALUE)"), 0));
+            rows.add(mapper.mapRow(partition("key_value_store_later", "DEFAULT"), 1));
+            for (int hour = 10; hour >= 8; hour--){
+                rows.add(mapper.mapRow(partition(String.format("key_value_store_b20261018%02d00", hour),
+                        String.format("FOR VALUES FROM ('2026-10-18 %02d:00:00') TO ('2026-10-18 %02d:00:00')", hour, hour + 1)),
+                        rows.size()));
+            }
+            return rows;
+        });
+        when(jdbcTemplate.queryForObject(startsWith("SELECT count(*)"), eq(Integer.class))).thenReturn(40);
+        when(jdbcTemplate.update(startsWith("DELETE FROM key_value_store_later"), any(Object[].class))).thenReturn(2);
+    }
+
+    //a sweep makes the next bucket, moving its keys out of the overflow partition, and drops the expired buckets
+    @Test
+    void testSweep_MakesAndDropsBuckets() {
+        ExpirySweep sweep = partitions.sweep(NOW);
+
+        assertEquals(82, sweep.removed());
+        assertNull(sweep.oldestExpiry());
+        verify(jdbcTemplate).update(eq("WITH moved AS (DELETE FROM key_value_store_later WHERE expires_at >= ? AND expires_at < ? "
+                + "RETURNING *) INSERT INTO key_value_store_b202610181100 SELECT * FROM moved"), any(Object[].class));
+        verify(jdbcTemplate).execute("ALTER TABLE key_value_store ATTACH PARTITION key_value_store_b202610181100 "
+                + "FOR VALUES FROM ('2026-10-18 11:00:00.0') TO ('2026-10-18 12:00:00.0')");
+        verify(jdbcTemplate).execute("DROP TABLE key_value_store_b202610180800");
+        verify(jdbcTemplate).execute("DROP TABLE key_value_store_b202610180900");
+        verify(jdbcTemplate, never()).execute("DROP TABLE key_value_store_b202610181000");
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE TABLE key_value_store_b202610181000"));
+    }
+
+    //a bucket that stays locked past the timeout is left to the next sweep and reported as lag
+    @Test
+    void testSweep_LeavesLockedBucket() {
+        doThrow(new UncategorizedSQLException("drop", "DROP", new SQLException("lock timeout", "55P03")))
+                .when(jdbcTemplate).execute("DROP TABLE key_value_store_b202610180800");
+
+        ExpirySweep sweep = partitions.sweep(NOW);
+
+        assertEquals(42, sweep.removed());
+        assertEquals(LocalDateTime.of(2026, 10, 18, 8, 0), sweep.oldestExpiry());
+        verify(jdbcTemplate).execute("DROP TABLE key_value_store_b202610180900");
+    }
+
+    private static ResultSet partition(String name, String bound) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString(1)).thenReturn(name);
+        when(rs.getString(2)).thenReturn(bound);
+        return rs;
+    }
+}
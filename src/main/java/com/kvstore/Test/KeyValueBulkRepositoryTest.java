@@ -0,0 +1,77 @@
+package com.kvstore.Test;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.entity.KeyValueEntity;
+import com.kvstore.repository.KeyValueBulkRepositoryImpl;
+
+import org.junit.jupiter.api.*;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// The database is stood in for by a mocked JdbcTemplate answering the update and the version read.
+class KeyValueBulkRepositoryTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private KeyValueBulkRepositoryImpl repository;
+
+    private final KeyValueEntity entity = new KeyValueEntity();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        entity.setTenantId("tenant1");
+        entity.setKey("key1");
+        entity.setData(new byte[]{1});
+    }
+
+    //a missed compare-and-set reports the version read after the update, not the one it expected
+    @Test
+    void testCompareAndSet_ConflictReportsVersionReadAfterUpdate() {
+        when(jdbcTemplate.queryForList(startsWith("UPDATE"), eq(Long.class), any(Object[].class))).thenReturn(List.of());
+        when(jdbcTemplate.queryForList(startsWith("SELECT"), eq(Long.class), any(Object[].class))).thenReturn(List.of(6L));
+
+        assertEquals(new CompareAndSetResult(false, 6), repository.compareAndSet(entity, 5, LocalDateTime.now()));
+    }
+
+    //a key deleted while the compare-and-set ran is reported as missing
+    @Test
+    void testCompareAndSet_DeletedKeyIsMissing() {
+        when(jdbcTemplate.queryForList(startsWith("UPDATE"), eq(Long.class), any(Object[].class))).thenReturn(List.of());
+        when(jdbcTemplate.queryForList(startsWith("SELECT"), eq(Long.class), any(Object[].class))).thenReturn(List.of());
+
+        assertEquals(new CompareAndSetResult(false, 0), repository.compareAndSet(entity, 5, LocalDateTime.now()));
+    }
+
+    //a compare-and-set on a missing key at version 0 is reported as missing instead of retried
+    @Test
+    void testCompareAndSet_MissingKeyAtVersionZero() {
+        when(jdbcTemplate.queryForList(startsWith("UPDATE"), eq(Long.class), any(Object[].class))).thenReturn(List.of());
+        when(jdbcTemplate.queryForList(startsWith("SELECT"), eq(Long.class), any(Object[].class))).thenReturn(List.of());
+
+        assertEquals(new CompareAndSetResult(false, 0), repository.compareAndSet(entity, 0, LocalDateTime.now()));
+        verify(jdbcTemplate, times(1)).queryForList(startsWith("UPDATE"), eq(Long.class), any(Object[].class));
+    }
+
+    //a key rewritten back to the expected version between the update and the read is updated again
+    @Test
+    void testCompareAndSet_RetriesWhenExpectedVersionIsReadBack() {
+        when(jdbcTemplate.queryForList(startsWith("UPDATE"), eq(Long.class), any(Object[].class)))
+                .thenReturn(List.of())
+                .thenReturn(List.of(2L));
+        when(jdbcTemplate.queryForList(startsWith("SELECT"), eq(Long.class), any(Object[].class))).thenReturn(List.of(1L));
+
+        assertEquals(new CompareAndSetResult(true, 2), repository.compareAndSet(entity, 1, LocalDateTime.now()));
+        verify(jdbcTemplate, times(2)).queryForList(startsWith("UPDATE"), eq(Long.class), any(Object[].class));
+    }
+}
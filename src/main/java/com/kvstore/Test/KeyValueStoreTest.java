@@ -1,25 +1,48 @@
 package com.kvstore.Test;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvstore.Utilities.BatchGetResponse;
 import com.kvstore.Utilities.BatchResponse;
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.StripedKeyLocks;
+import com.kvstore.codec.ContentHash;
+import com.kvstore.codec.ValueCodec;
+import com.kvstore.codec.ValueCompression;
+import com.kvstore.codec.ValueFormat;
+import com.kvstore.dto.ChangeEvent;
 import com.kvstore.dto.KeyValueRequest;
 import com.kvstore.dto.KeyValueResponse;
+import com.kvstore.dto.RawKeyValueResponse;
+import com.kvstore.dto.ScanPage;
 import com.kvstore.entity.KeyValueEntity;
 import com.kvstore.exception.DuplicateKeyException;
 import com.kvstore.exception.NotFoundException;
+import com.kvstore.exception.VersionConflictException;
 import com.kvstore.repository.KeyValueRepository;
+import com.kvstore.service.ChangeFeed;
 import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.StoreMetrics;
+import com.kvstore.service.ValueCache;
+import com.kvstore.storage.JpaStorageEngine;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import org.junit.jupiter.api.*;
 import org.mockito.InjectMocks;
-import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.mockito.stubbing.Answer;
+import org.springframework.data.domain.Limit;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -27,11 +50,25 @@ import static org.mockito.Mockito.*;
 // Unit Tests
 class KeyValueStoreTest {
 
-    @Mock
-    private KeyValueRepository repository;
+    private final KeyValueRepository repository = mock(KeyValueRepository.class);
+
+    @Spy
+    private JpaStorageEngine storage = new JpaStorageEngine(repository);
+
+    @Spy
+    private ValueCodec codec = new ValueCodec(new ObjectMapper(), ValueFormat.JSON, ValueCompression.NONE, 1024);
+
+    @Spy
+    private StripedKeyLocks locks = new StripedKeyLocks();
 
-    @Mock
-    private ObjectMapper objectMapper;
+    @Spy
+    private ValueCache cache = new ValueCache(true, 1 << 20, 300, 0);
+
+    @Spy
+    private StoreMetrics metrics = new StoreMetrics(new SimpleMeterRegistry(), true, 100);
+
+    @Spy
+    private ChangeFeed feed = new ChangeFeed(new SimpleMeterRegistry(), true, 64, 10, 10, 1);
 
     @InjectMocks
     private KeyValueStoreService service;
@@ -43,16 +80,17 @@ class KeyValueStoreTest {
 
     //successful creation of a key-value pair
     @Test
-    void testCreateKeyValue_Success() throws JsonProcessingException {
+    void testCreateKeyValue_Success() throws IOException {
         KeyValueRequest request = new KeyValueRequest("key1", Map.of("field", "value"), 3600L);
 
         String tenantId = "tenant1";
 
-        when(repository.existsByKeyAndTenantId("key1", tenantId)).thenReturn(false);
-        when(objectMapper.writeValueAsString(request.getData())).thenReturn("{\"field\":\"value\"}");
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
 
         assertDoesNotThrow(() -> service.createKeyValue(request, tenantId));
-        verify(repository, times(1)).save(any(KeyValueEntity.class));
+        verify(repository, times(1)).insertAllIfAbsent(argThat(entities -> entities.size() == 1));
+        verify(repository, never()).existsByKeyAndTenantId(anyString(), anyString());
+        verify(codec, times(1)).encode(request.getData());
     }
 
     //Verifies that creating a duplicate key throws a DuplicateKeyException
@@ -62,7 +100,7 @@ class KeyValueStoreTest {
 
         String tenantId = "tenant1";
 
-        when(repository.existsByKeyAndTenantId("key1", tenantId)).thenReturn(true);
+        when(repository.insertAllIfAbsent(anyList())).thenReturn(Set.of());
 
         assertThrows(DuplicateKeyException.class, () -> service.createKeyValue(request, tenantId));
         verify(repository, never()).save(any(KeyValueEntity.class));
@@ -70,7 +108,7 @@ class KeyValueStoreTest {
 
     //batch creation where some keys succeed, and others fail due to duplication
     @Test
-    void testCreateKeyValueBatch_PartialSuccess() throws JsonProcessingException {
+    void testCreateKeyValueBatch_PartialSuccess() throws IOException {
         List<KeyValueRequest> requests = List.of(
                 new KeyValueRequest("key1", Map.of("field1", "value1"), 3600L),
                 new KeyValueRequest("key2", Map.of("field2", "value2"), 3600L),
@@ -78,29 +116,84 @@ class KeyValueStoreTest {
         );
         String tenantId = "tenant1";
 
-        when(repository.existsByKeyAndTenantId("key1", tenantId)).thenReturn(true);
-        when(repository.existsByKeyAndTenantId("key2", tenantId)).thenReturn(false);
-        when(objectMapper.writeValueAsString(any())).thenReturn("{}");
+        when(repository.findExistingKeys(eq(tenantId), anyCollection())).thenReturn(Set.of("key1"));
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
 
         BatchResponse response = service.createKeyValueBatch(requests, tenantId);
 
-        assertEquals(1, response.getSuccesses().size());
+        assertEquals(List.of("key2"), response.getSuccesses());
         assertEquals(2, response.getFailures().size());
-        verify(repository, times(1)).save(any(KeyValueEntity.class));
+        verify(repository, times(1)).insertAllIfAbsent(argThat(entities -> entities.size() == 1));
+        verify(repository, never()).existsByKeyAndTenantId(anyString(), anyString());
+        verify(repository, never()).save(any(KeyValueEntity.class));
+    }
+
+    //keys repeated inside one batch are written once and reported as duplicates afterwards
+    @Test
+    void testCreateKeyValueBatch_DuplicateWithinBatch() throws IOException {
+        List<KeyValueRequest> requests = List.of(
+                new KeyValueRequest("key1", Map.of("field1", "value1"), null),
+                new KeyValueRequest("key1", Map.of("field2", "value2"), null)
+        );
+        String tenantId = "tenant1";
+
+        when(repository.findExistingKeys(eq(tenantId), anyCollection())).thenReturn(Set.of());
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
+
+        BatchResponse response = service.createKeyValueBatch(requests, tenantId);
+
+        assertEquals(List.of("key1"), response.getSuccesses());
+        assertEquals(1, response.getFailures().size());
+        assertEquals("key1", response.getFailures().get(0).getKey());
+    }
+
+    //an invalid item does not make a later valid item with the same key a duplicate
+    @Test
+    void testCreateKeyValueBatch_InvalidItemDoesNotClaimKey() throws IOException {
+        List<KeyValueRequest> requests = List.of(
+                new KeyValueRequest("key1", Map.of("field1", "x".repeat(17 * 1024)), null),
+                new KeyValueRequest("key1", Map.of("field2", "value2"), null)
+        );
+        String tenantId = "tenant1";
+
+        when(repository.findExistingKeys(eq(tenantId), anyCollection())).thenReturn(Set.of());
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
+
+        BatchResponse response = service.createKeyValueBatch(requests, tenantId);
+
+        assertEquals(List.of("key1"), response.getSuccesses());
+        assertEquals("Value size exceeds the maximum allowed limit of 16KB", response.getFailures().get(0).getReason());
+    }
+
+    //a key taken by a concurrent writer between the lookup and the insert is reported as a duplicate
+    @Test
+    void testCreateKeyValueBatch_ConflictOnInsert() throws IOException {
+        List<KeyValueRequest> requests = List.of(
+                new KeyValueRequest("key1", Map.of("field1", "value1"), 3600L),
+                new KeyValueRequest("key2", Map.of("field2", "value2"), 3600L)
+        );
+        String tenantId = "tenant1";
+
+        when(repository.findExistingKeys(eq(tenantId), anyCollection())).thenReturn(Set.of());
+        when(repository.insertAllIfAbsent(anyList())).thenReturn(Set.of("key2"));
+
+        BatchResponse response = service.createKeyValueBatch(requests, tenantId);
+
+        assertEquals(List.of("key2"), response.getSuccesses());
+        assertEquals("Key 'key1' already exists for tenant: tenant1", response.getFailures().get(0).getReason());
     }
 
     //testGetKeyValue_Success
     @Test
-    void testGetKeyValue_Success() throws JsonProcessingException {
+    void testGetKeyValue_Success() throws IOException {
         String key = "key1";
         String tenantId = "tenant1";
         KeyValueEntity entity = new KeyValueEntity();
         entity.setKey(key);
         entity.setTenantId(tenantId);
-        entity.setData("{}");
+        entity.setData(stored("{\"field\":\"value\"}"));
 
         when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
-        when(objectMapper.readValue(entity.getData(), Map.class)).thenReturn(Map.of("field", "value"));
 
         KeyValueResponse response = service.getKeyValue(key, tenantId);
 
@@ -122,23 +215,20 @@ class KeyValueStoreTest {
 
     //key-value pair exceeding the size limit (16KB) is rejected
     @Test
-    void testCreateKeyValue_Exceeds16KB() throws JsonProcessingException {
+    void testCreateKeyValue_Exceeds16KB() throws IOException {
         // Creating a large JSON object (17KB)
         String largeValue = "x".repeat(17 * 1024); // String with 17KB of data
         KeyValueRequest request = new KeyValueRequest("key1", Map.of("field", largeValue), 3600L);
         String tenantId = "tenant1";
 
-        when(repository.existsByKeyAndTenantId("key1", tenantId)).thenReturn(false);
-        when(objectMapper.writeValueAsString(request.getData())).thenReturn("{\"field\":\"" + largeValue + "\"}");
-
         IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> service.createKeyValue(request, tenantId));
         assertEquals("Value size exceeds the maximum allowed limit of 16KB", exception.getMessage());
-        verify(repository, never()).save(any(KeyValueEntity.class));
+        verify(repository, never()).insertAllIfAbsent(anyList());
     }
 
     //batch creation where one key fails due to exceeding the size limit
     @Test
-    void testCreateKeyValueBatch_LargeJSONFailure() throws JsonProcessingException {
+    void testCreateKeyValueBatch_LargeJSONFailure() throws IOException {
         String largeValue = "x".repeat(17 * 1024); // String with 17KB of data
 
         List<KeyValueRequest> requests = List.of(
@@ -148,18 +238,15 @@ class KeyValueStoreTest {
         );
         String tenantId = "tenant1";
 
-        when(repository.existsByKeyAndTenantId(anyString(), eq(tenantId))).thenReturn(false);
-        when(objectMapper.writeValueAsString(any())).thenAnswer(invocation -> {
-            Map<String, Object> data = invocation.getArgument(0);
-            String key = data.keySet().iterator().next();
-            return key.equals("field2") ? "{\"field2\":\"" + largeValue + "\"}" : "{}";
-        });
+        when(repository.findExistingKeys(eq(tenantId), anyCollection())).thenReturn(Set.of());
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
 
         BatchResponse response = service.createKeyValueBatch(requests, tenantId);
 
         assertEquals(2, response.getSuccesses().size());
         assertEquals(1, response.getFailures().size());
-        verify(repository, times(2)).save(any(KeyValueEntity.class));
+        assertEquals("Value size exceeds the maximum allowed limit of 16KB", response.getFailures().get(0).getReason());
+        verify(repository, times(1)).insertAllIfAbsent(argThat(entities -> entities.size() == 2));
     }
 
     //Verifies that fetching an expired key results in a NotFoundException
@@ -171,18 +258,19 @@ class KeyValueStoreTest {
         KeyValueEntity expiredEntity = new KeyValueEntity();
         expiredEntity.setKey(key);
         expiredEntity.setTenantId(tenantId);
-        expiredEntity.setData("{}");
+        expiredEntity.setData(stored("{\"field\":\"value\"}"));
         expiredEntity.setExpiresAt(LocalDateTime.now().minusSeconds(1));
 
         when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(expiredEntity));
 
         assertThrows(NotFoundException.class, () -> service.getKeyValue(key, tenantId));
         verify(repository, times(1)).delete(expiredEntity);
+        verify(metrics, times(1)).lazyExpired();
     }
 
     // fetching a key that is still valid within its TTL.
     @Test
-    void testGetKeyValue_KeyNotExpired() throws JsonProcessingException {
+    void testGetKeyValue_KeyNotExpired() throws IOException {
         String key = "key1";
         String tenantId = "tenant1";
 
@@ -190,11 +278,10 @@ class KeyValueStoreTest {
         KeyValueEntity validEntity = new KeyValueEntity();
         validEntity.setKey(key);
         validEntity.setTenantId(tenantId);
-        validEntity.setData("{}");
+        validEntity.setData(stored("{\"field\":\"value\"}"));
         validEntity.setExpiresAt(LocalDateTime.now().plusSeconds(3600));
 
         when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(validEntity));
-        when(objectMapper.readValue(validEntity.getData(), Map.class)).thenReturn(Map.of("field", "value"));
 
         KeyValueResponse response = service.getKeyValue(key, tenantId);
 
@@ -206,7 +293,7 @@ class KeyValueStoreTest {
 
     //Tests fetching a key with no TTL (does not expire).
     @Test
-    void testGetKeyValue_NoTTL() throws JsonProcessingException {
+    void testGetKeyValue_NoTTL() throws IOException {
         String key = "key1";
         String tenantId = "tenant1";
 
@@ -214,10 +301,9 @@ class KeyValueStoreTest {
         KeyValueEntity entity = new KeyValueEntity();
         entity.setKey(key);
         entity.setTenantId(tenantId);
-        entity.setData("{}");
+        entity.setData(stored("{\"field\":\"value\"}"));
 
         when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
-        when(objectMapper.readValue(entity.getData(), Map.class)).thenReturn(Map.of("field", "value"));
 
         KeyValueResponse response = service.getKeyValue(key, tenantId);
 
@@ -229,22 +315,342 @@ class KeyValueStoreTest {
 
     //Verifies the creation of a key-value pair with a TTL
     @Test
-    void testCreateKeyValue_WithTTL() throws JsonProcessingException {
+    void testCreateKeyValue_WithTTL() throws IOException {
         KeyValueRequest request = new KeyValueRequest("key1", Map.of("field", "value"), 3600L);
         request.setKey("key1");
         request.setData(Map.of("field", "value"));
         request.setTtl(3600L);
         String tenantId = "tenant1";
 
-        when(repository.existsByKeyAndTenantId("key1", tenantId)).thenReturn(false);
-        when(objectMapper.writeValueAsString(request.getData())).thenReturn("{\"field\":\"value\"}");
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
 
         service.createKeyValue(request, tenantId);
 
-        verify(repository, times(1)).save(argThat(entity ->
-                entity.getExpiresAt() != null &&
-                        entity.getExpiresAt().isAfter(LocalDateTime.now()) &&
-                        entity.getExpiresAt().isBefore(LocalDateTime.now().plusSeconds(3601))
+        verify(repository, times(1)).insertAllIfAbsent(argThat(entities ->
+                entities.get(0).getExpiresAt() != null &&
+                        entities.get(0).getExpiresAt().isAfter(LocalDateTime.now()) &&
+                        entities.get(0).getExpiresAt().isBefore(LocalDateTime.now().plusSeconds(3601))
         ));
     }
-}
\ No newline at end of file
+
+    //an upsert returns the new version and drops the cached value, so the next read sees it
+    @Test
+    void testUpsertKeyValue_InvalidatesCache() throws IOException {
+        String key = "key1";
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey(key);
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"old\"}"));
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
+        when(repository.upsert(any(KeyValueEntity.class), any(LocalDateTime.class))).thenReturn(2L);
+
+        service.getKeyValue(key, tenantId);
+        long version = service.upsertKeyValue(new KeyValueRequest(key, Map.of("field", "new"), null), tenantId);
+
+        assertEquals(2L, version);
+        verify(repository).upsert(argThat(written -> written.getKey().equals(key) && written.getExpiresAt() == null),
+                any(LocalDateTime.class));
+        service.getKeyValue(key, tenantId);
+        verify(repository, times(2)).findByKeyAndTenantId(key, tenantId);
+    }
+
+    //a compare-and-set at the stored version applies; a stale version reports the current one
+    @Test
+    void testCompareAndSetKeyValue_Conflict() {
+        KeyValueRequest request = new KeyValueRequest("key1", Map.of("field", "value"), null);
+        String tenantId = "tenant1";
+
+        when(repository.compareAndSet(any(KeyValueEntity.class), eq(3L), any(LocalDateTime.class)))
+                .thenReturn(new CompareAndSetResult(true, 4));
+        when(repository.compareAndSet(any(KeyValueEntity.class), eq(2L), any(LocalDateTime.class)))
+                .thenReturn(new CompareAndSetResult(false, 4));
+
+        assertEquals(4L, service.compareAndSetKeyValue(request, 3, tenantId));
+        VersionConflictException conflict = assertThrows(VersionConflictException.class,
+                () -> service.compareAndSetKeyValue(request, 2, tenantId));
+        assertEquals(4L, conflict.getCurrentVersion());
+        assertEquals("Key 'key1' is at version 4, not 2", conflict.getMessage());
+    }
+
+    //creates, upserts and deletes are published to the tenant's change feed with the new version
+    @Test
+    void testWrites_PublishChanges() {
+        String tenantId = "tenant1";
+        String cursor = feed.read(tenantId, null, 10).getCursor();
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
+        when(repository.upsert(any(KeyValueEntity.class), any(LocalDateTime.class))).thenReturn(2L);
+        when(repository.deleteAll(tenantId, List.of("key1"))).thenReturn(Set.of("key1"));
+
+        service.createKeyValue(new KeyValueRequest("key1", "v1", null), tenantId);
+        service.upsertKeyValue(new KeyValueRequest("key1", "v2", null), tenantId);
+        service.deleteKeyValue("key1", tenantId);
+
+        List<ChangeEvent> changes = feed.read(tenantId, cursor, 10).getChanges();
+        assertEquals(List.of(ChangeEvent.Type.CREATE, ChangeEvent.Type.UPDATE, ChangeEvent.Type.DELETE),
+                changes.stream().map(ChangeEvent::getType).toList());
+        assertEquals(List.of(1L, 2L, 0L), changes.stream().map(ChangeEvent::getVersion).toList());
+    }
+
+    //a compare-and-set on a missing or expired key throws a NotFoundException
+    @Test
+    void testCompareAndSetKeyValue_NotFound() {
+        when(repository.compareAndSet(any(KeyValueEntity.class), anyLong(), any(LocalDateTime.class)))
+                .thenReturn(new CompareAndSetResult(false, 0));
+
+        assertThrows(NotFoundException.class, () -> service.compareAndSetKeyValue(
+                new KeyValueRequest("missing", "value", null), 1, "tenant1"));
+    }
+
+    //the content hash is stored with every write and later answered from the cache or the hash column alone
+    @Test
+    void testFindContentHash_WithoutReadingValue() throws IOException {
+        String tenantId = "tenant1";
+        when(repository.insertAllIfAbsent(anyList())).thenAnswer(insertedKeys());
+        service.createKeyValue(new KeyValueRequest("key1", Map.of("field", "value"), null), tenantId);
+        long hash = ContentHash.of(stored("{\"field\":\"value\"}"));
+        verify(repository).insertAllIfAbsent(argThat(entities -> entities.get(0).getContentHash() == hash));
+
+        when(repository.findContentHash(eq(tenantId), eq("key1"), any(LocalDateTime.class))).thenReturn(Optional.of(hash));
+        assertEquals(Optional.of(hash), service.findContentHash("key1", tenantId));
+        verify(repository, never()).findByKeyAndTenantId(anyString(), anyString());
+
+        KeyValueEntity legacy = new KeyValueEntity();
+        legacy.setKey("key2");
+        legacy.setTenantId(tenantId);
+        legacy.setData("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        when(repository.findByKeyAndTenantId("key2", tenantId)).thenReturn(Optional.of(legacy));
+        KeyValueResponse response = service.getKeyValue("key2", tenantId);
+        assertEquals(ContentHash.of(legacy.getData()), response.getContentHash());
+        assertEquals(Optional.of(response.getContentHash()), service.findContentHash("key2", tenantId));
+        verify(repository, never()).findContentHash(eq(tenantId), eq("key2"), any(LocalDateTime.class));
+    }
+
+    //a second read of the same key is served from the cache without touching the repository
+    @Test
+    void testGetKeyValue_ServedFromCache() throws IOException {
+        String key = "key1";
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey(key);
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"value\"}"));
+        entity.setExpiresAt(LocalDateTime.now().plusSeconds(3600));
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
+
+        service.getKeyValue(key, tenantId);
+        KeyValueResponse response = service.getKeyValue(key, tenantId);
+
+        assertEquals(Map.of("field", "value"), response.getData());
+        verify(repository, times(1)).findByKeyAndTenantId(key, tenantId);
+        verify(codec, times(1)).decode(entity.getData());
+    }
+
+    //deleting a key drops its cached value
+    @Test
+    void testDeleteKeyValue_InvalidatesCache() throws IOException {
+        String key = "key1";
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey(key);
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"value\"}"));
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
+        when(repository.deleteAll(tenantId, List.of(key))).thenReturn(Set.of(key));
+
+        service.getKeyValue(key, tenantId);
+        service.deleteKeyValue(key, tenantId);
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.empty());
+        assertThrows(NotFoundException.class, () -> service.getKeyValue(key, tenantId));
+    }
+
+    //the passthrough read returns the stored JSON without parsing it
+    @Test
+    void testGetRawKeyValue_ReturnsStoredJson() throws IOException {
+        String key = "key1";
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey(key);
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"value\"}"));
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
+
+        RawKeyValueResponse response = service.getRawKeyValue(key, tenantId);
+
+        assertEquals(key, response.getKey());
+        assertEquals("{\"field\":\"value\"}", response.getData());
+        verify(codec, never()).decode(any());
+    }
+
+    //a value cached by a passthrough read is not served as the decoded value
+    @Test
+    void testGetKeyValue_IgnoresCachedRawJson() throws IOException {
+        String key = "key1";
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey(key);
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"value\"}"));
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
+
+        service.getRawKeyValue(key, tenantId);
+        KeyValueResponse response = service.getKeyValue(key, tenantId);
+
+        assertEquals(Map.of("field", "value"), response.getData());
+    }
+
+    //a decoded string value is not served as raw JSON
+    @Test
+    void testGetRawKeyValue_IgnoresCachedDecodedValue() throws IOException {
+        String key = "key1";
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey(key);
+        entity.setTenantId(tenantId);
+        entity.setData(stored("\"abc\""));
+
+        when(repository.findByKeyAndTenantId(key, tenantId)).thenReturn(Optional.of(entity));
+
+        service.getKeyValue(key, tenantId);
+
+        assertEquals("\"abc\"", service.getRawKeyValue(key, tenantId).getData());
+    }
+
+    //deleting a key that does not exist throws a NotFoundException
+    @Test
+    void testDeleteKeyValue_NotFound() {
+        when(repository.deleteAll("tenant1", List.of("missing"))).thenReturn(Set.of());
+
+        assertThrows(NotFoundException.class, () -> service.deleteKeyValue("missing", "tenant1"));
+    }
+
+    //a batch delete runs one statement for all keys and reports the keys that did not exist
+    @Test
+    void testDeleteKeyValueBatch_PartialSuccess() {
+        String tenantId = "tenant1";
+        when(repository.deleteAll(eq(tenantId), anyCollection())).thenReturn(Set.of("key1", "key3"));
+
+        BatchResponse response = service.deleteKeyValueBatch(List.of("key1", "key2", "key3"), null, tenantId);
+
+        assertEquals(List.of("key1", "key3"), response.getSuccesses());
+        assertEquals(1, response.getFailures().size());
+        assertEquals("key2", response.getFailures().get(0).getKey());
+        verify(repository, times(1)).deleteAll(eq(tenantId), anyCollection());
+        verify(repository, never()).delete(any(KeyValueEntity.class));
+    }
+
+    //a prefix delete reports every deleted key and drops them from the cache
+    @Test
+    void testDeleteKeyValueBatch_Prefix() {
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey("session:1");
+        entity.setTenantId(tenantId);
+        entity.setData(stored("1"));
+
+        when(repository.findByKeyAndTenantId("session:1", tenantId)).thenReturn(Optional.of(entity));
+        when(repository.deleteByPrefix(tenantId, "session:")).thenReturn(Set.of("session:2", "session:1"));
+        service.getKeyValue("session:1", tenantId);
+
+        BatchResponse response = service.deleteKeyValueBatch(null, "session:", tenantId);
+
+        assertEquals(List.of("session:1", "session:2"), response.getSuccesses());
+        assertNull(cache.get(tenantId, "session:1"));
+        assertThrows(IllegalArgumentException.class, () -> service.deleteKeyValueBatch(null, "", tenantId));
+    }
+
+    //a full page hands back a cursor that resumes after its last key
+    @Test
+    void testScanKeyValues_KeysetCursor() {
+        String tenantId = "tenant1";
+        when(repository.scanKeysRange(eq(tenantId), eq("user:"), eq("user;"), eq("user:%"), eq(""), any(LocalDateTime.class), eq(Limit.of(2))))
+                .thenReturn(List.of("user:1", "user:2"));
+        when(repository.scanKeysRange(eq(tenantId), eq("user:"), eq("user;"), eq("user:%"), eq("user:2"), any(LocalDateTime.class), eq(Limit.of(2))))
+                .thenReturn(List.of("user:3"));
+
+        ScanPage first = service.scanKeyValues(tenantId, "user:", null, 2, false);
+        ScanPage second = service.scanKeyValues(tenantId, "user:", first.getNextCursor(), 2, false);
+
+        assertEquals(List.of("user:1", "user:2"), first.getKeys());
+        assertNotNull(first.getNextCursor());
+        assertEquals(List.of("user:3"), second.getKeys());
+        assertNull(second.getNextCursor());
+    }
+
+    //streaming with values writes each stored JSON value as-is on its own line
+    @Test
+    void testWriteNdjson_WritesStoredJson() throws IOException {
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey("key1");
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"value\"}"));
+        when(repository.scan(eq(tenantId), eq(""), eq("%"), eq(""), any(LocalDateTime.class), any(Limit.class))).thenReturn(List.of(entity));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeNdjson(service.scanKeyValues(tenantId, null, null, 10, true), out);
+
+        assertEquals("{\"key\":\"key1\",\"data\":{\"field\":\"value\"},\"version\":1}\n", out.toString(StandardCharsets.UTF_8));
+        verify(codec, never()).decode(any());
+    }
+
+    //a multi-get resolves all keys with one query and reports missing keys separately
+    @Test
+    void testGetKeyValueBatch_HitsAndMisses() {
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey("key1");
+        entity.setTenantId(tenantId);
+        entity.setData(stored("{\"field\":\"value\"}"));
+
+        when(repository.findLive(eq(tenantId), anyCollection(), any(LocalDateTime.class))).thenReturn(List.of(entity));
+
+        BatchGetResponse response = service.getKeyValueBatch(List.of("key1", "key2", "key1"), tenantId, false);
+
+        assertEquals(Map.of("key1", Map.of("field", "value")), response.getHits());
+        assertEquals(List.of("key2"), response.getMisses());
+        verify(repository, times(1)).findLive(eq(tenantId), eq(Set.of("key1", "key2")), any(LocalDateTime.class));
+        verify(repository, never()).findByKeyAndTenantId(any(), any());
+    }
+
+    //keys already in the cache are left out of the multi-get query
+    @Test
+    void testGetKeyValueBatch_SkipsCachedKeys() {
+        String tenantId = "tenant1";
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setKey("key1");
+        entity.setTenantId(tenantId);
+        entity.setData(stored("[1,2]"));
+
+        when(repository.findByKeyAndTenantId("key1", tenantId)).thenReturn(Optional.of(entity));
+        service.getKeyValue("key1", tenantId);
+
+        BatchGetResponse response = service.getKeyValueBatch(List.of("key1", "key2"), tenantId, false);
+
+        assertEquals(List.of(1, 2), response.getHits().get("key1"));
+        assertEquals(List.of("key2"), response.getMisses());
+        verify(repository, times(1)).findLive(eq(tenantId), eq(Set.of("key2")), any(LocalDateTime.class));
+    }
+
+    // A JSON value in the layout ValueCodec stores it: format header followed by the UTF-8 text.
+    private static byte[] stored(String json) {
+        byte[] text = json.getBytes(StandardCharsets.UTF_8);
+        byte[] stored = new byte[text.length + 1];
+        stored[0] = (byte) ValueFormat.JSON.getId();
+        System.arraycopy(text, 0, stored, 1, text.length);
+        return stored;
+    }
+
+    private static Answer<Set<String>> insertedKeys() {
+        return invocation -> {
+            List<KeyValueEntity> entities = invocation.getArgument(0);
+            return entities.stream().map(KeyValueEntity::getKey).collect(Collectors.toSet());
+        };
+    }
+}
@@ -0,0 +1,251 @@
+package com.kvstore.Test;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.entity.KeyValueEntity;
+import com.kvstore.storage.LogStructuredStorageEngine;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStructuredStorageEngineTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    //values written before a restart are found again by replaying the segments
+    @Test
+    void testRecovery_ReplaysSegments() {
+        try (LogStructuredStorageEngine engine = open()) {
+            engine.insert(entity("tenant1", "key1", "{\"a\":1}", null));
+            engine.insert(entity("tenant1", "key2", "{\"b\":2}", null));
+            engine.insert(entity("tenant2", "key1", "{\"c\":3}", LocalDateTime.now().plusHours(1)));
+            engine.delete(entity("tenant1", "key2", "", null));
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals("{\"a\":1}", data(engine, "tenant1", "key1"));
+            assertFalse(engine.exists("tenant1", "key2"));
+            assertEquals("{\"c\":3}", data(engine, "tenant2", "key1"));
+            assertNotNull(engine.find("tenant2", "key1").orElseThrow().getExpiresAt());
+        }
+    }
+
+    //upserts and compare-and-sets bump the version, and the versions survive a restart
+    @Test
+    void testUpsertAndCompareAndSet_VersionsSurviveRestart() {
+        LocalDateTime now = LocalDateTime.now();
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals(1, engine.upsert(entity("tenant1", "key1", "{\"a\":1}", null), now));
+            assertEquals(2, engine.upsert(entity("tenant1", "key1", "{\"a\":2}", null), now));
+            assertEquals(new CompareAndSetResult(false, 2), engine.compareAndSet(entity("tenant1", "key1", "{}", null), 1, now));
+            assertEquals(new CompareAndSetResult(true, 3), engine.compareAndSet(entity("tenant1", "key1", "{\"a\":3}", null), 2, now));
+            assertEquals(new CompareAndSetResult(false, 0), engine.compareAndSet(entity("tenant1", "missing", "{}", null), 1, now));
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals("{\"a\":3}", data(engine, "tenant1", "key1"));
+            assertEquals(3, engine.find("tenant1", "key1").orElseThrow().getVersion());
+            assertEquals(4, engine.upsert(entity("tenant1", "key1", "{}", null), now));
+        }
+    }
+
+    //a record cut off by a crash is dropped and the log continues after the last good record
+    @Test
+    void testRecovery_IgnoresTornRecord() throws IOException {
+        try (LogStructuredStorageEngine engine = open()) {
+            engine.insert(entity("tenant1", "key1", "{\"a\":1}", null));
+            engine.insert(entity("tenant1", "key2", "{\"b\":2}", null));
+        }
+        corruptLastRecord();
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertTrue(engine.exists("tenant1", "key1"));
+            assertFalse(engine.exists("tenant1", "key2"));
+            engine.insert(entity("tenant1", "key3", "{\"c\":3}", null));
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals("{\"c\":3}", data(engine, "tenant1", "key3"));
+        }
+    }
+
+    //expired keys come out oldest first and are not brought back by a restart
+    @Test
+    void testDeleteExpired_RemovesOnlyExpiredKeys() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        try (LogStructuredStorageEngine engine = open()) {
+            engine.insert(entity("tenant1", "old", "{}", now.minusSeconds(20)));
+            engine.insert(entity("tenant1", "older", "{}", now.minusSeconds(30)));
+            engine.insert(entity("tenant1", "live", "{}", now.plusHours(1)));
+
+            assertEquals(List.of("live"), engine.findLive("tenant1", List.of("old", "live", "missing"), now)
+                    .stream().map(KeyValueEntity::getKey).toList());
+            assertEquals(now.minusSeconds(30), engine.findOldestExpiry(now));
+            assertEquals(List.of(new TenantKey("tenant1", "older")), engine.deleteExpired(now, 1));
+            assertFalse(engine.exists("tenant1", "older"));
+            assertEquals(1, engine.deleteExpired(now, 10).size());
+            assertNull(engine.findOldestExpiry(now));
+            assertTrue(engine.exists("tenant1", "live"));
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals(Set.of("live"), engine.findExistingKeys("tenant1", List.of("old", "older", "live")));
+        }
+    }
+
+    //bulk and prefix deletes remove only the matching keys of the tenant and survive a restart
+    @Test
+    void testDeleteAllAndPrefix() {
+        try (LogStructuredStorageEngine engine = open()) {
+            for (String key : List.of("a", "session:1", "session:2", "sessions", "z")){
+                engine.insert(entity("tenant1", key, "{}", null));
+            }
+            engine.insert(entity("tenant2", "session:1", "{}", null));
+
+            assertEquals(Set.of("session:1", "session:2"), engine.deleteByPrefix("tenant1", "session:"));
+            assertEquals(Set.of("a"), engine.deleteAll("tenant1", List.of("a", "missing")));
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals(Set.of("sessions", "z"), engine.findExistingKeys("tenant1",
+                    List.of("a", "session:1", "session:2", "sessions", "z")));
+            assertTrue(engine.exists("tenant2", "session:1"));
+        }
+    }
+
+    //scans walk the tenant's keys in order from the cursor, within the prefix, skipping expired keys
+    @Test
+    void testScan_PrefixAndCursor() {
+        LocalDateTime now = LocalDateTime.now();
+        try (LogStructuredStorageEngine engine = open()) {
+            for (String key : List.of("a", "user:1", "user:2", "user:3", "users", "z")){
+                engine.insert(entity("tenant1", key, "{}", null));
+            }
+            engine.insert(entity("tenant1", "user:0", "{}", now.minusSeconds(1)));
+
+            assertEquals(List.of("user:1", "user:2"), engine.scanKeys("tenant1", "user:", null, now, 2));
+            assertEquals(List.of("user:3"), engine.scanKeys("tenant1", "user:", "user:2", now, 2));
+            assertEquals(List.of("users", "z"), engine.scanKeys("tenant1", null, "user:3", now, 10));
+            assertEquals("user:1", engine.scan("tenant1", "user:", null, now, 1).get(0).getKey());
+            assertTrue(engine.scanKeys("tenant2", null, null, now, 10).isEmpty());
+        }
+    }
+
+    //compaction drops dead segments but keeps live values and the deletes that mask older records
+    @Test
+    void testCompaction_ReclaimsDeadSegments() throws IOException {
+        try (LogStructuredStorageEngine engine = open()) {
+            engine.insert(entity("tenant1", "keep", "{\"keep\":true}", null));
+            engine.insert(entity("tenant1", "gone", "{}", null));
+            for (int i = 0; i < 60; i++){
+                String key = "churn" + i;
+                engine.insert(entity("tenant1", key, "{\"value\":\"" + "x".repeat(100) + "\"}", null));
+                engine.delete(entity("tenant1", key, "", null));
+            }
+            engine.delete(entity("tenant1", "gone", "", null));
+            long before = segmentCount();
+
+            engine.compact();
+
+            assertTrue(segmentCount() < before);
+            assertEquals("{\"keep\":true}", data(engine, "tenant1", "keep"));
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertEquals("{\"keep\":true}", data(engine, "tenant1", "keep"));
+            assertFalse(engine.exists("tenant1", "gone"));
+            assertFalse(engine.exists("tenant1", "churn0"));
+        }
+    }
+
+    //an expired record dropped by compaction leaves a tombstone, so the key's older value in an older segment stays dead
+    @Test
+    void testCompaction_ExpiredRecordKeepsOlderValueMasked() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        try (LogStructuredStorageEngine engine = open()) {
+            engine.upsert(entity("tenant1", "key1", "{\"old\":true}", null), now);
+            for (int i = 0; segmentCount() == 1; i++){
+                engine.insert(entity("tenant1", "live" + i, "{\"value\":\"" + "x".repeat(100) + "\"}", null));
+            }
+            engine.upsert(entity("tenant1", "key1", "{\"new\":true}", LocalDateTime.now().plus(300, ChronoUnit.MILLIS)), now);
+            for (int i = 0; segmentCount() == 2; i++){
+                engine.insert(entity("tenant1", "churn" + i, "{\"value\":\"" + "x".repeat(100) + "\"}", null));
+                engine.delete(entity("tenant1", "churn" + i, "", null));
+            }
+            Thread.sleep(400);
+
+            engine.compact();
+        }
+
+        try (LogStructuredStorageEngine engine = open()) {
+            assertFalse(engine.exists("tenant1", "key1"));
+            assertTrue(engine.findLive("tenant1", List.of("key1"), LocalDateTime.now()).isEmpty());
+            assertTrue(engine.exists("tenant1", "live0"));
+        }
+    }
+
+    private LogStructuredStorageEngine open() {
+        return new LogStructuredStorageEngine(directory, SEGMENT_BYTES, false, 0.5);
+    }
+
+    private static KeyValueEntity entity(String tenantId, String key, String data, LocalDateTime expiresAt) {
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setTenantId(tenantId);
+        entity.setKey(key);
+        entity.setData(data.getBytes(StandardCharsets.UTF_8));
+        entity.setExpiresAt(expiresAt);
+        return entity;
+    }
+
+    private static String data(LogStructuredStorageEngine engine, String tenantId, String key) {
+        return new String(engine.find(tenantId, key).orElseThrow().getData(), StandardCharsets.UTF_8);
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    // Flips a byte in the data of the last record, as a write cut short by a crash would leave it.
+    private void corruptLastRecord() throws IOException {
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int position = 0;
+            int last = 0;
+            while (true) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                last = position;
+                position += length + 4;
+            }
+            file.seek(position - 2);
+            int value = file.read();
+            file.seek(position - 2);
+            file.write(value ^ 0xFF);
+            assertTrue(last > 0);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.kvstore.Test;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import com.kvstore.storage.ReadRouter;
+import com.kvstore.storage.ReadWriteDataSource;
+import com.kvstore.storage.ReplicaSet;
+import com.kvstore.storage.ShardContext;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// Replicas are stood in for by mocked data sources whose lag the test sets.
+class ReadWriteRoutingTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final DataSource primary = mock(DataSource.class);
+    private final DataSource replica0 = mock(DataSource.class);
+    private final DataSource replica1 = mock(DataSource.class);
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection replica0Connection = mock(Connection.class);
+    private final Connection replica1Connection = mock(Connection.class);
+
+    private final AtomicLong lag0 = new AtomicLong();
+    private final AtomicLong lag1 = new AtomicLong();
+
+    private ReplicaSet replicas;
+    private ReadWriteDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica0.getConnection()).thenReturn(replica0Connection);
+        when(replica1.getConnection()).thenReturn(replica1Connection);
+        replicas = new ReplicaSet("default", List.of(
+                new ReplicaSet.Replica("r0", replica0, ds -> lag0.get()),
+                new ReplicaSet.Replica("r1", replica1, ds -> lag1.get())), 1000, registry);
+        dataSource = new ReadWriteDataSource(primary, replicas);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ShardContext.setReplicaRead(false);
+    }
+
+    //replica reads are spread over the replicas; everything else goes to the primary
+    @Test
+    void testReadsGoToReplicas() throws SQLException {
+        replicas.probe();
+
+        assertSame(primaryConnection, dataSource.getConnection());
+        ShardContext.setReplicaRead(true);
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+        assertNotSame(first, second);
+        assertTrue(List.of(replica0Connection, replica1Connection).containsAll(List.of(first, second)));
+        assertEquals(2.0, registry.get("kvstore.replica.reads").tag("target", "replica").counter().count());
+    }
+
+    //a lagging or unreachable replica is ejected until a probe finds it caught up, and with none left reads use the primary
+    @Test
+    void testLaggingReplicaEjected() throws SQLException {
+        lag1.set(5000);
+        replicas.probe();
+        ShardContext.setReplicaRead(true);
+        for (int i = 0; i < 4; i++){
+            assertSame(replica0Connection, dataSource.getConnection());
+        }
+
+        when(replica0.getConnection()).thenThrow(new SQLException("connection refused"));
+        assertSame(primaryConnection, dataSource.getConnection());
+        assertSame(primaryConnection, dataSource.getConnection());
+        verify(replica0, times(5)).getConnection();
+        assertEquals(1.0, registry.get("kvstore.replica.ejected").tag("replica", "r0").counter().count());
+
+        // r0 passes the lag probe again but still refuses connections, so reads move on to r1.
+        lag1.set(200);
+        replicas.probe();
+        assertSame(replica1Connection, dataSource.getConnection());
+        assertSame(replica1Connection, dataSource.getConnection());
+        assertEquals(200.0, registry.get("kvstore.replica.lag").tag("replica", "r1").gauge().value());
+    }
+
+    //a tenant reads from the primary for a while after it wrote, and inside a write transaction
+    @Test
+    void testReadYourWrites() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = nanos::get;
+        ReadRouter router = new ReadRouter(true, 2000, ticker);
+
+        assertTrue(router.replicaAllowed("tenant1"));
+        router.recordWrite("tenant1");
+        assertFalse(router.replicaAllowed("tenant1"));
+        assertTrue(router.replicaAllowed("tenant2"));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(2001));
+        assertTrue(router.replicaAllowed("tenant1"));
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try{
+            assertFalse(router.replicaAllowed("tenant2"));
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+            assertTrue(router.replicaAllowed("tenant2"));
+        }finally{
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+        assertFalse(ReadRouter.primaryOnly().replicaAllowed("tenant2"));
+    }
+}
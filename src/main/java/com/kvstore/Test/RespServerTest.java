@@ -0,0 +1,187 @@
+package com.kvstore.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import com.kvstore.Utilities.BatchGetResponse;
+import com.kvstore.Utilities.BatchResponse;
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.dto.RawKeyValueResponse;
+import com.kvstore.exception.DuplicateKeyException;
+import com.kvstore.exception.NotFoundException;
+import com.kvstore.resp.RespServer;
+import com.kvstore.service.ConcurrencyLimiter;
+import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.StoreMetrics;
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.WritePipeline;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.validation.Validation;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RespServerTest {
+
+    private final KeyValueStoreService store = mock(KeyValueStoreService.class);
+
+    private final WritePipeline writePipeline = mock(WritePipeline.class);
+
+    private RespServer server;
+
+    private Socket socket;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        server = new RespServer(store, writePipeline, new StoreMetrics(registry, true, 100),
+                new ConcurrencyLimiter(registry, true, 4, 2, 1000), TenantRateLimiter.disabled(),
+                Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(),
+                "127.0.0.1", 0, 2, 16, 1024 * 1024, "");
+        server.start();
+        socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        socket.close();
+        server.shutdown();
+    }
+
+    //a pipeline of commands sent in one write is answered in order
+    @Test
+    void testPipelinedCommands() throws IOException {
+        when(store.getRawKeyValue("k1", "tenant1")).thenReturn(new RawKeyValueResponse("k1", "\"v1\"", 1, 0));
+        BatchGetResponse batch = new BatchGetResponse();
+        batch.addHit("k1", new RawValue("\"v1\""));
+        batch.addHit("k2", new RawValue("{\"a\":1}"));
+        batch.addMiss("k3");
+        when(store.getKeyValueBatch(List.of("k1", "k2", "k3"), "tenant1", true)).thenReturn(batch);
+        when(store.getKeyValueBatch(List.of("k1", "k3", "k1"), "tenant1", true)).thenReturn(batch);
+        BatchResponse deleted = new BatchResponse();
+        deleted.addSuccess("k1");
+        when(store.deleteKeyValueBatch(List.of("k1", "k3"), null, "tenant1")).thenReturn(deleted);
+
+        send(command("SELECT", "tenant1")
+                + command("SET", "k1", "v1", "EX", "60")
+                + command("GET", "k1")
+                + command("MGET", "k1", "k2", "k3")
+                + command("EXISTS", "k1", "k3", "k1")
+                + command("DEL", "k1", "k3"));
+
+        assertEquals("+OK\r\n+OK\r\n$2\r\nv1\r\n*3\r\n$2\r\nv1\r\n$7\r\n{\"a\":1}\r\n$-1\r\n:2\r\n:1\r\n",
+                read(6));
+        verify(store).upsertKeyValue(argThat(request -> request.getKey().equals("k1")
+                && request.getData().equals("v1") && request.getTtl() == 60L), eq("tenant1"));
+        verifyNoInteractions(writePipeline);
+    }
+
+    //a command split over many writes is only executed once it is complete
+    @Test
+    void testCommandSplitAcrossWrites() throws Exception {
+        when(store.getRawKeyValue("k1", "tenant1")).thenThrow(new NotFoundException("Key not found"));
+
+        byte[] bytes = (command("AUTH", "tenant1", "secret") + command("GET", "k1")).getBytes(StandardCharsets.UTF_8);
+        OutputStream out = socket.getOutputStream();
+        for (byte b : bytes){
+            out.write(b);
+            out.flush();
+        }
+
+        assertEquals("+OK\r\n$-1\r\n", read(2));
+    }
+
+    //key commands need a tenant; inline commands and unknown commands get RESP replies
+    @Test
+    void testTenantRequiredAndInlineCommands() throws IOException {
+        send("PING\r\n" + command("GET", "k1") + "HELLO 3\r\n");
+
+        String reply = read(3);
+        assertTrue(reply.startsWith("+PONG\r\n-NOAUTH"));
+        assertTrue(reply.endsWith("-ERR unknown command 'HELLO'\r\n"));
+        verifyNoInteractions(store);
+    }
+
+    //SET NX on an existing key replies with a null bulk; invalid keys and values are reported without closing the connection
+    @Test
+    void testSetDuplicateAndInvalid() throws IOException {
+        doThrow(new DuplicateKeyException("exists")).when(writePipeline).create(any(KeyValueRequest.class), eq("tenant1"));
+
+        send(command("SELECT", "tenant1")
+                + command("SET", "k1", "v1", "NX")
+                + command("SET", "k".repeat(33), "v1")
+                + command("SET", "k1", "v1", "EX", "0")
+                + command("PING"));
+
+        String reply = read(5);
+        assertTrue(reply.startsWith("+OK\r\n$-1\r\n-ERR Username must not exceed 32 characters\r\n"));
+        assertTrue(reply.endsWith("-ERR invalid expire time in 'set' command\r\n+PONG\r\n"));
+        verify(writePipeline, times(1)).create(any(), any());
+        verify(store, never()).upsertKeyValue(any(), any());
+    }
+
+    //a malformed request is answered with an error and the connection is closed
+    @Test
+    void testProtocolErrorClosesConnection() throws IOException {
+        send("*1\r\n#3\r\nGET\r\n");
+
+        String reply = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(reply.startsWith("-ERR Protocol error"));
+    }
+
+    private static String command(String... args){
+        StringBuilder builder = new StringBuilder("*").append(args.length).append("\r\n");
+        for (String arg : args){
+            builder.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(arg).append("\r\n");
+        }
+        return builder.toString();
+    }
+
+    private void send(String data) throws IOException {
+        socket.getOutputStream().write(data.getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+    }
+
+    // Reads the given number of replies and returns them as received.
+    private String read(int replies) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder received = new StringBuilder();
+        for (int i = 0; i < replies; i++){
+            String line = readLine(in);
+            received.append(line);
+            if (line.startsWith("*")){
+                replies += Integer.parseInt(line.substring(1).trim());
+            } else if (line.startsWith("$") && !line.startsWith("$-1")){
+                byte[] data = in.readNBytes(Integer.parseInt(line.substring(1).trim()) + 2);
+                received.append(new String(data, StandardCharsets.UTF_8));
+            }
+        }
+        return received.toString();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0){
+            line.write(b);
+            if (b == '\n'){
+                break;
+            }
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package com.kvstore.Test;
+
+import com.kvstore.storage.ShardContext;
+import com.kvstore.storage.ShardRouter;
+
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRouterTest {
+
+    //tenants spread over all shards, and adding a shard only moves tenants onto the new one
+    @Test
+    void testRingDistributionAndStability() {
+        ShardRouter three = new ShardRouter(List.of("s0", "s1", "s2"), 128);
+        ShardRouter four = new ShardRouter(List.of("s0", "s1", "s2", "s3"), 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 3000; i++){
+            String tenantId = "tenant" + i;
+            String before = three.shardFor(tenantId);
+            String after = four.shardFor(tenantId);
+            counts.merge(before, 1, Integer::sum);
+            if (!before.equals(after)){
+                assertEquals("s3", after);
+                moved++;
+            }
+        }
+        assertEquals(3, counts.size());
+        counts.values().forEach(count -> assertTrue(count > 700, "unbalanced: " + counts));
+        assertTrue(moved > 400 && moved < 1100, "moved " + moved);
+        assertEquals(three.shardFor("tenant42"), new ShardRouter(List.of("s0", "s1", "s2"), 128).shardFor("tenant42"));
+    }
+
+    //a placement overrides the ring and placements for unknown shards are refused or dropped
+    @Test
+    void testPlacements() {
+        ShardRouter router = new ShardRouter(List.of("s0", "s1"), 16);
+        String ring = router.ringShard("tenant1");
+        String other = ring.equals("s0") ? "s1" : "s0";
+
+        router.setPlacement("tenant1", other);
+        assertEquals(other, router.shardFor("tenant1"));
+        assertEquals(ring, router.ringShard("tenant1"));
+        assertThrows(IllegalArgumentException.class, () -> router.setPlacement("tenant1", "s9"));
+
+        router.setPlacements(Map.of("tenant2", "s9"));
+        assertEquals(ring, router.shardFor("tenant1"));
+        assertTrue(router.getPlacements().isEmpty());
+        assertFalse(new ShardRouter(List.of(), 16).isSharded());
+    }
+
+    //a transaction stays on the first shard it used
+    @Test
+    void testContextRefusesSecondShardInTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+        try{
+            // callOn restores the thread's shard afterwards, so nothing leaks into other tests.
+            ShardContext.callOn("s0", () -> {
+                ShardContext.bind("s0");
+                ShardContext.bind("s0");
+                assertThrows(IllegalStateException.class, () -> ShardContext.bind("s1"));
+                assertEquals("s1", ShardContext.callOn("s1", ShardContext::current));
+                assertEquals("s0", ShardContext.current());
+                return null;
+            });
+        }finally{
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.kvstore.Test;
+
+import com.kvstore.Utilities.SnapshotResult;
+import com.kvstore.Utilities.StripedKeyLocks;
+import com.kvstore.dto.ChangeEvent;
+import com.kvstore.service.ChangeFeed;
+import com.kvstore.service.SnapshotService;
+import com.kvstore.service.ValueCache;
+import com.kvstore.storage.ShardRouter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// PostgreSQL is stood in for by a mocked connection whose COPY API the test plays.
+class SnapshotServiceTest {
+
+    private static final byte[] ROWS = "PGCOPY\n rows of tenant1".getBytes(StandardCharsets.UTF_8);
+
+    private final Connection connection = mock(Connection.class);
+    private final PGConnection pg = mock(PGConnection.class);
+    private final CopyManager copy = mock(CopyManager.class);
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+    private final ResultSet count = mock(ResultSet.class);
+
+    private final ValueCache cache = new ValueCache(true, 1 << 20, 60, 0);
+    private final ChangeFeed feed = new ChangeFeed(new SimpleMeterRegistry(), true, 16, 10, 10, 1);
+
+    private SnapshotService snapshots;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pg);
+        when(connection.createStatement()).thenReturn(mock(Statement.class));
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(count);
+        when(count.next()).thenReturn(true);
+        when(pg.getCopyAPI()).thenReturn(copy);
+        when(pg.escapeLiteral(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).replace("'", "''"));
+        snapshots = new SnapshotService(new JdbcTemplate(dataSource), ShardRouter.single(), new StripedKeyLocks(), cache, feed,
+                1024, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        feed.shutdown();
+    }
+
+    //an export is the gzip compressed COPY output of the tenant's live rows, with the tenant escaped into the query
+    @Test
+    void testExportTenant() throws Exception {
+        when(copy.copyOut(anyString(), any(OutputStream.class))).thenAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(ROWS);
+            return 2L;
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotResult result = snapshots.exportTenant("it's", out);
+
+        assertEquals(2, result.getRows());
+        assertArrayEquals(ROWS, new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).readAllBytes());
+        verify(copy).copyOut(argThat(sql -> sql.contains("tenant_id = 'it''s'") && sql.contains("expires_at IS NULL OR")
+                && sql.endsWith("ORDER BY key) TO STDOUT (FORMAT binary)")), any(OutputStream.class));
+        verify(connection).commit();
+    }
+
+    //a tenant restore replaces its rows in one transaction, then drops its cached values and resets its change feed
+    @Test
+    void testRestoreTenant() throws Exception {
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        when(copy.copyIn(anyString(), any(InputStream.class), anyInt())).thenAnswer(invocation -> {
+            invocation.<InputStream>getArgument(1).transferTo(copied);
+            return 2L;
+        });
+        when(count.getLong(1)).thenReturn(2L);
+        cache.put("tenant1", "key1", cache.generation("tenant1", "key1"), Map.of("a", 1), false, 1, 0, 10, null);
+        String cursor = feed.read("tenant1", null, 10).getCursor();
+        feed.publish("tenant1", ChangeEvent.Type.CREATE, "key1", 1);
+
+        SnapshotResult result = snapshots.restoreTenant("tenant1", new ByteArrayInputStream(gzip(ROWS)));
+
+        assertEquals(2, result.getRows());
+        assertArrayEquals(ROWS, copied.toByteArray());
+        verify(connection).prepareStatement("DELETE FROM key_value_store WHERE tenant_id = ?");
+        verify(copy).copyIn(eq("COPY key_value_store (tenant_id, key, data, expires_at, created_at, version, content_hash) "
+                + "FROM STDIN (FORMAT binary)"), any(InputStream.class), eq(1024));
+        verify(connection).commit();
+        assertNull(cache.get("tenant1", "key1"));
+        assertTrue(feed.read("tenant1", cursor, 10).isReset());
+    }
+
+    //rows of another tenant leave the tenant's count short and the restore is rolled back
+    @Test
+    void testRestoreTenant_RejectsOtherTenants() throws Exception {
+        when(copy.copyIn(anyString(), any(InputStream.class), anyInt())).thenReturn(2L);
+        when(count.getLong(1)).thenReturn(1L);
+        cache.put("tenant1", "key1", cache.generation("tenant1", "key1"), Map.of("a", 1), false, 1, 0, 10, null);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> snapshots.restoreTenant("tenant1", new ByteArrayInputStream(gzip(ROWS))));
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        assertNotNull(cache.get("tenant1", "key1"));
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)){
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
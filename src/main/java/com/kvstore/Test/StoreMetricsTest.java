@@ -0,0 +1,45 @@
+package com.kvstore.Test;
+
+import com.kvstore.exception.NotFoundException;
+import com.kvstore.service.StoreMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoreMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    //each operation is timed under the outcome the caller saw, and failures are still rethrown
+    @Test
+    void testTime_TagsOutcome() {
+        StoreMetrics metrics = new StoreMetrics(registry, true, 100);
+
+        assertEquals("ok", metrics.time("get", "tenant1", () -> "ok"));
+        assertThrows(NotFoundException.class, () -> metrics.time("get", "tenant1", () -> {
+            throw new NotFoundException("Key not found");
+        }));
+
+        assertEquals(1, registry.get("kvstore.operation")
+                .tags("operation", "get", "tenant", "tenant1", "outcome", "success").timer().count());
+        assertEquals(1, registry.get("kvstore.operation")
+                .tags("operation", "get", "tenant", "tenant1", "outcome", "not_found").timer().count());
+    }
+
+    //tenants beyond the limit share one tag value so the number of series stays bounded
+    @Test
+    void testTime_CapsTenantTags() {
+        StoreMetrics metrics = new StoreMetrics(registry, true, 2);
+
+        for (String tenant : new String[]{"tenant1", "tenant2", "tenant3", "tenant4", "tenant1"}){
+            metrics.time("create", tenant, () -> null);
+        }
+
+        assertEquals(2, registry.get("kvstore.operation").tag("tenant", "tenant1").timer().count());
+        assertEquals(2, registry.get("kvstore.operation").tag("tenant", "other").timer().count());
+        assertEquals(3, registry.get("kvstore.operation").timers().size());
+    }
+}
@@ -0,0 +1,85 @@
+package com.kvstore.Test;
+
+import com.kvstore.Utilities.StripedKeyLocks;
+
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedKeyLocksTest {
+
+    private final StripedKeyLocks locks = new StripedKeyLocks(16, 4);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    //a second writer on the same key waits until the first releases it
+    @Test
+    void testLockKey_BlocksSameKey() throws Exception {
+        Future<?> second;
+        try (StripedKeyLocks.Held ignored = locks.lockKey("tenant1", "key1")) {
+            second = executor.submit(() -> locks.lockKey("tenant1", "key1").close());
+            assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+        }
+        second.get(1, TimeUnit.SECONDS);
+    }
+
+    //writers on different stripes do not wait for each other
+    @Test
+    void testLockKey_DifferentKeysRunInParallel() throws Exception {
+        StripedKeyLocks wide = new StripedKeyLocks(1024, 4);
+        try (StripedKeyLocks.Held ignored = wide.lockKeys("tenant1", List.of("key1", "key2"))) {
+            executor.submit(() -> wide.lockKey("tenant1", "key3").close()).get(1, TimeUnit.SECONDS);
+        }
+    }
+
+    //locking keys of several tenants blocks a writer on any one of them
+    @Test
+    void testLockKeys_SeveralTenants() throws Exception {
+        Future<?> writer;
+        try (StripedKeyLocks.Held ignored = locks.lockKeys(Map.of("tenant1", List.of("key1"), "tenant2", List.of("key2")))) {
+            writer = executor.submit(() -> locks.lockKey("tenant2", "key2").close());
+            assertThrows(TimeoutException.class, () -> writer.get(100, TimeUnit.MILLISECONDS));
+        }
+        writer.get(1, TimeUnit.SECONDS);
+    }
+
+    //an exclusive tenant lock keeps single-key writers of that tenant out
+    @Test
+    void testLockTenant_BlocksKeyWriters() throws Exception {
+        Future<?> writer;
+        try (StripedKeyLocks.Held ignored = locks.lockTenant("tenant1")) {
+            writer = executor.submit(() -> locks.lockKey("tenant1", "key1").close());
+            assertThrows(TimeoutException.class, () -> writer.get(100, TimeUnit.MILLISECONDS));
+        }
+        writer.get(1, TimeUnit.SECONDS);
+    }
+
+    //inside a transaction the lock is kept until the transaction completes
+    @Test
+    void testLockKey_HeldUntilTransactionCompletion() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            locks.lockKey("tenant1", "key1").close();
+
+            Future<?> second = executor.submit(() -> locks.lockKey("tenant1", "key1").close());
+            assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            second.get(1, TimeUnit.SECONDS);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.kvstore.Test;
+
+import com.kvstore.exception.RateLimitException;
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.TenantRateLimiter.Kind;
+import com.kvstore.service.TenantRateLimiter.Limit;
+import com.kvstore.service.TenantRateLimiter.TenantLimits;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantRateLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AtomicLong clock = new AtomicLong(-TimeUnit.SECONDS.toNanos(100));
+
+    private TenantRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = new TenantRateLimiter(registry, true,
+                new TenantLimits(Limit.of(10, 20), Limit.of(2, 4)), clock::get);
+    }
+
+    //a tenant can spend its burst at once, is then rejected with a retry hint and refills at its rate
+    @Test
+    void testBurstThenRefill() {
+        rateLimiter.admit("tenant1", Kind.WRITE, 3);
+        rateLimiter.admit("tenant1", Kind.WRITE, 1);
+
+        RateLimitException e = assertThrows(RateLimitException.class, () -> rateLimiter.admit("tenant1", Kind.WRITE, 2));
+        assertEquals(1, e.getRetryAfterSeconds());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        rateLimiter.admit("tenant1", Kind.WRITE, 1);
+        assertThrows(RateLimitException.class, () -> rateLimiter.admit("tenant1", Kind.WRITE, 1));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        rateLimiter.admit("tenant1", Kind.WRITE, 4);
+        assertEquals(2.0, registry.get("kvstore.ratelimit.rejected").tag("kind", "write").counter().count());
+    }
+
+    //reads, writes and tenants have separate buckets
+    @Test
+    void testBucketsAreIndependent() {
+        rateLimiter.admit("tenant1", Kind.WRITE, 4);
+
+        assertThrows(RateLimitException.class, () -> rateLimiter.admit("tenant1", Kind.WRITE, 1));
+        rateLimiter.admit("tenant1", Kind.READ, 20);
+        rateLimiter.admit("tenant2", Kind.WRITE, 4);
+    }
+
+    //a batch larger than the burst can never fit and is refused as invalid
+    @Test
+    void testBatchLargerThanBurst() {
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter.admit("tenant1", Kind.WRITE, 5));
+    }
+
+    //limits replaced at runtime apply to the next request with a full bucket; removing an override restores the defaults
+    @Test
+    void testRuntimeOverride() {
+        rateLimiter.admit("tenant1", Kind.WRITE, 4);
+        rateLimiter.setOverride("tenant1", new TenantLimits(Limit.UNLIMITED, Limit.of(1000, 1000)));
+        rateLimiter.admit("tenant1", Kind.WRITE, 500);
+        rateLimiter.admit("tenant1", Kind.READ, 100000);
+
+        rateLimiter.removeOverride("tenant1");
+        rateLimiter.admit("tenant1", Kind.WRITE, 4);
+        assertThrows(RateLimitException.class, () -> rateLimiter.admit("tenant1", Kind.WRITE, 1));
+        assertEquals(Limit.of(2, 4), rateLimiter.limits("tenant1").write());
+    }
+
+    //reserve never rejects; the caller only waits once its reservation is past the burst
+    @Test
+    void testReserve() throws InterruptedException {
+        TenantRateLimiter limiter = new TenantRateLimiter(registry, true,
+                new TenantLimits(Limit.UNLIMITED, Limit.of(100, 10)), System::nanoTime);
+
+        long started = System.nanoTime();
+        limiter.reserve("tenant1", Kind.WRITE, 10);
+        limiter.reserve("tenant1", Kind.WRITE, 20);
+        long waited = System.nanoTime() - started;
+
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(150), "waited " + waited);
+        assertThrows(RateLimitException.class, () -> limiter.admit("tenant1", Kind.WRITE, 1));
+    }
+}
@@ -0,0 +1,49 @@
+package com.kvstore.Test;
+
+import com.kvstore.service.ValueCache;
+
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueCacheTest {
+
+    //values whose row has already expired are never cached
+    @Test
+    void testPut_SkipsExpiredRows() {
+        ValueCache cache = new ValueCache(true, 1 << 20, 300, 0);
+
+        cache.put("tenant1", "key1", cache.generation("tenant1", "key1"), Map.of(), false, 1, 0, 2, LocalDateTime.now().minusSeconds(1));
+
+        assertNull(cache.get("tenant1", "key1"));
+    }
+
+    //a load that raced with an invalidation does not put its stale value back
+    @Test
+    void testPut_IgnoresLoadOlderThanInvalidation() {
+        ValueCache cache = new ValueCache(true, 1 << 20, 300, 0);
+        long generation = cache.generation("tenant1", "key1");
+
+        cache.invalidate("tenant1", "key1");
+        cache.put("tenant1", "key1", generation, Map.of(), false, 1, 0, 2, null);
+
+        assertNull(cache.get("tenant1", "key1"));
+    }
+
+    //a tenant is not admitted past its share while other tenants still are
+    @Test
+    void testPut_TenantShareCapsHotTenant() {
+        ValueCache cache = new ValueCache(true, 100_000, 300, 0.1);
+
+        for (int i = 0; i < 100; i++){
+            cache.put("hot", "key" + i, cache.generation("hot", "key" + i), Map.of(), false, 1, 0, 1000, null);
+        }
+        cache.put("quiet", "key1", cache.generation("quiet", "key1"), Map.of(), false, 1, 0, 1000, null);
+
+        assertTrue(cache.getTenantBytes("hot") <= 10_000);
+        assertNotNull(cache.get("quiet", "key1"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.kvstore.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kvstore.codec.ContentHash;
+import com.kvstore.codec.EncodedValue;
+import com.kvstore.codec.ValueCodec;
+import com.kvstore.codec.ValueCompression;
+import com.kvstore.codec.ValueFormat;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Object> value = Map.of("name", "x".repeat(4096), "count", 3);
+
+    //every format reads back what it wrote, with and without compression
+    @Test
+    void testEncode_RoundTripsAllFormats() throws IOException {
+        for (ValueFormat format : ValueFormat.values()){
+            for (ValueCompression compression : ValueCompression.values()){
+                ValueCodec codec = new ValueCodec(objectMapper, format, compression, 1024);
+
+                EncodedValue encoded = codec.encode(value);
+
+                assertEquals(value, codec.decode(encoded.stored()), format + "/" + compression);
+                assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(value)),
+                        objectMapper.readTree(codec.toJson(encoded.stored())));
+            }
+        }
+    }
+
+    //the size limit applies to the serialized value, not the compressed bytes
+    @Test
+    void testEncode_SizeIsUncompressedSize() throws IOException {
+        ValueCodec codec = new ValueCodec(objectMapper, ValueFormat.JSON, ValueCompression.LZ4, 1024);
+
+        EncodedValue encoded = codec.encode(value);
+
+        assertEquals(objectMapper.writeValueAsBytes(value).length, encoded.size());
+        assertTrue(encoded.stored().length < encoded.size() / 4);
+        assertEquals(encoded.size(), codec.encodedSize(encoded.stored()));
+    }
+
+    //values stored as plain JSON text before the codec existed are still readable
+    @Test
+    void testDecode_LegacyJsonText() throws IOException {
+        ValueCodec codec = new ValueCodec(objectMapper, ValueFormat.SMILE, ValueCompression.NONE, 1024);
+        byte[] legacy = "{\"field\":\"value\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(Map.of("field", "value"), codec.decode(legacy));
+        assertEquals("{\"field\":\"value\"}", codec.toJson(legacy));
+    }
+
+    //the content hash is a quoted ETag that If-None-Match matches weakly, in a list or as *
+    @Test
+    void testContentHash_MatchesIfNoneMatch() throws IOException {
+        ValueCodec codec = new ValueCodec(objectMapper, ValueFormat.JSON, ValueCompression.NONE, 1024);
+        long hash = ContentHash.of(codec.encode(value).stored());
+        String etag = ContentHash.etag(hash);
+
+        assertEquals(hash, ContentHash.of(codec.encode(value).stored()));
+        assertNotEquals(hash, ContentHash.of(codec.encode(Map.of("count", 4)).stored()));
+        assertTrue(etag.matches("\"[0-9a-f]{16}\""));
+        assertTrue(ContentHash.matches("\"0000000000000000\", W/" + etag, hash));
+        assertTrue(ContentHash.matches("*", hash));
+        assertFalse(ContentHash.matches("\"0000000000000000\"", hash));
+        assertFalse(ContentHash.matches(null, hash));
+    }
+}
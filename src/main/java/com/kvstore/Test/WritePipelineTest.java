@@ -0,0 +1,114 @@
+package com.kvstore.Test;
+
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.exception.DuplicateKeyException;
+import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.WritePipeline;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WritePipelineTest {
+
+    private final KeyValueStoreService store = mock(KeyValueStoreService.class);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    //concurrent creates are written by one group commit and each caller gets its own outcome
+    @Test
+    void testCreate_CoalescesConcurrentWrites() throws Exception {
+        WritePipeline pipeline = new WritePipeline(store, registry, true, 4, 1000, 100, 1);
+        when(store.createKeyValueGroups(anyMap())).thenAnswer(invocation -> {
+            Map<String, List<KeyValueRequest>> requests = invocation.getArgument(0);
+            RuntimeException[] failures = new RuntimeException[requests.get("tenant1").size()];
+            for (int i = 0; i < failures.length; i++){
+                if (requests.get("tenant1").get(i).getKey().equals("taken")){
+                    failures[i] = new DuplicateKeyException("Key 'taken' already exists for tenant: tenant1");
+                }
+            }
+            return Map.of("tenant1", failures);
+        });
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (String key : List.of("key1", "key2", "taken", "key3")){
+                results.add(executor.submit(() -> pipeline.create(new KeyValueRequest(key, 1, null), "tenant1")));
+            }
+
+            int duplicates = 0;
+            for (Future<?> result : results){
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e){
+                    assertInstanceOf(DuplicateKeyException.class, e.getCause());
+                    duplicates++;
+                }
+            }
+
+            assertEquals(1, duplicates);
+            verify(store, times(1)).createKeyValueGroups(anyMap());
+            verify(store, never()).createKeyValue(any(), any());
+            assertEquals(4, registry.summary("kvstore.write.group.size").totalAmount());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    //a lone write is flushed once the delay runs out instead of waiting for a full batch
+    @Test
+    void testCreate_FlushesAfterDelay() throws Exception {
+        WritePipeline pipeline = new WritePipeline(store, registry, true, 64, 5, 100, 1);
+        when(store.createKeyValueGroups(anyMap())).thenReturn(Map.of("tenant1", new RuntimeException[1]));
+
+        try {
+            executor.submit(() -> pipeline.create(new KeyValueRequest("key1", 1, null), "tenant1")).get(5, TimeUnit.SECONDS);
+            assertEquals(1, registry.timer("kvstore.write.group.queue.delay").count());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    //a failed commit fails every write of the group
+    @Test
+    void testCreate_CommitFailureReachesAllCallers() {
+        WritePipeline pipeline = new WritePipeline(store, registry, true, 64, 5, 100, 1);
+        when(store.createKeyValueGroups(anyMap())).thenThrow(new IllegalStateException("database unavailable"));
+
+        try {
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> pipeline.create(new KeyValueRequest("key1", 1, null), "tenant1"));
+            assertEquals("database unavailable", e.getMessage());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    //with group commit off every create runs on its own
+    @Test
+    void testCreate_DisabledCallsServiceDirectly() {
+        WritePipeline pipeline = new WritePipeline(store, registry, false, 64, 2, 100, 1);
+        KeyValueRequest request = new KeyValueRequest("key1", 1, null);
+
+        pipeline.create(request, "tenant1");
+
+        verify(store, times(1)).createKeyValue(request, "tenant1");
+        verify(store, never()).createKeyValueGroups(anyMap());
+    }
+}
@@ -0,0 +1,25 @@
+package com.kvstore.Utilities;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+public class BatchGetResponse {
+    private Map<String, Object> hits = new LinkedHashMap<>();
+    private List<String> misses = new ArrayList<>();
+
+    public void addHit(String key, Object data){
+        hits.put(key, data);
+    }
+
+    public void addMiss(String key){
+        misses.add(key);
+    }
+
+}
@@ -0,0 +1,6 @@
+package com.kvstore.Utilities;
+
+// Outcome of a compare-and-set: the new version when it was applied, otherwise the key's current version,
+// or 0 when the key does not exist or has expired.
+public record CompareAndSetResult(boolean applied, long version) {
+}
@@ -0,0 +1,8 @@
+package com.kvstore.Utilities;
+
+import java.time.LocalDateTime;
+
+// Outcome of one expiry sweep of a shard: the expired keys it removed and the expiry of the oldest expired
+// key it had to leave behind, or null when it left none.
+public record ExpirySweep(int removed, LocalDateTime oldestExpiry) {
+}
@@ -0,0 +1,26 @@
+package com.kvstore.Utilities;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public class ImportChunkResult {
+    private int chunk;
+    private long firstLine;
+    private int records;
+    private int accepted;
+    private List<BatchFailure> failures = new ArrayList<>();
+
+    public ImportChunkResult(int chunk, long firstLine){
+        this.chunk = chunk;
+        this.firstLine = firstLine;
+    }
+
+    public void addFailure(String key, String reason){
+        failures.add(new BatchFailure(key, reason));
+    }
+}
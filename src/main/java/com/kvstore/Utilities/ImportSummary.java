@@ -0,0 +1,15 @@
+package com.kvstore.Utilities;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class ImportSummary {
+    private boolean completed;
+    private int chunks;
+    private long records;
+    private long accepted;
+    private long failed;
+    private String error;
+}
@@ -0,0 +1,13 @@
+package com.kvstore.Utilities;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class SnapshotResult {
+    private String shard;
+    private String tenantId;
+    private long rows;
+    private long durationMillis;
+}
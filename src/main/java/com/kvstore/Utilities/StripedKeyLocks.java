@@ -0,0 +1,152 @@
+package com.kvstore.Utilities;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Lock striping for writes keyed by (tenantId, key).
+// Every write takes its tenant stripe in shared mode and then its key stripe(s) in ascending index order,
+// so writes to different keys run in parallel. A batch can instead take the tenant stripe exclusively.
+// Inside a transaction the locks are held until it completes, otherwise a second writer could pass the
+// existence check before the first insert is committed.
+@Component
+public class StripedKeyLocks {
+
+    private static final int DEFAULT_KEY_STRIPES = 1024;
+    private static final int DEFAULT_TENANT_STRIPES = 64;
+
+    private final ReentrantLock[] keyStripes;
+    private final ReentrantReadWriteLock[] tenantStripes;
+
+    public StripedKeyLocks(){
+        this(DEFAULT_KEY_STRIPES, DEFAULT_TENANT_STRIPES);
+    }
+
+    @Autowired
+    public StripedKeyLocks(@Value("${kvstore.locks.key-stripes:1024}") int keyStripes,
+                           @Value("${kvstore.locks.tenant-stripes:64}") int tenantStripes){
+        this.keyStripes = new ReentrantLock[powerOfTwo(keyStripes)];
+        for (int i = 0; i < this.keyStripes.length; i++){
+            this.keyStripes[i] = new ReentrantLock();
+        }
+        this.tenantStripes = new ReentrantReadWriteLock[powerOfTwo(tenantStripes)];
+        for (int i = 0; i < this.tenantStripes.length; i++){
+            this.tenantStripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public Held lockKey(String tenantId, String key){
+        List<Lock> locks = new ArrayList<>(2);
+        locks.add(tenantStripe(tenantId).readLock());
+        locks.add(keyStripes[keyIndex(tenantId, key)]);
+        return hold(locks);
+    }
+
+    public Held lockKeys(String tenantId, Collection<String> keys){
+        return lockKeys(Map.of(tenantId, keys));
+    }
+
+    // Keys of several tenants at once: all tenant stripes in ascending order, then all key stripes in ascending
+    // order, so it cannot deadlock against writers holding any subset of them.
+    public Held lockKeys(Map<String, ? extends Collection<String>> keysByTenant){
+        TreeSet<Integer> tenantIndexes = new TreeSet<>();
+        TreeSet<Integer> keyIndexes = new TreeSet<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : keysByTenant.entrySet()){
+            tenantIndexes.add(tenantIndex(entry.getKey()));
+            for (String key : entry.getValue()){
+                keyIndexes.add(keyIndex(entry.getKey(), key));
+            }
+        }
+
+        List<Lock> locks = new ArrayList<>(tenantIndexes.size() + keyIndexes.size());
+        for (int index : tenantIndexes){
+            locks.add(tenantStripes[index].readLock());
+        }
+        for (int index : keyIndexes){
+            locks.add(keyStripes[index]);
+        }
+        return hold(locks);
+    }
+
+    public Held lockTenant(String tenantId){
+        return hold(List.of(tenantStripe(tenantId).writeLock()));
+    }
+
+    private Held hold(List<Lock> locks){
+        Held held = new Held(locks);
+        for (Lock lock : locks){
+            lock.lock();
+            held.acquired++;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status){
+                    held.release();
+                }
+            });
+            held.deferred = true;
+        }
+        return held;
+    }
+
+    private ReentrantReadWriteLock tenantStripe(String tenantId){
+        return tenantStripes[tenantIndex(tenantId)];
+    }
+
+    private int tenantIndex(String tenantId){
+        return spread(tenantId.hashCode()) & (tenantStripes.length - 1);
+    }
+
+    private int keyIndex(String tenantId, String key){
+        return spread(31 * tenantId.hashCode() + Objects.hashCode(key)) & (keyStripes.length - 1);
+    }
+
+    private static int spread(int h){
+        return h ^ (h >>> 16);
+    }
+
+    private static int powerOfTwo(int n){
+        if (n < 1){
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    public static final class Held implements AutoCloseable {
+        private final List<Lock> locks;
+        private int acquired;
+        private boolean deferred;
+
+        private Held(List<Lock> locks){
+            this.locks = locks;
+        }
+
+        // Released by the transaction synchronization when one is active.
+        @Override
+        public void close(){
+            if (!deferred){
+                release();
+            }
+        }
+
+        private void release(){
+            while (acquired > 0){
+                locks.get(--acquired).unlock();
+            }
+        }
+    }
+}
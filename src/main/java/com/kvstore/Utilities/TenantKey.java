@@ -0,0 +1,5 @@
+package com.kvstore.Utilities;
+
+// A key together with the tenant it belongs to.
+public record TenantKey(String tenantId, String key) {
+}
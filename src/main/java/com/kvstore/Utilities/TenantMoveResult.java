@@ -0,0 +1,17 @@
+package com.kvstore.Utilities;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class TenantMoveResult {
+    private String tenantId;
+    private String source;
+    private String target;
+    private long keys;
+    private long copied;
+    private long removed;
+    private long pausedMillis;
+    private long durationMillis;
+}
@@ -0,0 +1,41 @@
+package com.kvstore.codec;
+
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+// 64-bit XXH64 of a stored value, computed once when the value is written and served as its ETag.
+// The hash is over the stored bytes, so the same value stored with another format or compression gets
+// another tag; that only costs a client one full response.
+public final class ContentHash {
+
+    private static final XXHash64 HASH = XXHashFactory.fastestInstance().hash64();
+
+    private ContentHash(){
+    }
+
+    public static long of(byte[] stored){
+        return HASH.hash(stored, 0, stored.length, 0);
+    }
+
+    public static String etag(long hash){
+        return "\"" + String.format("%016x", hash) + "\"";
+    }
+
+    // Weak comparison, as If-None-Match requires: W/ prefixes are ignored and * matches any value.
+    public static boolean matches(String ifNoneMatch, long hash){
+        if (ifNoneMatch == null){
+            return false;
+        }
+        String etag = etag(hash);
+        for (String candidate : ifNoneMatch.split(",")){
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")){
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)){
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,6 @@
+package com.kvstore.codec;
+
+// stored is what goes into the data column; size is the serialized size before compression,
+// which is what the value size limit applies to.
+public record EncodedValue(byte[] stored, int size) {
+}
@@ -0,0 +1,141 @@
+package com.kvstore.codec;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Encodes values for the bytea data column.
+// A stored value is one header byte (format id, high bit set when LZ4 compressed) followed by the payload;
+// compressed payloads start with the 4-byte uncompressed length. Values are serialized once: the size
+// limit is checked against the same bytes that are stored. Rows written before the codec existed hold
+// plain JSON text without a header, which can never start with a header byte.
+@Component
+public class ValueCodec {
+
+    private static final int COMPRESSED = 0x80;
+    private static final int FORMAT_MASK = 0x7F;
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper = new SmileMapper();
+    private final ObjectMapper cborMapper = new CBORMapper();
+
+    private final ValueFormat format;
+    private final ValueCompression compression;
+    private final int compressionThreshold;
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    @Autowired
+    public ValueCodec(ObjectMapper jsonMapper,
+                      @Value("${kvstore.codec.format:JSON}") ValueFormat format,
+                      @Value("${kvstore.codec.compression:NONE}") ValueCompression compression,
+                      @Value("${kvstore.codec.compression-threshold:1024}") int compressionThreshold){
+        this.jsonMapper = jsonMapper;
+        this.format = format;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public EncodedValue encode(Object value) throws JsonProcessingException {
+        byte[] serialized = mapper(format).writeValueAsBytes(value);
+
+        if (compression == ValueCompression.LZ4 && serialized.length >= compressionThreshold){
+            byte[] compressed = new byte[5 + compressor.maxCompressedLength(serialized.length)];
+            int length = compressor.compress(serialized, 0, serialized.length, compressed, 5);
+            if (5 + length < serialized.length){
+                compressed[0] = (byte) (COMPRESSED | format.getId());
+                writeInt(compressed, 1, serialized.length);
+                return new EncodedValue(Arrays.copyOf(compressed, 5 + length), serialized.length);
+            }
+        }
+
+        byte[] stored = new byte[serialized.length + 1];
+        stored[0] = (byte) format.getId();
+        System.arraycopy(serialized, 0, stored, 1, serialized.length);
+        return new EncodedValue(stored, serialized.length);
+    }
+
+    public Object decode(byte[] stored) throws IOException {
+        if (isLegacy(stored)){
+            return jsonMapper.readValue(stored, Object.class);
+        }
+        ValueFormat storedFormat = ValueFormat.fromId(stored[0] & FORMAT_MASK);
+        byte[] payload = payload(stored);
+        int offset = isCompressed(stored) ? 0 : 1;
+        return mapper(storedFormat).readValue(payload, offset, payload.length - offset, Object.class);
+    }
+
+    // JSON text of a stored value; JSON payloads are only copied, other formats are transcoded.
+    public String toJson(byte[] stored) throws IOException {
+        if (isLegacy(stored)){
+            return new String(stored, StandardCharsets.UTF_8);
+        }
+        byte[] payload = payload(stored);
+        int offset = isCompressed(stored) ? 0 : 1;
+        if (ValueFormat.fromId(stored[0] & FORMAT_MASK) == ValueFormat.JSON){
+            return new String(payload, offset, payload.length - offset, StandardCharsets.UTF_8);
+        }
+        return jsonMapper.writeValueAsString(decode(stored));
+    }
+
+    // Serialized size of a stored value before compression, as EncodedValue.size() reported when it was written.
+    public int encodedSize(byte[] stored){
+        if (isLegacy(stored)){
+            return stored.length;
+        }
+        return isCompressed(stored) ? readInt(stored, 1) : stored.length - 1;
+    }
+
+    private byte[] payload(byte[] stored){
+        if (!isCompressed(stored)){
+            return stored;
+        }
+        return decompressor.decompress(stored, 5, readInt(stored, 1));
+    }
+
+    private ObjectMapper mapper(ValueFormat valueFormat){
+        return switch (valueFormat){
+            case JSON -> jsonMapper;
+            case SMILE -> smileMapper;
+            case CBOR -> cborMapper;
+        };
+    }
+
+    private static boolean isLegacy(byte[] stored){
+        if (stored.length == 0){
+            return true;
+        }
+        int formatId = stored[0] & FORMAT_MASK;
+        return formatId < 1 || formatId > ValueFormat.values().length;
+    }
+
+    private static boolean isCompressed(byte[] stored){
+        return (stored[0] & COMPRESSED) != 0;
+    }
+
+    private static void writeInt(byte[] target, int offset, int value){
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] source, int offset){
+        return (source[offset] & 0xFF) << 24 | (source[offset + 1] & 0xFF) << 16
+                | (source[offset + 2] & 0xFF) << 8 | (source[offset + 3] & 0xFF);
+    }
+}
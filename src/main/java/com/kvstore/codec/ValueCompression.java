@@ -0,0 +1,6 @@
+package com.kvstore.codec;
+
+public enum ValueCompression {
+    NONE,
+    LZ4
+}
@@ -0,0 +1,26 @@
+package com.kvstore.codec;
+
+public enum ValueFormat {
+    JSON(1),
+    SMILE(2),
+    CBOR(3);
+
+    private final int id;
+
+    ValueFormat(int id){
+        this.id = id;
+    }
+
+    public int getId(){
+        return id;
+    }
+
+    public static ValueFormat fromId(int id){
+        for (ValueFormat format : values()){
+            if (format.id == id){
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown value format: " + id);
+    }
+}
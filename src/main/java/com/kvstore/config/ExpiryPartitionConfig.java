@@ -0,0 +1,19 @@
+package com.kvstore.config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Hibernate does not see the indexes of a partitioned table and would try to create them again on every start,
+// so with kvstore.ttl.partitioning.enabled the table is left to KeyValueSchemaMigrator and ExpiryPartitions.
+@Configuration
+@ConditionalOnProperty(name = "kvstore.ttl.partitioning.enabled", havingValue = "true")
+public class ExpiryPartitionConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer expiryPartitionedSchema(){
+        return properties -> properties.put(AvailableSettings.HBM2DDL_AUTO, "none");
+    }
+}
@@ -0,0 +1,227 @@
+package com.kvstore.config;
+
+import com.kvstore.storage.ExpiryPartitions;
+import com.kvstore.storage.ShardContext;
+import com.kvstore.storage.ShardRouter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+// Brings an existing key_value_store table up to the current layout.
+// Primary key: tables created before keys were tenant scoped have a key-only primary key, and Hibernate
+// orders the columns of a composite key alphabetically. The new index is built concurrently and then
+// swapped in, so the table is only locked for the final constraint change.
+// Data column: values used to be stored as TEXT; the column becomes bytea holding the same UTF-8 JSON,
+// which ValueCodec reads as header-less legacy values. This rewrites the table under an exclusive lock, so it
+// only runs with kvstore.schema.migrate-data-column=true; otherwise startup fails while the column is TEXT.
+// Key collation: scans read key ranges in "C" collation order. Tables whose key column has another collation
+// get a (tenant_id, key COLLATE "C") index for them, built concurrently unless the table is partitioned.
+// Version column: added with a default of 1, so every existing row starts at version 1.
+// Content hash column: left empty on existing rows, whose ETag is computed from the value when it is read.
+// Expiry partitioning: switching kvstore.ttl.partitioning.enabled on or off copies the live rows into a new
+// table of the other layout, once, in one transaction that holds the table locked for the copy.
+// Sharded, Hibernate only sees the primary shard, so the table is created on the other shards here and every
+// shard is migrated in turn.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kvstore.storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class KeyValueSchemaMigrator {
+
+    private static final String TABLE = "key_value_store";
+    private static final String OLD_TABLE = "key_value_store_old";
+    private static final String COLUMNS = "tenant_id, key, data, expires_at, created_at, version, content_hash";
+    private static final String PRIMARY_KEY = "key_value_store_pkey";
+    private static final String NEW_INDEX = "key_value_store_tenant_key_idx";
+    private static final List<String> PRIMARY_KEY_COLUMNS = List.of("tenant_id", "key");
+    private static final String SCAN_INDEX = "key_value_store_scan_idx";
+    private static final String C_COLLATION = "C";
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE + " (tenant_id varchar(255) NOT NULL, "
+            + "key varchar(32) COLLATE \"C\" NOT NULL, data bytea NOT NULL, expires_at timestamp(6), created_at timestamp(6), "
+            + "version bigint NOT NULL DEFAULT 1, content_hash bigint, PRIMARY KEY (tenant_id, key))";
+    private static final String ADD_VERSION_SQL = "ALTER TABLE " + TABLE + " ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 1";
+    private static final String ADD_CONTENT_HASH_SQL = "ALTER TABLE " + TABLE + " ADD COLUMN IF NOT EXISTS content_hash bigint";
+    private static final String CREATE_INDEX_SQL = "CREATE INDEX IF NOT EXISTS idx_key_value_store_expires_at ON " + TABLE + " (expires_at)";
+    private static final String KEY_COLLATION_SQL = "SELECT c.collname FROM pg_attribute a JOIN pg_collation c ON c.oid = a.attcollation "
+            + "WHERE a.attrelid = to_regclass('" + TABLE + "') AND a.attname = 'key'";
+    private static final String VALID_INDEX_SQL = "SELECT count(*) FROM pg_index WHERE indexrelid = to_regclass(?) AND indisvalid";
+    private static final String PARTITIONED = "p";
+    private static final String TABLE_KIND_SQL = "SELECT relkind FROM pg_class WHERE oid = to_regclass('" + TABLE + "')";
+    private static final String COPY_LIVE_SQL = "INSERT INTO " + TABLE + " (" + COLUMNS + ") SELECT " + COLUMNS + " FROM " + OLD_TABLE
+            + " WHERE expires_at IS NULL OR expires_at > ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ShardRouter router;
+
+    @Autowired
+    private ObjectProvider<ExpiryPartitions> partitions;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Schema updates by Hibernate must have run first.
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${kvstore.schema.migrate:true}")
+    private boolean migrate;
+
+    @Value("${kvstore.schema.migrate-data-column:false}")
+    private boolean migrateDataColumn;
+
+    @PostConstruct
+    public void migrate(){
+        if (!migrate){
+            return;
+        }
+
+        for (String shard : router.getShards()){
+            ShardContext.callOn(shard, () -> {
+                migrateShard();
+                return null;
+            });
+        }
+    }
+
+    private void migrateShard(){
+        if (!isPostgres()){
+            return;
+        }
+        ExpiryPartitions buckets = partitions.getIfAvailable();
+        if (buckets != null && tableKind() == null){
+            buckets.createTable();
+            buckets.makeBuckets(LocalDateTime.now());
+        } else if (router.isSharded()){
+            jdbcTemplate.execute(CREATE_TABLE_SQL);
+            jdbcTemplate.execute(CREATE_INDEX_SQL);
+        }
+
+        migratePrimaryKey();
+        migrateDataColumn();
+        jdbcTemplate.execute(ADD_VERSION_SQL);
+        jdbcTemplate.execute(ADD_CONTENT_HASH_SQL);
+        migrateLayout(buckets);
+        migrateScanIndex();
+    }
+
+    private void migratePrimaryKey(){
+        PrimaryKey current = currentPrimaryKey();
+        if (current == null || current.columns().equals(PRIMARY_KEY_COLUMNS)){
+            return;
+        }
+
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + NEW_INDEX);
+        jdbcTemplate.execute("CREATE UNIQUE INDEX CONCURRENTLY " + NEW_INDEX + " ON " + TABLE + " (tenant_id, key)");
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP CONSTRAINT " + current.name()
+                + ", ADD CONSTRAINT " + PRIMARY_KEY + " PRIMARY KEY USING INDEX " + NEW_INDEX);
+    }
+
+    private void migrateDataColumn(){
+        String type = jdbcTemplate.execute((Connection con) -> {
+            try (ResultSet rs = con.getMetaData().getColumns(null, null, TABLE, "data")){
+                return rs.next() ? rs.getString("TYPE_NAME") : null;
+            }
+        });
+        if (!"text".equalsIgnoreCase(type)){
+            return;
+        }
+        if (!migrateDataColumn){
+            throw new IllegalStateException("The data column of " + TABLE + " on shard " + ShardContext.current()
+                    + " is still TEXT; converting it rewrites the table, set kvstore.schema.migrate-data-column=true to run it");
+        }
+        log.info("Converting the data column of {} on shard {} to bytea", TABLE, ShardContext.current());
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ALTER COLUMN data TYPE bytea USING convert_to(data, 'UTF8')");
+    }
+
+    private void migrateScanIndex(){
+        String collation = jdbcTemplate.queryForList(KEY_COLLATION_SQL, String.class).stream().findFirst().orElse(C_COLLATION);
+        Integer valid = jdbcTemplate.queryForObject(VALID_INDEX_SQL, Integer.class, SCAN_INDEX);
+        if (C_COLLATION.equals(collation) || (valid != null && valid > 0)){
+            return;
+        }
+
+        String columns = " ON " + TABLE + " (tenant_id, key COLLATE \"C\")";
+        if (PARTITIONED.equals(tableKind())){
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + SCAN_INDEX + columns);
+        } else {
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + SCAN_INDEX);
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY " + SCAN_INDEX + columns);
+        }
+        log.info("Built {} on shard {} for scans of keys with collation {}", SCAN_INDEX, ShardContext.current(), collation);
+    }
+
+    private void migrateLayout(ExpiryPartitions buckets){
+        if ((buckets != null) == PARTITIONED.equals(tableKind())){
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        Integer rows = new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + OLD_TABLE);
+            jdbcTemplate.execute("DROP INDEX IF EXISTS idx_key_value_store_expires_at");
+            if (buckets != null){
+                buckets.createTable();
+                buckets.makeBuckets(now);
+            } else {
+                jdbcTemplate.execute(CREATE_TABLE_SQL);
+                jdbcTemplate.execute(CREATE_INDEX_SQL);
+            }
+            int copied = jdbcTemplate.update(COPY_LIVE_SQL, Timestamp.valueOf(now));
+            jdbcTemplate.execute("DROP TABLE " + OLD_TABLE + " CASCADE");
+            return copied;
+        });
+        log.info("Converted {} on shard {} to the {} layout, {} live rows copied", TABLE, ShardContext.current(),
+                buckets != null ? "expiry partitioned" : "unpartitioned", rows);
+    }
+
+    // r for a plain table, p for a partitioned one, null when there is none yet.
+    private String tableKind(){
+        return jdbcTemplate.queryForList(TABLE_KIND_SQL, String.class).stream().findFirst().orElse(null);
+    }
+
+    private boolean isPostgres(){
+        return Boolean.TRUE.equals(jdbcTemplate.execute((Connection con) ->
+                "PostgreSQL".equals(con.getMetaData().getDatabaseProductName())));
+    }
+
+    private PrimaryKey currentPrimaryKey(){
+        return jdbcTemplate.execute((Connection con) -> {
+            DatabaseMetaData metaData = con.getMetaData();
+            TreeMap<Short, String> columns = new TreeMap<>();
+            String name = null;
+            try (ResultSet rs = metaData.getPrimaryKeys(null, null, TABLE)){
+                while (rs.next()){
+                    columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                    name = rs.getString("PK_NAME");
+                }
+            }
+            return name == null ? null : new PrimaryKey(name, new ArrayList<>(columns.values()));
+        });
+    }
+
+    private record PrimaryKey(String name, List<String> columns) {
+    }
+}
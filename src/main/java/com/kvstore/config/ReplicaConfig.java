@@ -0,0 +1,80 @@
+package com.kvstore.config;
+
+import com.kvstore.storage.ReplicaSet;
+import com.kvstore.storage.ReplicaSets;
+import com.kvstore.storage.ShardRouter;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// With kvstore.replicas.enabled, reads are spread over read replicas: kvstore.replicas.urls (comma separated)
+// or, when sharded, kvstore.sharding.<shard>.replica-urls per shard. Each replica gets its own Hikari pool of
+// kvstore.replicas.pool-size connections, with the primary's credentials unless kvstore.replicas.username and
+// .password are set. Sharded, ShardingConfig puts the replicas behind each shard's pool; otherwise this
+// configuration provides the application's DataSource.
+@Configuration
+@ConditionalOnProperty(name = "kvstore.replicas.enabled", havingValue = "true")
+public class ReplicaConfig {
+
+    @Bean(destroyMethod = "close")
+    public ReplicaSets replicaSets(ShardRouter router, Environment environment, MeterRegistry registry){
+        boolean sharded = environment.getProperty("kvstore.sharding.enabled", Boolean.class, false);
+        long maxLagMillis = environment.getProperty("kvstore.replicas.max-lag-ms", Long.class, 1000L);
+        Map<String, ReplicaSet> sets = new LinkedHashMap<>();
+        for (String shard : router.getShards()){
+            String prefix = sharded ? "kvstore.sharding." + shard + "." : "spring.datasource.";
+            String[] urls = environment.getProperty(sharded ? prefix + "replica-urls" : "kvstore.replicas.urls", String[].class, new String[0]);
+            List<ReplicaSet.Replica> replicas = new ArrayList<>();
+            for (int i = 0; i < urls.length; i++){
+                String name = shard + "-replica-" + i;
+                HikariDataSource dataSource = DataSourceBuilder.create()
+                        .type(HikariDataSource.class)
+                        .url(urls[i].trim())
+                        .username(environment.getProperty("kvstore.replicas.username", environment.getProperty(prefix + "username",
+                                environment.getProperty("spring.datasource.username"))))
+                        .password(environment.getProperty("kvstore.replicas.password", environment.getProperty(prefix + "password",
+                                environment.getProperty("spring.datasource.password"))))
+                        .build();
+                dataSource.setPoolName("kvstore-" + name);
+                dataSource.setMaximumPoolSize(environment.getProperty("kvstore.replicas.pool-size", Integer.class, 10));
+                dataSource.setReadOnly(true);
+                // A replica that is down must not hold up requests: they fall back to the primary instead.
+                dataSource.setConnectionTimeout(environment.getProperty("kvstore.replicas.connect-timeout-ms", Long.class, 1000L));
+                dataSource.setInitializationFailTimeout(-1);
+                replicas.add(new ReplicaSet.Replica(name, dataSource, ReplicaSet.POSTGRES_LAG));
+            }
+            sets.put(shard, new ReplicaSet(shard, replicas, maxLagMillis, registry));
+        }
+        return new ReplicaSets(sets, environment.getProperty("kvstore.replicas.lag-check-interval-ms", Long.class, 1000L));
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    @ConditionalOnProperty(name = "kvstore.sharding.enabled", havingValue = "false", matchIfMissing = true)
+    public HikariDataSource primaryDataSource(DataSourceProperties properties){
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "kvstore.sharding.enabled", havingValue = "false", matchIfMissing = true)
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaSets replicas){
+        return new LazyConnectionDataSourceProxy(replicas.wrap(ShardRouter.DEFAULT_SHARD, primaryDataSource));
+    }
+}
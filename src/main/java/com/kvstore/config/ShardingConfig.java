@@ -0,0 +1,68 @@
+package com.kvstore.config;
+
+import com.kvstore.storage.ReplicaSets;
+import com.kvstore.storage.ShardDataSources;
+import com.kvstore.storage.ShardRouter;
+import com.kvstore.storage.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// With kvstore.sharding.enabled every shard in kvstore.sharding.shards gets its own Hikari pool, configured with
+// kvstore.sharding.<shard>.url, .username, .password and .pool-size (credentials default to spring.datasource.*).
+// The application's DataSource routes each connection to the shard of the tenant being worked on, and to one of
+// the shard's replicas for reads when ReplicaConfig is enabled as well.
+@Configuration
+@ConditionalOnProperty(name = "kvstore.sharding.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    @Bean(destroyMethod = "close")
+    public ShardDataSources shardDataSources(ShardRouter router, Environment environment){
+        Map<String, DataSource> dataSources = new LinkedHashMap<>();
+        for (String shard : router.getShards()){
+            String prefix = "kvstore.sharding." + shard + ".";
+            String url = environment.getProperty(prefix + "url");
+            if (url == null){
+                throw new IllegalStateException("No JDBC URL configured for shard " + shard + " (" + prefix + "url)");
+            }
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(url)
+                    .username(environment.getProperty(prefix + "username", environment.getProperty("spring.datasource.username")))
+                    .password(environment.getProperty(prefix + "password", environment.getProperty("spring.datasource.password")))
+                    .build();
+            dataSource.setPoolName("kvstore-shard-" + shard);
+            dataSource.setMaximumPoolSize(environment.getProperty(prefix + "pool-size", Integer.class, 10));
+            dataSources.put(shard, dataSource);
+        }
+        return new ShardDataSources(dataSources);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardDataSources shards, ShardRouter router, ObjectProvider<ReplicaSets> replicaSets){
+        ReplicaSets replicas = replicaSets.getIfAvailable();
+        Map<Object, Object> targets = new HashMap<>();
+        shards.getDataSources().forEach((shard, dataSource) ->
+                targets.put(shard, replicas == null ? dataSource : replicas.wrap(shard, dataSource)));
+
+        ShardRoutingDataSource routing = new ShardRoutingDataSource();
+        routing.setTargetDataSources(targets);
+        routing.setDefaultTargetDataSource(targets.get(router.getPrimaryShard()));
+        routing.setLenientFallback(false);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
@@ -0,0 +1,134 @@
+package com.kvstore.controller;
+
+import com.kvstore.dto.ChangeEvent;
+import com.kvstore.dto.ChangePage;
+import com.kvstore.service.ChangeFeed;
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.TenantRateLimiter.Kind;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Change feed endpoints. Neither holds a request thread while it waits: a long poll is parked as a DeferredResult
+// and a stream as an SseEmitter, and both are completed from the feed's dispatch threads.
+@RestController
+@RequestMapping("/api")
+@ConditionalOnProperty(name = "kvstore.feed.enabled", havingValue = "true")
+public class ChangeFeedController {
+
+    private static final int SSE_BATCH = 100;
+
+    @Autowired
+    private ChangeFeed feed;
+
+    @Autowired
+    private TenantRateLimiter rateLimiter;
+
+    @Value("${kvstore.feed.max-poll-timeout-ms:30000}")
+    private long maxPollTimeoutMillis;
+
+    @Value("${kvstore.feed.stream-timeout-ms:300000}")
+    private long streamTimeoutMillis;
+
+    // Answers at once when there are changes after cursor, otherwise with the first ones that arrive within
+    // timeoutMs, or with an empty page. Without a cursor it waits for changes from now on.
+    @GetMapping("/changes/{tenantId}")
+    public DeferredResult<ChangePage> poll(@PathVariable String tenantId, @RequestParam(required = false) String cursor,
+                                           @RequestParam(defaultValue = "100") int limit,
+                                           @RequestParam(defaultValue = "30000") long timeoutMs){
+        rateLimiter.admit(tenantId, Kind.READ, 1);
+        long timeout = Math.min(Math.max(timeoutMs, 0), maxPollTimeoutMillis);
+        ChangePage page = feed.read(tenantId, cursor, limit);
+        String from = page.getCursor();
+
+        DeferredResult<ChangePage> result = new DeferredResult<>(timeout, () -> feed.read(tenantId, from, limit));
+        if (!page.getChanges().isEmpty() || page.isReset() || timeout == 0){
+            result.setResult(page);
+            return result;
+        }
+
+        Runnable check = () -> {
+            ChangePage next = feed.read(tenantId, from, limit);
+            if (!next.getChanges().isEmpty() || next.isReset()){
+                result.setResult(next);
+            }
+        };
+        ChangeFeed.Subscription subscription = feed.subscribe(tenantId, check);
+        result.onCompletion(subscription::close);
+        // A change may have come in between the first read and the subscription.
+        check.run();
+        return result;
+    }
+
+    // Server-sent events: one "change" event per change, with the cursor as event id, so a reconnecting
+    // EventSource resumes through Last-Event-ID. A "reset" event means changes were missed.
+    @GetMapping(value = "/changes/{tenantId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@PathVariable String tenantId, @RequestParam(required = false) String cursor,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId){
+        rateLimiter.admit(tenantId, Kind.READ, 1);
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        ChangeSender sender = new ChangeSender(tenantId, lastEventId != null ? lastEventId : cursor, emitter);
+
+        ChangeFeed.Subscription subscription = feed.subscribe(tenantId, sender::changed);
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> subscription.close());
+        sender.changed();
+        return emitter;
+    }
+
+    // Sends everything after its cursor. Notifications that come in while it is sending are folded into the
+    // running send, so one slow client ties up at most one dispatch thread.
+    private final class ChangeSender {
+        private final String tenantId;
+        private final SseEmitter emitter;
+        private final AtomicInteger pending = new AtomicInteger();
+        private String cursor;
+
+        private ChangeSender(String tenantId, String cursor, SseEmitter emitter){
+            this.tenantId = tenantId;
+            this.cursor = cursor;
+            this.emitter = emitter;
+        }
+
+        private void changed(){
+            if (pending.getAndIncrement() > 0){
+                return;
+            }
+            int missed = 1;
+            do {
+                send();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void send(){
+            try{
+                ChangePage page;
+                do {
+                    page = feed.read(tenantId, cursor, SSE_BATCH);
+                    if (page.isReset()){
+                        emitter.send(SseEmitter.event().name("reset").id(page.getCursor())
+                                .data(Map.of("cursor", page.getCursor()), MediaType.APPLICATION_JSON));
+                    }
+                    for (ChangeEvent change : page.getChanges()){
+                        emitter.send(SseEmitter.event().name("change").id(change.getCursor())
+                                .data(change, MediaType.APPLICATION_JSON));
+                    }
+                    cursor = page.getCursor();
+                } while (page.getChanges().size() == SSE_BATCH);
+            }catch (IOException | IllegalStateException e){
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}
@@ -1,17 +1,39 @@
 package com.kvstore.controller;
 
+import com.kvstore.codec.ContentHash;
 import com.kvstore.dto.KeyValueRequest;
 import com.kvstore.dto.KeyValueResponse;
+import com.kvstore.dto.KeyValueUpdate;
+import com.kvstore.dto.KeyVersionResponse;
+import com.kvstore.dto.RawKeyValueResponse;
+import com.kvstore.dto.ScanPage;
+import com.kvstore.service.BulkImportService;
+import com.kvstore.service.ConcurrencyLimiter;
 import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.StoreMetrics;
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.TenantRateLimiter.Kind;
+import com.kvstore.service.WritePipeline;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api")
@@ -21,25 +43,133 @@ public class KeyValueController {
     @Autowired
     private KeyValueStoreService service;
 
+    @Autowired
+    private BulkImportService importService;
+
+    @Autowired
+    private WritePipeline writePipeline;
+
+    @Autowired
+    private StoreMetrics metrics;
+
+    @Autowired
+    private ConcurrencyLimiter limiter;
+
+    @Autowired
+    private TenantRateLimiter rateLimiter;
+
+    @Value("${kvstore.read.passthrough:false}")
+    private boolean passthrough;
+
+    @Value("${kvstore.scan.max-page-size:1000}")
+    private int maxScanPageSize;
+
     @PostMapping("/object/{tenantId}")
     public ResponseEntity<?> create(@PathVariable String tenantId, @Valid @RequestBody KeyValueRequest request){
-        service.createKeyValue(request, tenantId);
-        return ResponseEntity.ok("Key added successfully");
+        return run("create", tenantId, Kind.WRITE, 1, () -> {
+            writePipeline.create(request, tenantId);
+            return ResponseEntity.ok("Key added successfully");
+        });
+    }
+
+    // Creates the key or replaces its value; with ?version=N only while the stored version is still N.
+    @PutMapping("/object/{tenantId}/{key}")
+    public ResponseEntity<?> put(@PathVariable String tenantId,
+                                 @PathVariable @NotBlank(message = "Username cannot be blank")
+                                 @Size(max = 32, message = "Username must not exceed 32 characters") String key,
+                                 @RequestParam(required = false) @Min(value = 1, message = "Version must be at least 1") Long version,
+                                 @Valid @RequestBody KeyValueUpdate update){
+        KeyValueRequest request = new KeyValueRequest(key, update.getData(), update.getTtl());
+        if (version == null){
+            return run("upsert", tenantId, Kind.WRITE, 1,
+                    () -> ResponseEntity.ok(new KeyVersionResponse(key, service.upsertKeyValue(request, tenantId))));
+        }
+        return run("compare_and_set", tenantId, Kind.WRITE, 1,
+                () -> ResponseEntity.ok(new KeyVersionResponse(key, service.compareAndSetKeyValue(request, version, tenantId))));
     }
 
     @PostMapping("/batch/object/{tenantId}")
     public ResponseEntity<?> createBatch(@PathVariable String tenantId, @Valid @RequestBody List<KeyValueRequest> requests){
-        return ResponseEntity.ok(service.createKeyValueBatch(requests, tenantId));
+        return run("create_batch", tenantId, Kind.WRITE, requests.size(), () -> ResponseEntity.ok(service.createKeyValueBatch(requests, tenantId)));
+    }
+
+    // Streams one result line per committed chunk while the NDJSON body is still being read.
+    @PostMapping("/batch/object/{tenantId}/import")
+    public void importBatch(@PathVariable String tenantId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        importService.importNdjson(tenantId, request.getInputStream(), response.getOutputStream());
+    }
+
+    @PostMapping("/batch/object/{tenantId}/get")
+    public ResponseEntity<?> getBatch(@PathVariable String tenantId, @RequestBody List<String> keys){
+        return run("get_batch", tenantId, Kind.READ, keys.size(), () -> ResponseEntity.ok(service.getKeyValueBatch(keys, tenantId, passthrough)));
+    }
+
+    @PostMapping("/batch/object/{tenantId}/delete")
+    public ResponseEntity<?> deleteBatch(@PathVariable String tenantId, @RequestParam(required = false) String prefix,
+                                         @RequestBody(required = false) List<String> keys){
+        return run("delete_batch", tenantId, Kind.WRITE, keys == null ? 1 : keys.size(), () -> ResponseEntity.ok(service.deleteKeyValueBatch(keys, prefix, tenantId)));
     }
 
+    @GetMapping("/object/{tenantId}")
+    public ResponseEntity<?> scan(@PathVariable String tenantId, @RequestParam(required = false) String prefix,
+                                  @RequestParam(required = false) String cursor,
+                                  @RequestParam(defaultValue = "100") int limit,
+                                  @RequestParam(defaultValue = "false") boolean values){
+        return run("scan", tenantId, Kind.READ, 1, () -> ResponseEntity.ok(service.scanKeyValues(tenantId, prefix, cursor, limit, values)));
+    }
+
+    // The whole scan as NDJSON, for clients that send Accept: application/x-ndjson. Every page is admitted and
+    // timed like a paged scan; its permits are released before the page is written, so a slow client holds none.
+    @GetMapping(value = "/object/{tenantId}", produces = "application/x-ndjson")
+    public void scanStream(@PathVariable String tenantId, @RequestParam(required = false) String prefix,
+                           @RequestParam(defaultValue = "false") boolean values, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        String cursor = null;
+        do {
+            String after = cursor;
+            ScanPage page = run("scan_stream", tenantId, Kind.READ, 1,
+                    () -> service.scanKeyValues(tenantId, prefix, after, maxScanPageSize, values));
+            service.writeNdjson(page, response.getOutputStream());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+    }
+
+    // The ETag is the value's content hash. A matching If-None-Match is answered with 304 from the hash alone,
+    // without reading the value; rows without a stored hash are compared after the read instead.
     @GetMapping("/object/{tenantId}/{key}")
-    public ResponseEntity<KeyValueResponse> get(@PathVariable String tenantId, @PathVariable String key){
-        return ResponseEntity.ok(service.getKeyValue(key, tenantId));
+    public ResponseEntity<?> get(@PathVariable String tenantId, @PathVariable String key,
+                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch){
+        return run("get", tenantId, Kind.READ, 1, () -> {
+            if (ifNoneMatch != null){
+                Optional<Long> hash = service.findContentHash(key, tenantId);
+                if (hash.isPresent() && ContentHash.matches(ifNoneMatch, hash.get())){
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ContentHash.etag(hash.get())).build();
+                }
+            }
+            if (passthrough){
+                RawKeyValueResponse response = service.getRawKeyValue(key, tenantId);
+                return ResponseEntity.ok().eTag(ContentHash.etag(response.getContentHash())).body(response);
+            }
+            KeyValueResponse response = service.getKeyValue(key, tenantId);
+            return ResponseEntity.ok().eTag(ContentHash.etag(response.getContentHash())).body(response);
+        });
     }
 
     @DeleteMapping("/object/{tenantId}/{key}")
     public ResponseEntity<?> delete(@PathVariable String tenantId, @PathVariable String key){
-        service.deleteKeyValue(key, tenantId);
-        return ResponseEntity.ok("Key deleted successfully");
+        return run("delete", tenantId, Kind.WRITE, 1, () -> {
+            service.deleteKeyValue(key, tenantId);
+            return ResponseEntity.ok("Key deleted successfully");
+        });
+    }
+
+    // Times the operation, including admission: the tenant's rate limit, charged one token per item, and any
+    // wait for its concurrency permits.
+    private <T> T run(String operation, String tenantId, Kind kind, int items, Supplier<T> action){
+        return metrics.time(operation, tenantId, () -> {
+            rateLimiter.admit(tenantId, kind, items);
+            return limiter.call(tenantId, action);
+        });
     }
 }
@@ -0,0 +1,69 @@
+package com.kvstore.controller;
+
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.TenantRateLimiter.Limit;
+import com.kvstore.service.TenantRateLimiter.TenantLimits;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// /actuator/ratelimits: reads and replaces the tenant rate limits at runtime. POST without a tenant changes the
+// defaults, with a tenant its override; fields that are left out keep their current value.
+@Component
+@Endpoint(id = "ratelimits")
+public class RateLimitEndpoint {
+
+    @Autowired
+    private TenantRateLimiter rateLimiter;
+
+    @ReadOperation
+    public Map<String, Object> limits(){
+        Map<String, Object> limits = new LinkedHashMap<>();
+        limits.put("defaults", rateLimiter.getDefaults());
+        limits.put("tenants", rateLimiter.getOverrides());
+        return limits;
+    }
+
+    @ReadOperation
+    public TenantLimits tenantLimits(@Selector String tenantId){
+        return rateLimiter.limits(tenantId);
+    }
+
+    @WriteOperation
+    public TenantLimits updateDefaults(@Nullable Double readRate, @Nullable Long readBurst,
+                                       @Nullable Double writeRate, @Nullable Long writeBurst){
+        TenantLimits limits = merge(rateLimiter.getDefaults(), readRate, readBurst, writeRate, writeBurst);
+        rateLimiter.setDefaults(limits);
+        return limits;
+    }
+
+    @WriteOperation
+    public TenantLimits updateTenant(@Selector String tenantId, @Nullable Double readRate, @Nullable Long readBurst,
+                                     @Nullable Double writeRate, @Nullable Long writeBurst){
+        TenantLimits limits = merge(rateLimiter.limits(tenantId), readRate, readBurst, writeRate, writeBurst);
+        rateLimiter.setOverride(tenantId, limits);
+        return limits;
+    }
+
+    @DeleteOperation
+    public void removeTenant(@Selector String tenantId){
+        rateLimiter.removeOverride(tenantId);
+    }
+
+    private static TenantLimits merge(TenantLimits current, Double readRate, Long readBurst, Double writeRate, Long writeBurst){
+        return new TenantLimits(merge(current.read(), readRate, readBurst), merge(current.write(), writeRate, writeBurst));
+    }
+
+    private static Limit merge(Limit current, Double rate, Long burst){
+        return Limit.of(rate != null ? rate : current.ratePerSecond(), burst != null ? burst : current.burst());
+    }
+}
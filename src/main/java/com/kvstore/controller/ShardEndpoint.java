@@ -0,0 +1,52 @@
+package com.kvstore.controller;
+
+import com.kvstore.Utilities.TenantMoveResult;
+import com.kvstore.service.TenantMover;
+import com.kvstore.storage.ShardRouter;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// /actuator/shards: the configured shards and pinned tenants, the shard of one tenant, and POST /{tenant}
+// with a target shard to move a tenant there. The move answers once the tenant is pinned to the target; the
+// source rows are deleted in the background after kvstore.sharding.move.grace-ms.
+@Component
+@Endpoint(id = "shards")
+@ConditionalOnProperty(name = "kvstore.sharding.enabled", havingValue = "true")
+public class ShardEndpoint {
+
+    @Autowired
+    private ShardRouter router;
+
+    @Autowired
+    private TenantMover mover;
+
+    @ReadOperation
+    public Map<String, Object> shards(){
+        Map<String, Object> shards = new LinkedHashMap<>();
+        shards.put("shards", router.getShards());
+        shards.put("placements", router.getPlacements());
+        return shards;
+    }
+
+    @ReadOperation
+    public Map<String, String> tenantShard(@Selector String tenantId){
+        Map<String, String> shard = new LinkedHashMap<>();
+        shard.put("shard", router.shardFor(tenantId));
+        shard.put("ringShard", router.ringShard(tenantId));
+        return shard;
+    }
+
+    @WriteOperation
+    public TenantMoveResult move(@Selector String tenantId, String target){
+        return mover.move(tenantId, target);
+    }
+}
@@ -0,0 +1,74 @@
+package com.kvstore.controller;
+
+import com.kvstore.Utilities.SnapshotResult;
+import com.kvstore.service.SnapshotService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+// Snapshot export and restore. GET streams a gzip compressed snapshot of a tenant, or of the whole table of a
+// shard; POST of such a snapshot replaces the tenant's rows, or the table, with it.
+// These endpoints are not authenticated: only enable them where the API is not reachable by tenants.
+@RestController
+@RequestMapping("/api")
+@ConditionalOnProperty(name = "kvstore.snapshot.enabled", havingValue = "true")
+public class SnapshotController {
+
+    private static final String CONTENT_TYPE = "application/gzip";
+
+    @Autowired
+    private SnapshotService snapshots;
+
+    @GetMapping(value = "/snapshot", produces = CONTENT_TYPE)
+    public void exportTable(@RequestParam(required = false) String shard, HttpServletResponse response) throws IOException {
+        start(response, shard == null ? "kvstore" : "kvstore-" + shard);
+        try{
+            snapshots.exportTable(shard, response.getOutputStream());
+        }catch (IOException | RuntimeException e){
+            abort(response);
+            throw e;
+        }
+    }
+
+    @GetMapping(value = "/snapshot/{tenantId}", produces = CONTENT_TYPE)
+    public void exportTenant(@PathVariable String tenantId, HttpServletResponse response) throws IOException {
+        start(response, "kvstore-" + tenantId);
+        try{
+            snapshots.exportTenant(tenantId, response.getOutputStream());
+        }catch (IOException | RuntimeException e){
+            abort(response);
+            throw e;
+        }
+    }
+
+    @PostMapping("/snapshot")
+    public SnapshotResult restoreTable(@RequestParam(required = false) String shard, HttpServletRequest request) throws IOException {
+        return snapshots.restoreTable(shard, request.getInputStream());
+    }
+
+    @PostMapping("/snapshot/{tenantId}")
+    public SnapshotResult restoreTenant(@PathVariable String tenantId, HttpServletRequest request) throws IOException {
+        return snapshots.restoreTenant(tenantId, request.getInputStream());
+    }
+
+    private static void start(HttpServletResponse response, String name){
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(name + ".pgcopy.gz").build().toString());
+    }
+
+    // A failure before anything was sent is answered like any other error; after that the snapshot is cut short.
+    private static void abort(HttpServletResponse response){
+        if (!response.isCommitted()){
+            response.reset();
+        }
+    }
+}
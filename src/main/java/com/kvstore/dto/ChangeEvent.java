@@ -0,0 +1,19 @@
+package com.kvstore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+// One change of a key. version is the key's new version for creates and updates and 0 once it is gone.
+@Getter
+@Setter
+@AllArgsConstructor
+public class ChangeEvent {
+
+    public enum Type { CREATE, UPDATE, DELETE, EXPIRE }
+
+    private String cursor;
+    private String key;
+    private Type type;
+    private long version;
+}
@@ -0,0 +1,18 @@
+package com.kvstore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+// Changes after the requested cursor, oldest first, and the cursor to continue from. reset means changes
+// may have been missed, so anything the client cached for the tenant has to be dropped.
+@Getter
+@Setter
+@AllArgsConstructor
+public class ChangePage {
+    private List<ChangeEvent> changes;
+    private String cursor;
+    private boolean reset;
+}
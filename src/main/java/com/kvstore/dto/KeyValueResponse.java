@@ -1,5 +1,6 @@
 package com.kvstore.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -8,9 +9,16 @@ import lombok.Setter;
 public class KeyValueResponse {
     private String key;
     private Object data;
+    private long version;
 
-    public KeyValueResponse(String key, Object data){
+    // Sent as the ETag header rather than in the body.
+    @JsonIgnore
+    private long contentHash;
+
+    public KeyValueResponse(String key, Object data, long version, long contentHash){
         this.key = key;
         this.data = data;
+        this.version = version;
+        this.contentHash = contentHash;
     }
 }
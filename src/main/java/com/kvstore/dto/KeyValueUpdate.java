@@ -0,0 +1,17 @@
+package com.kvstore.dto;
+
+import jakarta.validation.Valid;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class KeyValueUpdate {
+
+    @Valid
+    private Object data;
+    private Long ttl;
+
+}
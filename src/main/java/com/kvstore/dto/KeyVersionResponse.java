@@ -0,0 +1,13 @@
+package com.kvstore.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class KeyVersionResponse {
+    private String key;
+    private long version;
+}
@@ -0,0 +1,29 @@
+package com.kvstore.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.Getter;
+import lombok.Setter;
+
+// Carries the stored JSON text as-is; it is written into the response without being parsed.
+@Getter
+@Setter
+public class RawKeyValueResponse {
+    private String key;
+
+    @JsonRawValue
+    private String data;
+
+    private long version;
+
+    // Sent as the ETag header rather than in the body.
+    @JsonIgnore
+    private long contentHash;
+
+    public RawKeyValueResponse(String key, String data, long version, long contentHash){
+        this.key = key;
+        this.data = data;
+        this.version = version;
+        this.contentHash = contentHash;
+    }
+}
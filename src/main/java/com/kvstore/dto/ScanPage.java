@@ -0,0 +1,17 @@
+package com.kvstore.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+// One page of a scan: keys only, or keys with their stored JSON. nextCursor is absent on the last page.
+@Getter
+@Setter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ScanPage {
+    private List<String> keys;
+    private List<RawKeyValueResponse> items;
+    private String nextCursor;
+}
@@ -9,22 +9,34 @@ import java.time.LocalDateTime;
 @Entity
 @Setter
 @Getter
-@Table(name = "key_value_store")
+@Table(name = "key_value_store", indexes = @Index(name = "idx_key_value_store_expires_at", columnList = "expires_at"))
+@IdClass(KeyValueId.class)
 public class KeyValueEntity {
 
     @Id
-    @Column(name = "key", unique = true, length = 32, nullable = false)
-    private String key;
-
     @Column(name = "tenant_id", nullable = false)
     private String tenantId;
 
-    @Column(name = "data", nullable = false, columnDefinition = "TEXT")
-    private String data;
+    // "C" collation so the primary key index serves the prefix and keyset ranges of scans.
+    @Id
+    @Column(name = "key", length = 32, nullable = false, columnDefinition = "varchar(32) collate \"C\"")
+    private String key;
+
+    // Encoded by ValueCodec: a format header followed by JSON, Smile or CBOR, optionally LZ4 compressed.
+    @Column(name = "data", nullable = false, columnDefinition = "bytea")
+    private byte[] data;
 
     @Column(name = "expires_at")
     private LocalDateTime expiresAt;
 
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
+
+    // 1 when the key is created, incremented by every upsert or compare-and-set.
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 1")
+    private long version = 1;
+
+    // ContentHash of data, set on every write; null on rows written before the column existed.
+    @Column(name = "content_hash")
+    private Long contentHash;
 }
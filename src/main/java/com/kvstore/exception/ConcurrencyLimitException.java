@@ -0,0 +1,7 @@
+package com.kvstore.exception;
+
+public class ConcurrencyLimitException extends RuntimeException{
+    public ConcurrencyLimitException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.kvstore.exception;
+
+import lombok.Getter;
+
+@Getter
+public class VersionConflictException extends RuntimeException{
+    private final long currentVersion;
+
+    public VersionConflictException(String message, long currentVersion){
+        super(message);
+        this.currentVersion = currentVersion;
+    }
+}
@@ -0,0 +1,32 @@
+package com.kvstore.repository;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.entity.KeyValueEntity;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+public interface KeyValueBulkRepository {
+
+    // Inserts every entity whose key is not taken yet and returns the keys that were written.
+    Set<String> insertAllIfAbsent(List<KeyValueEntity> entities);
+
+    // Inserts the entity or replaces the value and expiry of the existing key with one statement, and returns the
+    // stored version: 1 for a new key (or one that had expired before now), otherwise the previous version + 1.
+    long upsert(KeyValueEntity entity, LocalDateTime now);
+
+    // Replaces the value and expiry of a live key with one statement, only while its version is expectedVersion.
+    CompareAndSetResult compareAndSet(KeyValueEntity entity, long expectedVersion, LocalDateTime now);
+
+    // Deletes the given keys of a tenant with one statement and returns the keys that existed.
+    Set<String> deleteAll(String tenantId, Collection<String> keys);
+
+    // Deletes every key of a tenant that starts with prefix and returns the deleted keys.
+    Set<String> deleteByPrefix(String tenantId, String prefix);
+
+    // Deletes at most limit rows that expired before now, oldest first, and returns the removed keys.
+    List<TenantKey> deleteExpired(LocalDateTime now, int limit);
+}
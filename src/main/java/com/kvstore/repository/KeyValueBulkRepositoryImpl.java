@@ -0,0 +1,267 @@
+package com.kvstore.repository;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.entity.KeyValueEntity;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+public class KeyValueBulkRepositoryImpl implements KeyValueBulkRepository {
+
+    private static final String INSERT_PREFIX = "INSERT INTO key_value_store (key, tenant_id, data, expires_at, created_at, content_hash) VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_SUFFIX = " ON CONFLICT DO NOTHING RETURNING key";
+
+    // A row that expired but was not swept yet is replaced as if it did not exist.
+    private static final String UPSERT_SQL = "INSERT INTO key_value_store AS kv (tenant_id, key, data, expires_at, created_at, content_hash, version) "
+            + "VALUES (?, ?, ?, ?, ?, ?, 1) ON CONFLICT (tenant_id, key) DO UPDATE SET data = EXCLUDED.data, expires_at = EXCLUDED.expires_at, "
+            + "content_hash = EXCLUDED.content_hash, "
+            + "created_at = CASE WHEN kv.expires_at <= ? THEN EXCLUDED.created_at ELSE kv.created_at END, "
+            + "version = CASE WHEN kv.expires_at <= ? THEN 1 ELSE kv.version + 1 END "
+            + "RETURNING version";
+
+    private static final String COMPARE_AND_SET_SQL = "UPDATE key_value_store SET data = ?, expires_at = ?, content_hash = ?, "
+            + "version = version + 1 WHERE tenant_id = ? AND key = ? AND version = ? AND (expires_at IS NULL OR expires_at > ?) "
+            + "RETURNING version";
+
+    private static final String LIVE_VERSION_SQL = "SELECT version FROM key_value_store "
+            + "WHERE tenant_id = ? AND key = ? AND (expires_at IS NULL OR expires_at > ?)";
+
+    private static final String DELETE_KEYS_SQL = "DELETE FROM key_value_store WHERE tenant_id = ? AND key = ANY (?) RETURNING key";
+
+    private static final String DELETE_PREFIX_SQL = "DELETE FROM key_value_store WHERE tenant_id = ? AND key LIKE ? ESCAPE '\\' RETURNING key";
+
+    private static final String DELETE_EXPIRED_SQL = "DELETE FROM key_value_store WHERE (tenant_id, key) IN "
+            + "(SELECT tenant_id, key FROM key_value_store WHERE expires_at < ? ORDER BY expires_at LIMIT ?) RETURNING tenant_id, key";
+
+    // Partitioned by expiry the table has no unique index on (tenant_id, key) to conflict on. Instead every write
+    // takes transaction level advisory locks on the keys' stripes, in stripe order, and checks for the key itself.
+    // Striping bounds the locks a large batch holds in PostgreSQL's shared lock table.
+    private static final String LOCK_KEYS_SQL = "SELECT pg_advisory_xact_lock(hashtext('key_value_store'), s) FROM (SELECT DISTINCT "
+            + "hashtext(t || '/' || k) & 1023 AS s FROM unnest(?::text[], ?::text[]) AS u (t, k) ORDER BY s) AS stripes";
+
+    private static final String DELETE_EXPIRED_KEYS_SQL = "DELETE FROM key_value_store AS kv USING unnest(?::text[], ?::text[]) AS u (t, k) "
+            + "WHERE kv.tenant_id = u.t AND kv.key = u.k AND kv.expires_at <= ?";
+
+    private static final String INSERT_ABSENT_PREFIX = "INSERT INTO key_value_store (key, tenant_id, data, expires_at, created_at, content_hash) "
+            + "SELECT DISTINCT ON (v.tenant_id, v.key) v.* FROM (VALUES ";
+    private static final String INSERT_ABSENT_ROW = "(?, ?, ?::bytea, ?::timestamp, ?::timestamp, ?::bigint)";
+    private static final String INSERT_ABSENT_SUFFIX = ") AS v (key, tenant_id, data, expires_at, created_at, content_hash) "
+            + "WHERE NOT EXISTS (SELECT 1 FROM key_value_store AS kv WHERE kv.tenant_id = v.tenant_id AND kv.key = v.key) RETURNING key";
+
+    // The update moves the row to the partition of its new expiry.
+    private static final String UPDATE_SQL = "UPDATE key_value_store AS kv SET data = ?, expires_at = ?, content_hash = ?, "
+            + "created_at = CASE WHEN kv.expires_at <= ? THEN ? ELSE kv.created_at END, "
+            + "version = CASE WHEN kv.expires_at <= ? THEN 1 ELSE kv.version + 1 END "
+            + "WHERE tenant_id = ? AND key = ? RETURNING version";
+    private static final String INSERT_SQL = "INSERT INTO key_value_store (tenant_id, key, data, expires_at, created_at, content_hash, version) "
+            + "VALUES (?, ?, ?, ?, ?, ?, 1)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${kvstore.ttl.partitioning.enabled:false}")
+    private boolean expiryPartitioned;
+
+    // Rows per multi-row INSERT; six parameters per row must stay under the driver's 65535 limit.
+    @Value("${kvstore.batch.insert-chunk-size:500}")
+    private int chunkSize;
+
+    @Override
+    public Set<String> insertAllIfAbsent(List<KeyValueEntity> entities){
+        if (!expiryPartitioned){
+            return insert(entities, INSERT_PREFIX, INSERT_ROW, INSERT_SUFFIX);
+        }
+        List<String> tenantIds = entities.stream().map(KeyValueEntity::getTenantId).toList();
+        List<String> keys = entities.stream().map(KeyValueEntity::getKey).toList();
+        return inTransaction(() -> {
+            lockKeys(tenantIds, keys);
+            deleteExpiredKeys(tenantIds, keys, Timestamp.valueOf(LocalDateTime.now()));
+            return insert(entities, INSERT_ABSENT_PREFIX, INSERT_ABSENT_ROW, INSERT_ABSENT_SUFFIX);
+        });
+    }
+
+    @Override
+    public long upsert(KeyValueEntity entity, LocalDateTime now){
+        Timestamp nowTimestamp = Timestamp.valueOf(now);
+        if (expiryPartitioned){
+            return inTransaction(() -> {
+                lockKeys(List.of(entity.getTenantId()), List.of(entity.getKey()));
+                List<Long> updated = jdbcTemplate.queryForList(UPDATE_SQL, Long.class, entity.getData(), timestamp(entity.getExpiresAt()),
+                        entity.getContentHash(), nowTimestamp, Timestamp.valueOf(entity.getCreatedAt()), nowTimestamp,
+                        entity.getTenantId(), entity.getKey());
+                if (!updated.isEmpty()){
+                    return updated.get(0);
+                }
+                jdbcTemplate.update(INSERT_SQL, entity.getTenantId(), entity.getKey(), entity.getData(),
+                        timestamp(entity.getExpiresAt()), Timestamp.valueOf(entity.getCreatedAt()), entity.getContentHash());
+                return 1L;
+            });
+        }
+        return jdbcTemplate.queryForObject(UPSERT_SQL, Long.class, entity.getTenantId(), entity.getKey(), entity.getData(),
+                timestamp(entity.getExpiresAt()), Timestamp.valueOf(entity.getCreatedAt()), entity.getContentHash(),
+                nowTimestamp, nowTimestamp);
+    }
+
+    @Override
+    public CompareAndSetResult compareAndSet(KeyValueEntity entity, long expectedVersion, LocalDateTime now){
+        if (expiryPartitioned){
+            return inTransaction(() -> {
+                lockKeys(List.of(entity.getTenantId()), List.of(entity.getKey()));
+                return compareAndSetRow(entity, expectedVersion, now);
+            });
+        }
+        return compareAndSetRow(entity, expectedVersion, now);
+    }
+
+    // A missed update is followed by a read of the version in its own statement. Under READ COMMITTED that read
+    // sees the write the update was rechecked against, or a later one, where a snapshot taken with the update
+    // could still show the expected version or a row that was deleted since. Should the read find the expected
+    // version again, the key was rewritten in between and the update is retried. A missing key is reported as
+    // version 0 without a retry, whatever version was expected.
+    private CompareAndSetResult compareAndSetRow(KeyValueEntity entity, long expectedVersion, LocalDateTime now){
+        Timestamp nowTimestamp = Timestamp.valueOf(now);
+        while (true){
+            List<Long> updated = jdbcTemplate.queryForList(COMPARE_AND_SET_SQL, Long.class, entity.getData(),
+                    timestamp(entity.getExpiresAt()), entity.getContentHash(), entity.getTenantId(), entity.getKey(),
+                    expectedVersion, nowTimestamp);
+            if (!updated.isEmpty()){
+                return new CompareAndSetResult(true, updated.get(0));
+            }
+            List<Long> current = jdbcTemplate.queryForList(LIVE_VERSION_SQL, Long.class, entity.getTenantId(), entity.getKey(),
+                    nowTimestamp);
+            if (current.isEmpty()){
+                return new CompareAndSetResult(false, 0);
+            }
+            if (current.get(0) != expectedVersion){
+                return new CompareAndSetResult(false, current.get(0));
+            }
+        }
+    }
+
+    @Override
+    public Set<String> deleteAll(String tenantId, Collection<String> keys){
+        if (expiryPartitioned){
+            return inTransaction(() -> {
+                lockKeys(keys.stream().map(key -> tenantId).toList(), List.copyOf(keys));
+                return deleteKeys(tenantId, keys);
+            });
+        }
+        return deleteKeys(tenantId, keys);
+    }
+
+    private Set<String> deleteKeys(String tenantId, Collection<String> keys){
+        Set<String> deleted = new HashSet<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(DELETE_KEYS_SQL);
+            ps.setString(1, tenantId);
+            ps.setArray(2, con.createArrayOf("text", keys.toArray()));
+            return ps;
+        }, rs -> {
+            deleted.add(rs.getString(1));
+        });
+        return deleted;
+    }
+
+    @Override
+    public Set<String> deleteByPrefix(String tenantId, String prefix){
+        Set<String> deleted = new HashSet<>();
+        String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        jdbcTemplate.query(DELETE_PREFIX_SQL, rs -> {
+            deleted.add(rs.getString(1));
+        }, tenantId, pattern);
+        return deleted;
+    }
+
+    @Override
+    public List<TenantKey> deleteExpired(LocalDateTime now, int limit){
+        return jdbcTemplate.query(DELETE_EXPIRED_SQL, (rs, row) -> new TenantKey(rs.getString(1), rs.getString(2)),
+                Timestamp.valueOf(now), limit);
+    }
+
+    private Set<String> insert(List<KeyValueEntity> entities, String prefix, String row, String suffix){
+        Set<String> inserted = new HashSet<>();
+        for (int from = 0; from < entities.size(); from += chunkSize){
+            List<KeyValueEntity> chunk = entities.subList(from, Math.min(from + chunkSize, entities.size()));
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(insertSql(prefix, row, suffix, chunk.size()));
+                int i = 1;
+                for (KeyValueEntity entity : chunk){
+                    ps.setString(i++, entity.getKey());
+                    ps.setString(i++, entity.getTenantId());
+                    ps.setBytes(i++, entity.getData());
+                    if (entity.getExpiresAt() != null){
+                        ps.setTimestamp(i++, Timestamp.valueOf(entity.getExpiresAt()));
+                    } else {
+                        ps.setNull(i++, Types.TIMESTAMP);
+                    }
+                    ps.setTimestamp(i++, Timestamp.valueOf(entity.getCreatedAt()));
+                    ps.setObject(i++, entity.getContentHash(), Types.BIGINT);
+                }
+                return ps;
+            }, rs -> {
+                inserted.add(rs.getString(1));
+            });
+        }
+        return inserted;
+    }
+
+    private void lockKeys(List<String> tenantIds, List<String> keys){
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LOCK_KEYS_SQL);
+            ps.setArray(1, con.createArrayOf("text", tenantIds.toArray()));
+            ps.setArray(2, con.createArrayOf("text", keys.toArray()));
+            return ps;
+        }, rs -> {
+        });
+    }
+
+    // An expired key that is still in its bucket is replaced as if it did not exist.
+    private void deleteExpiredKeys(List<String> tenantIds, List<String> keys, Timestamp now){
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(DELETE_EXPIRED_KEYS_SQL);
+            ps.setArray(1, con.createArrayOf("text", tenantIds.toArray()));
+            ps.setArray(2, con.createArrayOf("text", keys.toArray()));
+            ps.setTimestamp(3, now);
+            return ps;
+        });
+    }
+
+    // Joins the caller's transaction, so the key locks are held until it ends.
+    private <T> T inTransaction(Supplier<T> action){
+        return new TransactionTemplate(transactionManager).execute(status -> action.get());
+    }
+
+    private static Timestamp timestamp(LocalDateTime time){
+        return time == null ? null : Timestamp.valueOf(time);
+    }
+
+    private static String insertSql(String prefix, String row, String suffix, int rows){
+        StringBuilder sql = new StringBuilder(prefix.length() + rows * (row.length() + 2) + suffix.length());
+        sql.append(prefix);
+        for (int i = 0; i < rows; i++){
+            if (i > 0){
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.append(suffix).toString();
+    }
+}
@@ -1,14 +1,68 @@
 package com.kvstore.repository;
 
 import com.kvstore.entity.KeyValueEntity;
+import com.kvstore.entity.KeyValueId;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
-public interface KeyValueRepository extends JpaRepository<KeyValueEntity, String> {
+public interface KeyValueRepository extends JpaRepository<KeyValueEntity, KeyValueId>, KeyValueBulkRepository {
     Optional<KeyValueEntity> findByKeyAndTenantId(String key, String tenantId);
 
     boolean existsByKeyAndTenantId(String key, String tenantId);
 
-    int deleteByKeyAndTenantId(String key, String tenantId);
+    @Query("select e.key from KeyValueEntity e where e.tenantId = :tenantId and e.key in :keys")
+    Set<String> findExistingKeys(@Param("tenantId") String tenantId, @Param("keys") Collection<String> keys);
+
+    @Query("select e.key from KeyValueEntity e where e.tenantId = :tenantId and e.key in :keys " +
+            "and (e.expiresAt is null or e.expiresAt > :now)")
+    Set<String> findLiveKeys(@Param("tenantId") String tenantId, @Param("keys") Collection<String> keys,
+                             @Param("now") LocalDateTime now);
+
+    @Query("select e from KeyValueEntity e where e.tenantId = :tenantId and e.key in :keys " +
+            "and (e.expiresAt is null or e.expiresAt > :now)")
+    List<KeyValueEntity> findLive(@Param("tenantId") String tenantId, @Param("keys") Collection<String> keys,
+                                  @Param("now") LocalDateTime now);
+
+    // Keyset scans in "C" collation order, so each page starts after the last key of the previous one and a prefix is
+    // a key range: JpaStorageEngine passes the prefix as from and the first string past it as to, which bound the
+    // (tenant_id, key COLLATE "C") index scan; LIKE only filters the rows inside the range.
+    String SCAN_FROM = "from key_value_store where tenant_id = :tenantId and key collate \"C\" > :after " +
+            "and key collate \"C\" >= :from and key like :pattern escape '\\' and (expires_at is null or expires_at > :now) ";
+    String SCAN_ORDER = "order by key collate \"C\"";
+    String SCAN_TO = "and key collate \"C\" < :to ";
+
+    @Query(value = "select * " + SCAN_FROM + SCAN_ORDER, nativeQuery = true)
+    List<KeyValueEntity> scan(@Param("tenantId") String tenantId, @Param("from") String from, @Param("pattern") String pattern,
+                              @Param("after") String after, @Param("now") LocalDateTime now, Limit limit);
+
+    @Query(value = "select * " + SCAN_FROM + SCAN_TO + SCAN_ORDER, nativeQuery = true)
+    List<KeyValueEntity> scanRange(@Param("tenantId") String tenantId, @Param("from") String from, @Param("to") String to,
+                                   @Param("pattern") String pattern, @Param("after") String after,
+                                   @Param("now") LocalDateTime now, Limit limit);
+
+    @Query(value = "select key " + SCAN_FROM + SCAN_ORDER, nativeQuery = true)
+    List<String> scanKeys(@Param("tenantId") String tenantId, @Param("from") String from, @Param("pattern") String pattern,
+                          @Param("after") String after, @Param("now") LocalDateTime now, Limit limit);
+
+    @Query(value = "select key " + SCAN_FROM + SCAN_TO + SCAN_ORDER, nativeQuery = true)
+    List<String> scanKeysRange(@Param("tenantId") String tenantId, @Param("from") String from, @Param("to") String to,
+                               @Param("pattern") String pattern, @Param("after") String after,
+                               @Param("now") LocalDateTime now, Limit limit);
+
+    // Only the hash, so a conditional read does not load the value.
+    @Query("select e.contentHash from KeyValueEntity e where e.tenantId = :tenantId and e.key = :key " +
+            "and (e.expiresAt is null or e.expiresAt > :now)")
+    Optional<Long> findContentHash(@Param("tenantId") String tenantId, @Param("key") String key,
+                                   @Param("now") LocalDateTime now);
+
+    @Query("select min(e.expiresAt) from KeyValueEntity e where e.expiresAt < :now")
+    LocalDateTime findOldestExpiry(@Param("now") LocalDateTime now);
 }
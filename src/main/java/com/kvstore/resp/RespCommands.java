@@ -0,0 +1,292 @@
+package com.kvstore.resp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import com.kvstore.Utilities.BatchGetResponse;
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.exception.DuplicateKeyException;
+import com.kvstore.exception.NotFoundException;
+import com.kvstore.service.ConcurrencyLimiter;
+import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.StoreMetrics;
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.TenantRateLimiter.Kind;
+import com.kvstore.service.WritePipeline;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// The RESP commands the store understands, executed against the same service as the REST API.
+// Values are UTF-8 text: SET stores the value as a JSON string and GET/MGET return strings as they were set
+// and any other JSON value (e.g. one created over REST) as its JSON text. SET replaces an existing value;
+// SET NX only creates the key and replies with a null bulk when it already exists.
+class RespCommands {
+
+    private final KeyValueStoreService service;
+    private final WritePipeline writePipeline;
+    private final StoreMetrics metrics;
+    private final ConcurrencyLimiter limiter;
+    private final TenantRateLimiter rateLimiter;
+    private final Validator validator;
+    private final ObjectMapper mapper;
+    private final String defaultTenant;
+
+    RespCommands(KeyValueStoreService service, WritePipeline writePipeline, StoreMetrics metrics,
+                 ConcurrencyLimiter limiter, TenantRateLimiter rateLimiter, Validator validator, ObjectMapper mapper,
+                 String defaultTenant){
+        this.service = service;
+        this.writePipeline = writePipeline;
+        this.metrics = metrics;
+        this.limiter = limiter;
+        this.rateLimiter = rateLimiter;
+        this.validator = validator;
+        this.mapper = mapper;
+        this.defaultTenant = defaultTenant == null || defaultTenant.isBlank() ? null : defaultTenant;
+    }
+
+    Session newSession(){
+        return new Session(defaultTenant);
+    }
+
+    void execute(List<byte[]> args, Session session, RespWriter out){
+        String command = string(args.get(0)).toUpperCase(Locale.ROOT);
+        try{
+            switch (command){
+                case "PING" -> ping(args, out);
+                case "ECHO" -> echo(args, out);
+                case "QUIT" -> {
+                    session.closeRequested = true;
+                    out.simpleString("OK");
+                }
+                case "SELECT", "AUTH" -> select(command, args, session, out);
+                case "GET" -> get(args, session, out);
+                case "SET" -> set(args, session, out);
+                case "DEL" -> del(args, session, out);
+                case "MGET" -> mget(args, session, out);
+                case "EXISTS" -> exists(args, session, out);
+                // Handshakes of common clients and load tools; none of them need a real answer.
+                case "COMMAND", "CONFIG" -> out.arrayHeader(0);
+                case "CLIENT" -> out.simpleString("OK");
+                default -> out.error("ERR unknown command '" + string(args.get(0)) + "'");
+            }
+        }catch (IllegalArgumentException e){
+            out.error("ERR " + e.getMessage());
+        }catch (RuntimeException e){
+            out.error("ERR " + (e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage()));
+        }
+    }
+
+    private void ping(List<byte[]> args, RespWriter out){
+        if (args.size() > 2){
+            wrongArity("ping");
+        }
+        if (args.size() == 2){
+            out.bulk(args.get(1));
+        } else {
+            out.simpleString("PONG");
+        }
+    }
+
+    private void echo(List<byte[]> args, RespWriter out){
+        if (args.size() != 2){
+            wrongArity("echo");
+        }
+        out.bulk(args.get(1));
+    }
+
+    // SELECT <tenant>, AUTH <tenant> or AUTH <tenant> <password>. This only picks the namespace the connection
+    // works in; the password is not checked, as there is no authentication on the REST API either.
+    private void select(String command, List<byte[]> args, Session session, RespWriter out){
+        if (args.size() != 2 && !(command.equals("AUTH") && args.size() == 3)){
+            wrongArity(command.toLowerCase(Locale.ROOT));
+        }
+        String tenantId = string(args.get(1));
+        if (tenantId.isBlank()){
+            throw new IllegalArgumentException("tenant must not be blank");
+        }
+        session.tenantId = tenantId;
+        out.simpleString("OK");
+    }
+
+    private void get(List<byte[]> args, Session session, RespWriter out){
+        if (args.size() != 2){
+            wrongArity("get");
+        }
+        String tenantId = tenant(session, out);
+        if (tenantId == null){
+            return;
+        }
+        String key = string(args.get(1));
+        try{
+            out.bulk(run("resp_get", tenantId, Kind.READ, 1, () -> toBytes(service.getRawKeyValue(key, tenantId).getData())));
+        }catch (NotFoundException e){
+            out.bulk(null);
+        }
+    }
+
+    // SET key value [EX seconds] [NX]
+    private void set(List<byte[]> args, Session session, RespWriter out){
+        if (args.size() < 3){
+            wrongArity("set");
+        }
+        Long ttl = null;
+        boolean onlyIfAbsent = false;
+        for (int i = 3; i < args.size(); i++){
+            String option = string(args.get(i)).toUpperCase(Locale.ROOT);
+            if (option.equals("EX") && i + 1 < args.size() && ttl == null){
+                ttl = parsePositive(string(args.get(++i)));
+            } else if (option.equals("NX")){
+                onlyIfAbsent = true;
+            } else {
+                throw new IllegalArgumentException("syntax error, only EX and NX are supported");
+            }
+        }
+        String tenantId = tenant(session, out);
+        if (tenantId == null){
+            return;
+        }
+
+        KeyValueRequest request = new KeyValueRequest(string(args.get(1)), string(args.get(2)), ttl);
+        Set<ConstraintViolation<KeyValueRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()){
+            throw new IllegalArgumentException(violations.iterator().next().getMessage());
+        }
+
+        if (!onlyIfAbsent){
+            run("resp_set", tenantId, Kind.WRITE, 1, () -> service.upsertKeyValue(request, tenantId));
+            out.simpleString("OK");
+            return;
+        }
+        try{
+            run("resp_set", tenantId, Kind.WRITE, 1, () -> {
+                writePipeline.create(request, tenantId);
+                return null;
+            });
+            out.simpleString("OK");
+        }catch (DuplicateKeyException e){
+            out.bulk(null);
+        }
+    }
+
+    private void del(List<byte[]> args, Session session, RespWriter out){
+        if (args.size() < 2){
+            wrongArity("del");
+        }
+        String tenantId = tenant(session, out);
+        if (tenantId == null){
+            return;
+        }
+        List<String> keys = keys(args);
+        int deleted = run("resp_del", tenantId, Kind.WRITE, keys.size(),
+                () -> service.deleteKeyValueBatch(keys, null, tenantId).getSuccesses().size());
+        out.integer(deleted);
+    }
+
+    private void mget(List<byte[]> args, Session session, RespWriter out){
+        if (args.size() < 2){
+            wrongArity("mget");
+        }
+        String tenantId = tenant(session, out);
+        if (tenantId == null){
+            return;
+        }
+        List<String> keys = keys(args);
+        BatchGetResponse response = run("resp_mget", tenantId, Kind.READ, keys.size(),
+                () -> service.getKeyValueBatch(keys, tenantId, true));
+        out.arrayHeader(keys.size());
+        for (String key : keys){
+            Object hit = response.getHits().get(key);
+            out.bulk(hit == null ? null : toBytes((String) ((RawValue) hit).rawValue()));
+        }
+    }
+
+    // Like Redis, a key named several times is counted each time.
+    private void exists(List<byte[]> args, Session session, RespWriter out){
+        if (args.size() < 2){
+            wrongArity("exists");
+        }
+        String tenantId = tenant(session, out);
+        if (tenantId == null){
+            return;
+        }
+        List<String> keys = keys(args);
+        BatchGetResponse response = run("resp_exists", tenantId, Kind.READ, keys.size(),
+                () -> service.getKeyValueBatch(keys, tenantId, true));
+        out.integer(keys.stream().filter(response.getHits()::containsKey).count());
+    }
+
+    private <T> T run(String operation, String tenantId, Kind kind, int items, Supplier<T> action){
+        return metrics.time(operation, tenantId, () -> {
+            rateLimiter.admit(tenantId, kind, items);
+            return limiter.call(tenantId, action);
+        });
+    }
+
+    private String tenant(Session session, RespWriter out){
+        if (session.tenantId == null){
+            out.error("NOAUTH select a tenant with SELECT <tenant> or AUTH <tenant> first");
+        }
+        return session.tenantId;
+    }
+
+    // Strings set over RESP come back as they were set; any other JSON value is returned as its JSON text.
+    private byte[] toBytes(String json){
+        if (json.startsWith("\"")){
+            try{
+                return mapper.readValue(json, String.class).getBytes(StandardCharsets.UTF_8);
+            }catch (JsonProcessingException e){
+                throw new RuntimeException("Failed to deserialize data");
+            }
+        }
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> keys(List<byte[]> args){
+        List<String> keys = new ArrayList<>(args.size() - 1);
+        for (int i = 1; i < args.size(); i++){
+            keys.add(string(args.get(i)));
+        }
+        return keys;
+    }
+
+    private static long parsePositive(String value){
+        try{
+            long parsed = Long.parseLong(value);
+            if (parsed > 0){
+                return parsed;
+            }
+        }catch (NumberFormatException ignored){
+        }
+        throw new IllegalArgumentException("invalid expire time in 'set' command");
+    }
+
+    private static void wrongArity(String command){
+        throw new IllegalArgumentException("wrong number of arguments for '" + command + "' command");
+    }
+
+    private static String string(byte[] bytes){
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static class Session {
+        private String tenantId;
+        private boolean closeRequested;
+
+        Session(String tenantId){
+            this.tenantId = tenantId;
+        }
+
+        boolean isCloseRequested(){
+            return closeRequested;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.kvstore.resp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Incremental decoder for RESP requests: arrays of bulk strings, as sent by client libraries, and inline
+// commands (space separated words ending in CRLF), as typed into telnet. decode only consumes a command once
+// all of its bytes have arrived, so a connection can feed it whatever each read returned.
+class RespDecoder {
+
+    private static final int MAX_HEADER_BYTES = 32;
+    private static final int MAX_INLINE_BYTES = 64 * 1024;
+
+    private final int maxArgs;
+    private final int maxBulkBytes;
+
+    RespDecoder(int maxArgs, int maxBulkBytes){
+        this.maxArgs = maxArgs;
+        this.maxBulkBytes = maxBulkBytes;
+    }
+
+    // Returns the next command in the buffer (read mode) and moves its position past it, or null when the
+    // command is not complete yet. An empty list is a command without arguments, which callers skip.
+    List<byte[]> decode(ByteBuffer buffer){
+        int start = buffer.position();
+        if (start >= buffer.limit()){
+            return null;
+        }
+        if (buffer.get(start) != '*'){
+            return decodeInline(buffer);
+        }
+
+        int lineEnd = findLineEnd(buffer, start + 1, MAX_HEADER_BYTES);
+        if (lineEnd < 0){
+            return null;
+        }
+        long count = parseLength(buffer, start + 1, lineEnd);
+        if (count > maxArgs){
+            throw new ProtocolException("too many arguments");
+        }
+
+        int position = lineEnd + 2;
+        List<byte[]> args = new ArrayList<>((int) Math.max(count, 0));
+        for (int i = 0; i < count; i++){
+            if (position >= buffer.limit()){
+                return null;
+            }
+            if (buffer.get(position) != '$'){
+                throw new ProtocolException("expected '$', got '" + (char) buffer.get(position) + "'");
+            }
+            lineEnd = findLineEnd(buffer, position + 1, MAX_HEADER_BYTES);
+            if (lineEnd < 0){
+                return null;
+            }
+            long length = parseLength(buffer, position + 1, lineEnd);
+            if (length < 0 || length > maxBulkBytes){
+                throw new ProtocolException("invalid bulk length");
+            }
+            position = lineEnd + 2;
+            if (buffer.limit() - position < length + 2){
+                return null;
+            }
+            byte[] arg = new byte[(int) length];
+            buffer.get(position, arg);
+            position += (int) length;
+            if (buffer.get(position) != '\r' || buffer.get(position + 1) != '\n'){
+                throw new ProtocolException("bulk string not terminated by CRLF");
+            }
+            position += 2;
+            args.add(arg);
+        }
+
+        buffer.position(position);
+        return args;
+    }
+
+    private List<byte[]> decodeInline(ByteBuffer buffer){
+        int start = buffer.position();
+        int end = -1;
+        for (int i = start; i < buffer.limit(); i++){
+            if (buffer.get(i) == '\n'){
+                end = i;
+                break;
+            }
+        }
+        if (end < 0){
+            if (buffer.limit() - start > MAX_INLINE_BYTES){
+                throw new ProtocolException("inline command too long");
+            }
+            return null;
+        }
+
+        List<byte[]> args = new ArrayList<>();
+        int wordStart = -1;
+        for (int i = start; i <= end; i++){
+            byte b = buffer.get(i);
+            boolean separator = b == ' ' || b == '\t' || b == '\r' || b == '\n';
+            if (separator && wordStart >= 0){
+                byte[] word = new byte[i - wordStart];
+                buffer.get(wordStart, word);
+                args.add(word);
+                wordStart = -1;
+            } else if (!separator && wordStart < 0){
+                wordStart = i;
+            }
+        }
+        if (args.size() > maxArgs){
+            throw new ProtocolException("too many arguments");
+        }
+
+        buffer.position(end + 1);
+        return args;
+    }
+
+    // Index of the CR of the CRLF ending the line that starts at from, or -1 when it has not arrived yet.
+    private static int findLineEnd(ByteBuffer buffer, int from, int maxLength){
+        int last = Math.min(buffer.limit() - 1, from + maxLength);
+        for (int i = from; i < last; i++){
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'){
+                return i;
+            }
+        }
+        if (buffer.limit() - from > maxLength){
+            throw new ProtocolException("header line too long");
+        }
+        return -1;
+    }
+
+    private static long parseLength(ByteBuffer buffer, int from, int to){
+        if (from == to){
+            throw new ProtocolException("missing length");
+        }
+        boolean negative = buffer.get(from) == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++){
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9'){
+                throw new ProtocolException("invalid length");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    static class ProtocolException extends RuntimeException {
+        ProtocolException(String message){
+            super("Protocol error: " + message);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.kvstore.resp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.kvstore.service.ConcurrencyLimiter;
+import com.kvstore.service.KeyValueStoreService;
+import com.kvstore.service.StoreMetrics;
+import com.kvstore.service.TenantRateLimiter;
+import com.kvstore.service.WritePipeline;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Optional Redis-protocol front end. One selector thread accepts connections, reads and decodes commands and
+// writes replies; it never touches storage. The decoded commands of a connection are queued and run in order
+// by one worker at a time, which executes everything queued so far (a whole pipeline) and hands the replies
+// back as one buffer. A connection stops being read while maxPipelined commands are queued or its replies
+// do not fit into the socket, so a client that never reads cannot make the server buffer without bound.
+@Component
+@ConditionalOnProperty(name = "kvstore.resp.enabled", havingValue = "true")
+public class RespServer {
+
+    private static final int INITIAL_BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_ARGS = 4096;
+    private static final int REPLY_FLUSH_BYTES = 64 * 1024;
+
+    private final RespCommands commands;
+    private final RespDecoder decoder;
+    private final InetSocketAddress address;
+    private final int maxPipelined;
+    private final int maxRequestBytes;
+    private final ExecutorService workers;
+    private final Queue<Runnable> loopTasks = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread loop;
+    private volatile boolean running;
+
+    @Autowired
+    public RespServer(KeyValueStoreService service, WritePipeline writePipeline, StoreMetrics metrics,
+                      ConcurrencyLimiter limiter, TenantRateLimiter rateLimiter, Validator validator, ObjectMapper mapper,
+                      @Value("${kvstore.resp.host:0.0.0.0}") String host,
+                      @Value("${kvstore.resp.port:6380}") int port,
+                      @Value("${kvstore.resp.threads:8}") int threads,
+                      @Value("${kvstore.resp.max-pipelined:1024}") int maxPipelined,
+                      @Value("${kvstore.resp.max-request-bytes:1048576}") int maxRequestBytes,
+                      @Value("${kvstore.resp.default-tenant:}") String defaultTenant){
+        if (threads < 1 || maxPipelined < 1 || maxRequestBytes < 1){
+            throw new IllegalArgumentException("RESP threads, pipeline depth and request size must be positive");
+        }
+        this.commands = new RespCommands(service, writePipeline, metrics, limiter, rateLimiter, validator, mapper, defaultTenant);
+        this.decoder = new RespDecoder(MAX_ARGS, maxRequestBytes);
+        this.address = new InetSocketAddress(host, port);
+        this.maxPipelined = maxPipelined;
+        this.maxRequestBytes = maxRequestBytes;
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        loop = new Thread(this::run, "kvstore-resp-loop");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException, InterruptedException {
+        running = false;
+        selector.wakeup();
+        loop.join(TimeUnit.SECONDS.toMillis(5));
+        workers.shutdown();
+        for (SelectionKey key : selector.keys()){
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void run(){
+        while (running){
+            try{
+                selector.select();
+                Runnable task;
+                while ((task = loopTasks.poll()) != null){
+                    task.run();
+                }
+
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()){
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    if (!key.isValid()){
+                        continue;
+                    }
+                    if (key.isAcceptable()){
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()){
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()){
+                        connection.flush();
+                    }
+                }
+            }catch (IOException | ClosedSelectorException e){
+                if (!running){
+                    return;
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null){
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    // Runs the task on the selector thread, which owns every connection's channel and interest set.
+    private void onLoop(Runnable task){
+        loopTasks.add(task);
+        selector.wakeup();
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final RespCommands.Session session = commands.newSession();
+        private SelectionKey key;
+
+        // Selector thread only.
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        private boolean readPaused;
+        private boolean writeBlocked;
+
+        private final Queue<List<byte[]>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed;
+
+        private Connection(SocketChannel channel){
+            this.channel = channel;
+        }
+
+        private void read(){
+            try{
+                if (!in.hasRemaining()){
+                    if (in.capacity() >= maxRequestBytes + INITIAL_BUFFER_BYTES){
+                        protocolError(new RespDecoder.ProtocolException("request too large"));
+                        return;
+                    }
+                    in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+                }
+                if (channel.read(in) < 0){
+                    close();
+                    return;
+                }
+                decodeBuffered();
+            }catch (IOException e){
+                close();
+            }
+        }
+
+        private void decodeBuffered(){
+            in.flip();
+            boolean added = false;
+            try{
+                List<byte[]> command;
+                while (queued.get() < maxPipelined && (command = decoder.decode(in)) != null){
+                    if (!command.isEmpty()){
+                        queue.add(command);
+                        queued.incrementAndGet();
+                        added = true;
+                    }
+                }
+            }catch (RespDecoder.ProtocolException e){
+                protocolError(e);
+                return;
+            }finally{
+                in.compact();
+            }
+            if (queued.get() >= maxPipelined){
+                pauseReading();
+            }
+            if (added){
+                schedule();
+            }
+        }
+
+        // Like Redis: report the error and drop the connection, as the stream cannot be resynchronized.
+        private void protocolError(RespDecoder.ProtocolException e){
+            RespWriter out = new RespWriter();
+            out.error("ERR " + e.getMessage());
+            try{
+                channel.write(out.toByteBuffer());
+            }catch (IOException ignored){
+            }
+            close();
+        }
+
+        private void schedule(){
+            if (scheduled.compareAndSet(false, true)){
+                workers.execute(this::process);
+            }
+        }
+
+        // Worker thread: runs every queued command in order and hands the replies to the selector thread.
+        private void process(){
+            RespWriter out = new RespWriter();
+            List<byte[]> command;
+            while (!closed && !session.isCloseRequested() && (command = queue.poll()) != null){
+                commands.execute(command, session, out);
+                queued.decrementAndGet();
+                if (out.size() >= REPLY_FLUSH_BYTES){
+                    replies.add(out.toByteBuffer());
+                    out = new RespWriter();
+                    onLoop(this::afterRun);
+                }
+            }
+            if (out.size() > 0){
+                replies.add(out.toByteBuffer());
+            }
+            scheduled.set(false);
+            onLoop(this::afterRun);
+            if (!queue.isEmpty() && !session.isCloseRequested()){
+                schedule();
+            }
+        }
+
+        private void afterRun(){
+            if (!closed){
+                flush();
+            }
+        }
+
+        private void flush(){
+            try{
+                ByteBuffer reply;
+                while ((reply = replies.peek()) != null){
+                    channel.write(reply);
+                    if (reply.hasRemaining()){
+                        writeBlocked = true;
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        pauseReading();
+                        return;
+                    }
+                    replies.poll();
+                }
+            }catch (IOException e){
+                close();
+                return;
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            writeBlocked = false;
+            if (session.isCloseRequested() && !scheduled.get()){
+                close();
+                return;
+            }
+            if (readPaused && queued.get() < maxPipelined){
+                readPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                decodeBuffered();
+            }
+        }
+
+        private void pauseReading(){
+            if (!readPaused){
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        private void close(){
+            if (closed){
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try{
+                channel.close();
+            }catch (IOException ignored){
+            }
+        }
+    }
+}
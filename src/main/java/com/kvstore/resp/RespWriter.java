@@ -0,0 +1,76 @@
+package com.kvstore.resp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Accumulates RESP2 replies for one run of pipelined commands, so they go out with as few writes as possible.
+class RespWriter {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    void simpleString(String value){
+        write((byte) '+');
+        write(value.getBytes(StandardCharsets.UTF_8));
+        write(CRLF);
+    }
+
+    void error(String message){
+        write((byte) '-');
+        write(message.replace('\r', ' ').replace('\n', ' ').getBytes(StandardCharsets.UTF_8));
+        write(CRLF);
+    }
+
+    void integer(long value){
+        header((byte) ':', value);
+    }
+
+    void bulk(byte[] value){
+        if (value == null){
+            write(NULL_BULK);
+            return;
+        }
+        header((byte) '$', value.length);
+        write(value);
+        write(CRLF);
+    }
+
+    void arrayHeader(int length){
+        header((byte) '*', length);
+    }
+
+    int size(){
+        return size;
+    }
+
+    ByteBuffer toByteBuffer(){
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    private void header(byte type, long value){
+        write(type);
+        write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        write(CRLF);
+    }
+
+    private void write(byte b){
+        ensureCapacity(1);
+        bytes[size++] = b;
+    }
+
+    private void write(byte[] b){
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+    }
+
+    private void ensureCapacity(int extra){
+        if (size + extra > bytes.length){
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
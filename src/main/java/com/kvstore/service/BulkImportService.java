@@ -0,0 +1,199 @@
+package com.kvstore.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.kvstore.Utilities.BatchResponse;
+import com.kvstore.Utilities.ImportChunkResult;
+import com.kvstore.Utilities.ImportSummary;
+import com.kvstore.dto.KeyValueRequest;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Streams newline-delimited KeyValueRequest records into the store. Records are parsed one at a time and
+// grouped into chunks of chunkSize, each written by createKeyValueBatch in its own transaction on the import
+// pool. At most maxInFlight chunks of one import are pending; after that the parser waits for the oldest,
+// which stops reading the request body and pushes back on the client. One result line is written per chunk,
+// in order, followed by a summary line. Each chunk is timed and takes its tenant's concurrency permits like a
+// batch create, while it is written.
+@Service
+public class BulkImportService {
+
+    private final KeyValueStoreService service;
+    private final ObjectMapper mapper;
+    private final Validator validator;
+    private final TenantRateLimiter rateLimiter;
+    private final ConcurrencyLimiter limiter;
+    private final StoreMetrics metrics;
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+
+    @Autowired
+    public BulkImportService(KeyValueStoreService service, ObjectMapper mapper, Validator validator,
+                             TenantRateLimiter rateLimiter, ConcurrencyLimiter limiter, StoreMetrics metrics,
+                             @Value("${kvstore.import.chunk-size:1000}") int chunkSize,
+                             @Value("${kvstore.import.max-in-flight:2}") int maxInFlight,
+                             @Value("${kvstore.import.threads:4}") int threads){
+        if (chunkSize < 1 || maxInFlight < 1){
+            throw new IllegalArgumentException("Import chunk size and in-flight limit must be positive");
+        }
+        this.service = service;
+        this.mapper = mapper;
+        this.validator = validator;
+        this.rateLimiter = rateLimiter;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    public ImportSummary importNdjson(String tenantId, InputStream in, OutputStream out) throws IOException {
+        ImportSummary summary = new ImportSummary();
+        Deque<Future<ImportChunkResult>> pending = new ArrayDeque<>();
+
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            ImportChunkResult chunk = null;
+            List<KeyValueRequest> requests = new ArrayList<>(chunkSize);
+
+            while (parser.nextToken() != null){
+                long line = parser.currentTokenLocation().getLineNr();
+                JsonNode node = mapper.readTree(parser);
+
+                if (chunk == null){
+                    summary.setChunks(summary.getChunks() + 1);
+                    chunk = new ImportChunkResult(summary.getChunks(), line);
+                }
+                chunk.setRecords(chunk.getRecords() + 1);
+                KeyValueRequest request = toRequest(node, line, chunk);
+                if (request != null){
+                    requests.add(request);
+                }
+
+                if (chunk.getRecords() == chunkSize){
+                    submit(tenantId, chunk, requests, pending, out, summary);
+                    chunk = null;
+                    requests = new ArrayList<>(chunkSize);
+                }
+            }
+            if (chunk != null){
+                submit(tenantId, chunk, requests, pending, out, summary);
+            }
+
+            while (!pending.isEmpty()){
+                write(out, await(pending.poll()), summary);
+            }
+            summary.setCompleted(true);
+        } catch (JsonProcessingException e){
+            // Chunks already handed to the pool are still committed and reported before the summary.
+            while (!pending.isEmpty()){
+                write(out, await(pending.poll()), summary);
+            }
+            long line = e.getLocation() == null ? -1 : e.getLocation().getLineNr();
+            summary.setError("Malformed input at line " + line + ": " + e.getOriginalMessage());
+        }
+
+        out.write(mapper.writeValueAsBytes(summary));
+        out.write('\n');
+        out.flush();
+        return summary;
+    }
+
+    private KeyValueRequest toRequest(JsonNode node, long line, ImportChunkResult chunk){
+        String key = node.path("key").isTextual() ? node.get("key").asText() : null;
+        try{
+            KeyValueRequest request = mapper.treeToValue(node, KeyValueRequest.class);
+            Set<ConstraintViolation<KeyValueRequest>> violations = validator.validate(request);
+            if (!violations.isEmpty()){
+                chunk.addFailure(key, "Line " + line + ": " + violations.iterator().next().getMessage());
+                return null;
+            }
+            return request;
+        }catch (JsonProcessingException | IllegalArgumentException e){
+            chunk.addFailure(key, "Line " + line + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void submit(String tenantId, ImportChunkResult chunk, List<KeyValueRequest> requests,
+                        Deque<Future<ImportChunkResult>> pending, OutputStream out, ImportSummary summary) throws IOException {
+        while (pending.size() >= maxInFlight){
+            write(out, await(pending.poll()), summary);
+        }
+        // Over its write rate the import is slowed down rather than rejected; not reading pushes back on the client.
+        try{
+            rateLimiter.reserve(tenantId, TenantRateLimiter.Kind.WRITE, requests.size());
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }
+        pending.add(executor.submit(() -> {
+            if (!requests.isEmpty()){
+                try{
+                    BatchResponse response = metrics.time("import_chunk", tenantId,
+                            () -> limiter.call(tenantId, () -> service.createKeyValueBatch(requests, tenantId)));
+                    chunk.setAccepted(response.getSuccesses().size());
+                    chunk.getFailures().addAll(response.getFailures());
+                }catch (RuntimeException e){
+                    // The chunk's transaction rolled back as a whole; later chunks are still attempted.
+                    for (KeyValueRequest request : requests){
+                        chunk.addFailure(request.getKey(), "Chunk failed: " + e.getMessage());
+                    }
+                }
+            }
+            return chunk;
+        }));
+
+        while (!pending.isEmpty() && pending.peek().isDone()){
+            write(out, await(pending.poll()), summary);
+        }
+    }
+
+    private ImportChunkResult await(Future<ImportChunkResult> future) throws IOException {
+        try{
+            return future.get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }catch (ExecutionException e){
+            throw new IOException("Import chunk failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void write(OutputStream out, ImportChunkResult result, ImportSummary summary) throws IOException {
+        summary.setRecords(summary.getRecords() + result.getRecords());
+        summary.setAccepted(summary.getAccepted() + result.getAccepted());
+        summary.setFailed(summary.getFailed() + result.getFailures().size());
+
+        out.write(mapper.writeValueAsBytes(result));
+        out.write('\n');
+        out.flush();
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,258 @@
+package com.kvstore.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import com.kvstore.dto.ChangeEvent;
+import com.kvstore.dto.ChangePage;
+import com.kvstore.exception.ConcurrencyLimitException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-tenant stream of the creates, updates, deletes and expiries made through this instance, for clients that
+// keep their own copies of values. Each tenant keeps its last `capacity` changes in memory; a bounded number of
+// tenants is kept, least recently used first out. Changes are numbered from one counter for the process and a
+// cursor also names the process run, so a client resumes right after the last change it saw. When the changes
+// after a cursor are no longer all retained (the tenant's log overflowed or was dropped, or the process
+// restarted), a read answers with reset and the client has to drop its copies.
+// Changes made inside a transaction are published once it commits, so a client that re-reads a key on a
+// change never sees the value from before it.
+@Service
+public class ChangeFeed {
+
+    private final boolean enabled;
+    private final int capacity;
+    private final int maxSubscribers;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+    private final Cache<String, TenantLog> logs;
+    private final Map<String, Set<Runnable>> listeners = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final ExecutorService dispatcher;
+
+    private final Counter published;
+    private final Counter resets;
+
+    @Autowired
+    public ChangeFeed(MeterRegistry registry,
+                      @Value("${kvstore.feed.enabled:false}") boolean enabled,
+                      @Value("${kvstore.feed.capacity:1024}") int capacity,
+                      @Value("${kvstore.feed.max-tenants:1000}") long maxTenants,
+                      @Value("${kvstore.feed.max-subscribers:1000}") int maxSubscribers,
+                      @Value("${kvstore.feed.dispatch-threads:2}") int dispatchThreads){
+        if (capacity < 1 || maxTenants < 1 || dispatchThreads < 1){
+            throw new IllegalArgumentException("Change feed capacity, tenants and dispatch threads must be positive");
+        }
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.maxSubscribers = maxSubscribers;
+        this.logs = Caffeine.newBuilder().maximumSize(maxTenants).build();
+        this.dispatcher = Executors.newFixedThreadPool(dispatchThreads, runnable -> {
+            Thread thread = new Thread(runnable, "kvstore-feed-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.published = Counter.builder("kvstore.feed.changes")
+                .description("Changes appended to the change feed")
+                .register(registry);
+        this.resets = Counter.builder("kvstore.feed.resets")
+                .description("Change feed reads whose cursor was too old to resume from")
+                .register(registry);
+        Gauge.builder("kvstore.feed.subscribers", subscribers, AtomicInteger::get)
+                .description("Open change feed subscriptions")
+                .register(registry);
+    }
+
+    public static ChangeFeed disabled(){
+        return new ChangeFeed(new SimpleMeterRegistry(), false, 1, 1, 0, 1);
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    public void publish(String tenantId, ChangeEvent.Type type, String key, long version){
+        publishAll(tenantId, type, List.of(key), version);
+    }
+
+    public void publishAll(String tenantId, ChangeEvent.Type type, Collection<String> keys, long version){
+        if (!enabled || keys.isEmpty()){
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            List<String> committed = List.copyOf(keys);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit(){
+                    append(tenantId, type, committed, version);
+                }
+            });
+            return;
+        }
+        append(tenantId, type, keys, version);
+    }
+
+    // Up to limit changes after cursor. Without a cursor the page is empty and starts at the newest change.
+    public ChangePage read(String tenantId, String cursor, int limit){
+        if (limit < 1){
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        ChangePage[] page = new ChangePage[1];
+        logs.asMap().compute(tenantId, (ignored, log) -> {
+            TenantLog target = log == null ? new TenantLog(sequence.get()) : log;
+            page[0] = read(target, cursor, limit);
+            return target;
+        });
+        if (page[0].isReset()){
+            resets.increment();
+        }
+        return page[0];
+    }
+
+    // Changes of a tenant are numbered inside compute on its log, so every one up to head is in the log.
+    private ChangePage read(TenantLog log, String cursor, int limit){
+        long head = sequence.get();
+        if (cursor == null || cursor.isEmpty()){
+            return new ChangePage(List.of(), cursor(head), false);
+        }
+        long after = parse(cursor);
+        if (after < log.retainedAfter || after > head){
+            return new ChangePage(List.of(), cursor(head), true);
+        }
+
+        List<ChangeEvent> changes = new ArrayList<>();
+        for (Change change : log.changes){
+            if (change.sequence() > after){
+                changes.add(new ChangeEvent(cursor(change.sequence()), change.key(), change.type(), change.version()));
+                if (changes.size() == limit){
+                    return new ChangePage(changes, changes.get(limit - 1).getCursor(), false);
+                }
+            }
+        }
+        return new ChangePage(changes, cursor(head), false);
+    }
+
+    // Runs listener on a dispatch thread after new changes of the tenant were appended, until the subscription
+    // is closed. Listeners are not called for changes appended before they subscribed.
+    public Subscription subscribe(String tenantId, Runnable listener){
+        if (subscribers.incrementAndGet() > maxSubscribers){
+            subscribers.decrementAndGet();
+            throw new ConcurrencyLimitException("Too many change feed subscriptions");
+        }
+        listeners.computeIfAbsent(tenantId, ignored -> ConcurrentHashMap.newKeySet()).add(listener);
+        AtomicInteger open = new AtomicInteger(1);
+        return () -> {
+            if (open.getAndSet(0) == 1){
+                listeners.computeIfPresent(tenantId, (ignored, set) -> set.remove(listener) && set.isEmpty() ? null : set);
+                subscribers.decrementAndGet();
+            }
+        };
+    }
+
+    // Makes every cursor of the tenant handed out so far answer with reset, e.g. after its rows were replaced in bulk.
+    public void reset(String tenantId){
+        if (!enabled){
+            return;
+        }
+        logs.asMap().compute(tenantId, (ignored, log) -> new TenantLog(sequence.incrementAndGet()));
+        signal(tenantId);
+    }
+
+    public void resetAll(){
+        if (!enabled){
+            return;
+        }
+        sequence.incrementAndGet();
+        logs.invalidateAll();
+        listeners.keySet().forEach(this::signal);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        dispatcher.shutdownNow();
+    }
+
+    private void append(String tenantId, ChangeEvent.Type type, Collection<String> keys, long version){
+        // compute serializes appends and reads of the tenant and keeps its log from being evicted meanwhile.
+        logs.asMap().compute(tenantId, (ignored, log) -> {
+            TenantLog target = log == null ? new TenantLog(sequence.get()) : log;
+            for (String key : keys){
+                if (target.changes.size() == capacity){
+                    target.retainedAfter = target.changes.removeFirst().sequence();
+                }
+                target.changes.addLast(new Change(sequence.incrementAndGet(), key, type, version));
+            }
+            return target;
+        });
+        published.increment(keys.size());
+        signal(tenantId);
+    }
+
+    private void signal(String tenantId){
+        Set<Runnable> tenantListeners = listeners.get(tenantId);
+        if (tenantListeners != null){
+            for (Runnable listener : tenantListeners){
+                dispatcher.execute(listener);
+            }
+        }
+    }
+
+    private String cursor(long sequence){
+        return epoch + "-" + sequence;
+    }
+
+    // The sequence a cursor of this run points at, or -1 for a cursor of another run, which always resets.
+    private long parse(String cursor){
+        int separator = cursor.lastIndexOf('-');
+        if (separator < 0 || !cursor.substring(0, separator).equals(epoch)){
+            return -1;
+        }
+        try{
+            return Long.parseLong(cursor.substring(separator + 1));
+        }catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private record Change(long sequence, String key, ChangeEvent.Type type, long version) {
+    }
+
+    // Every change of the tenant numbered after retainedAfter is still in changes.
+    private static final class TenantLog {
+        private final ArrayDeque<Change> changes = new ArrayDeque<>();
+        private long retainedAfter;
+
+        private TenantLog(long retainedAfter){
+            this.retainedAfter = retainedAfter;
+        }
+    }
+}
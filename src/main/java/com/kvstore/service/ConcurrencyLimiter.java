@@ -0,0 +1,107 @@
+package com.kvstore.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.kvstore.exception.ConcurrencyLimitException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Bounds how many requests work against storage at once: at most maxInFlight in total, which should not
+// exceed the connection pool, and at most maxPerTenant for any one tenant, so a tenant's burst queues on its
+// own semaphore instead of taking every connection. A request waits up to acquireTimeout for both permits and
+// is rejected after that. This is what keeps the store bounded once request threads are cheap (virtual threads).
+@Component
+public class ConcurrencyLimiter {
+
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final long acquireTimeoutNanos;
+    private final Semaphore global;
+    // Weak values: a tenant's semaphore is dropped once no request references it, i.e. when it is idle.
+    private final LoadingCache<String, Semaphore> tenants;
+
+    private final Timer waitTime;
+    private final Counter tenantRejected;
+    private final Counter globalRejected;
+
+    @Autowired
+    public ConcurrencyLimiter(MeterRegistry registry,
+                              @Value("${kvstore.concurrency.enabled:false}") boolean enabled,
+                              @Value("${kvstore.concurrency.max-in-flight:10}") int maxInFlight,
+                              @Value("${kvstore.concurrency.max-per-tenant:5}") int maxPerTenant,
+                              @Value("${kvstore.concurrency.acquire-timeout-ms:1000}") long acquireTimeoutMillis){
+        if (maxInFlight < 1 || maxPerTenant < 1){
+            throw new IllegalArgumentException("Concurrency limits must be positive");
+        }
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.global = new Semaphore(maxInFlight, true);
+        this.tenants = Caffeine.newBuilder()
+                .weakValues()
+                .build(tenantId -> new Semaphore(maxPerTenant, true));
+
+        Gauge.builder("kvstore.concurrency.in.flight", this, limiter -> limiter.inFlight())
+                .description("Requests currently holding a storage permit")
+                .register(registry);
+        this.waitTime = Timer.builder("kvstore.concurrency.wait")
+                .description("Time a request waited for its storage permits")
+                .register(registry);
+        this.tenantRejected = Counter.builder("kvstore.concurrency.rejected")
+                .description("Requests rejected because no permit became free in time")
+                .tag("limit", "tenant")
+                .register(registry);
+        this.globalRejected = Counter.builder("kvstore.concurrency.rejected")
+                .description("Requests rejected because no permit became free in time")
+                .tag("limit", "global")
+                .register(registry);
+    }
+
+    public <T> T call(String tenantId, Supplier<T> action){
+        if (!enabled){
+            return action.get();
+        }
+
+        long started = System.nanoTime();
+        Semaphore tenant = tenants.get(tenantId);
+        try{
+            if (!tenant.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)){
+                tenantRejected.increment();
+                throw new ConcurrencyLimitException("Too many concurrent requests for tenant: " + tenantId);
+            }
+            try{
+                long remaining = acquireTimeoutNanos - (System.nanoTime() - started);
+                if (!global.tryAcquire(Math.max(remaining, 0), TimeUnit.NANOSECONDS)){
+                    globalRejected.increment();
+                    throw new ConcurrencyLimitException("Too many concurrent requests");
+                }
+                waitTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                try{
+                    return action.get();
+                }finally{
+                    global.release();
+                }
+            }finally{
+                tenant.release();
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new ConcurrencyLimitException("Interrupted while waiting for a permit");
+        }
+    }
+
+    public int inFlight(){
+        return maxInFlight - global.availablePermits();
+    }
+}
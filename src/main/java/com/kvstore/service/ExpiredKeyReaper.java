@@ -0,0 +1,139 @@
+package com.kvstore.service;
+
+import com.kvstore.Utilities.ExpirySweep;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.dto.ChangeEvent;
+import com.kvstore.storage.ExpiryPartitions;
+import com.kvstore.storage.ShardContext;
+import com.kvstore.storage.ShardRouter;
+import com.kvstore.storage.StorageEngine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+// Removes expired keys in chunks through the expires_at index, so a sweep costs in proportion to the
+// number of expired keys rather than the size of the table. A sweep stops once a chunk comes back short
+// or its time budget is spent; whatever is left is picked up by the next run. With sharding every shard is
+// swept on its own, with its own time budget and meters, so a backlog on one shard does not hold up the rest.
+// Removed keys are published to the change feed as expiries.
+// With expiry partitioning a sweep drops the shard's expired buckets instead (see ExpiryPartitions); its
+// expiries are only counted, not published, and its lag only counts buckets it could not drop.
+@Service
+public class ExpiredKeyReaper {
+
+    private final StorageEngine storage;
+    private final ShardRouter router;
+    private final MeterRegistry registry;
+    private final ChangeFeed feed;
+    private final ExpiryPartitions partitions;
+
+    @Value("${kvstore.ttl.sweep-chunk-size:1000}")
+    private int chunkSize = 1000;
+
+    @Value("${kvstore.ttl.sweep-time-budget-ms:5000}")
+    private long timeBudgetMillis = 5000;
+
+    private final Map<String, AtomicLong> lagMillis = new ConcurrentHashMap<>();
+
+    public ExpiredKeyReaper(StorageEngine storage, MeterRegistry registry){
+        this(storage, registry, ShardRouter.single());
+    }
+
+    public ExpiredKeyReaper(StorageEngine storage, MeterRegistry registry, ShardRouter router){
+        this(storage, registry, router, ChangeFeed.disabled());
+    }
+
+    public ExpiredKeyReaper(StorageEngine storage, MeterRegistry registry, ShardRouter router, ChangeFeed feed){
+        this(storage, registry, router, feed, null);
+    }
+
+    @Autowired
+    public ExpiredKeyReaper(StorageEngine storage, MeterRegistry registry, ShardRouter router, ChangeFeed feed,
+                            @Nullable ExpiryPartitions partitions){
+        this.storage = storage;
+        this.registry = registry;
+        this.router = router;
+        this.feed = feed;
+        this.partitions = partitions;
+        for (String shard : router.getShards()){
+            AtomicLong lag = new AtomicLong();
+            lagMillis.put(shard, lag);
+            Gauge.builder("kvstore.ttl.lag", lag, value -> value.get() / 1000.0)
+                    .tag("shard", shard)
+                    .register(registry);
+        }
+    }
+
+    public int reap(){
+        int total = 0;
+        for (String shard : router.getShards()){
+            total += ShardContext.callOn(shard, () -> reapShard(shard));
+        }
+        return total;
+    }
+
+    private int reapShard(String shard){
+        long started = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        ExpirySweep sweep = partitions != null ? partitions.sweep(now) : deleteExpired(now, started);
+
+        Counter.builder("kvstore.ttl.reaped")
+                .description("Expired keys removed by the TTL sweeper")
+                .tag("shard", shard)
+                .register(registry)
+                .increment(sweep.removed());
+        Timer.builder("kvstore.ttl.sweep.duration")
+                .description("Duration of one TTL sweep")
+                .tag("shard", shard)
+                .register(registry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+        // Lag is the age of the oldest expired row the sweep did not get to.
+        LocalDateTime oldest = sweep.oldestExpiry();
+        lagMillis.get(shard).set(oldest == null ? 0 : Duration.between(oldest, now).toMillis());
+        return sweep.removed();
+    }
+
+    private ExpirySweep deleteExpired(LocalDateTime now, long started){
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+        int total = 0;
+        int deleted;
+        do {
+            List<TenantKey> expired = storage.deleteExpired(now, chunkSize);
+            deleted = expired.size();
+            total += deleted;
+            publish(expired);
+        } while (deleted == chunkSize && System.nanoTime() < deadline);
+        return new ExpirySweep(total, deleted == chunkSize ? storage.findOldestExpiry(now) : null);
+    }
+
+    private void publish(List<TenantKey> expired){
+        if (!feed.isEnabled()){
+            return;
+        }
+        expired.stream()
+                .collect(Collectors.groupingBy(TenantKey::tenantId, Collectors.mapping(TenantKey::key, Collectors.toList())))
+                .forEach((tenantId, keys) -> feed.publishAll(tenantId, ChangeEvent.Type.EXPIRE, keys, 0));
+    }
+
+    // The largest lag over all shards.
+    public long getLagMillis(){
+        return lagMillis.values().stream().mapToLong(AtomicLong::get).max().orElse(0);
+    }
+}
@@ -2,124 +2,488 @@ package com.kvstore.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.RawValue;
 
+import com.kvstore.codec.ContentHash;
+import com.kvstore.codec.EncodedValue;
+import com.kvstore.codec.ValueCodec;
+import com.kvstore.dto.ChangeEvent;
 import com.kvstore.dto.KeyValueRequest;
 import com.kvstore.dto.KeyValueResponse;
+import com.kvstore.dto.RawKeyValueResponse;
+import com.kvstore.dto.ScanPage;
 import com.kvstore.entity.KeyValueEntity;
 import com.kvstore.exception.NotFoundException;
-import com.kvstore.repository.KeyValueRepository;
 import com.kvstore.exception.DuplicateKeyException;
+import com.kvstore.exception.VersionConflictException;
+import com.kvstore.storage.StorageEngine;
 
+import com.kvstore.Utilities.BatchGetResponse;
 import com.kvstore.Utilities.BatchResponse;
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.StripedKeyLocks;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class KeyValueStoreService {
 
+    private static final int MAX_VALUE_BYTES = 16 * 1024;
+    private static final String VALUE_TOO_LARGE = "Value size exceeds the maximum allowed limit of 16KB";
+
+    @Autowired
+    private StorageEngine storage;
+
+    @Autowired
+    private ValueCodec codec;
+
+    @Autowired
+    private StripedKeyLocks locks;
+
+    @Autowired
+    private ValueCache cache;
+
     @Autowired
-    private KeyValueRepository repository;
+    private StoreMetrics metrics;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private ChangeFeed feed;
+
+    @Value("${kvstore.locks.batch-tenant-lock:false}")
+    private boolean batchTenantLock;
+
+    @Value("${kvstore.batch.max-get-keys:1000}")
+    private int maxGetKeys = 1000;
+
+    @Value("${kvstore.scan.max-page-size:1000}")
+    private int maxScanPageSize = 1000;
+
+    private final ObjectWriter scanWriter = new ObjectMapper().writer();
 
     @Transactional
-    public synchronized void createKeyValue(KeyValueRequest request, String tenantId) throws DuplicateKeyException {
-        if (repository.existsByKeyAndTenantId(request.getKey(), tenantId)){
+    public void createKeyValue(KeyValueRequest request, String tenantId) throws DuplicateKeyException {
+        try (StripedKeyLocks.Held ignored = locks.lockKey(tenantId, request.getKey())) {
+            insertKeyValue(request, tenantId);
+        }
+    }
+
+    // One conditional insert: the database decides whether the key is taken, so a concurrent upsert of the same
+    // key cannot be overwritten.
+    private void insertKeyValue(KeyValueRequest request, String tenantId){
+        KeyValueEntity entity = toEntity(request, tenantId);
+        if (storage.insertAllIfAbsent(List.of(entity)).isEmpty()){
             throw new DuplicateKeyException("Key '"+ request.getKey() +"' already exists for tenant: " + tenantId);
         }
+        cache.invalidate(tenantId, entity.getKey());
+        feed.publish(tenantId, ChangeEvent.Type.CREATE, entity.getKey(), 1);
+    }
+
+    // Creates the key or replaces its value and TTL, and returns the new version. The write is a single
+    // INSERT ... ON CONFLICT DO UPDATE, so it needs no key lock; the shared tenant lock only keeps it out of
+    // the final pass of a tenant move.
+    public long upsertKeyValue(KeyValueRequest request, String tenantId){
+        KeyValueEntity entity = toEntity(request, tenantId);
+        long version;
+        try (StripedKeyLocks.Held ignored = locks.lockKeys(tenantId, List.of())) {
+            version = storage.upsert(entity, LocalDateTime.now());
+        }
+        cache.invalidate(tenantId, entity.getKey());
+        feed.publish(tenantId, version == 1 ? ChangeEvent.Type.CREATE : ChangeEvent.Type.UPDATE, entity.getKey(), version);
+        return version;
+    }
 
+    // Replaces the value and TTL of the key only while its version is still expectedVersion, with a single
+    // conditional UPDATE, and returns the new version.
+    public long compareAndSetKeyValue(KeyValueRequest request, long expectedVersion, String tenantId){
+        KeyValueEntity entity = toEntity(request, tenantId);
+        CompareAndSetResult result;
+        try (StripedKeyLocks.Held ignored = locks.lockKeys(tenantId, List.of())) {
+            result = storage.compareAndSet(entity, expectedVersion, LocalDateTime.now());
+        }
+        if (!result.applied()){
+            if (result.version() == 0){
+                throw new NotFoundException("Key not found");
+            }
+            throw new VersionConflictException("Key '" + request.getKey() + "' is at version " + result.version()
+                    + ", not " + expectedVersion, result.version());
+        }
+        cache.invalidate(tenantId, entity.getKey());
+        feed.publish(tenantId, ChangeEvent.Type.UPDATE, entity.getKey(), result.version());
+        return result.version();
+    }
+
+    private KeyValueEntity toEntity(KeyValueRequest request, String tenantId){
         try {
-            String serializedDate = objectMapper.writeValueAsString(request.getData());
-            if (serializedDate.getBytes().length > 16 * 1024){
-                throw new IllegalArgumentException("Value size exceeds the maximum allowed limit of 16KB");
+            EncodedValue encoded = codec.encode(request.getData());
+            metrics.valueSize(encoded.size());
+            if (encoded.size() > MAX_VALUE_BYTES){
+                throw new IllegalArgumentException(VALUE_TOO_LARGE);
             }
 
             KeyValueEntity entity = new KeyValueEntity();
             entity.setKey(request.getKey());
             entity.setTenantId(tenantId);
-            entity.setData(objectMapper.writeValueAsString(request.getData()));
+            entity.setData(encoded.stored());
+            entity.setContentHash(ContentHash.of(encoded.stored()));
 
             if (request.getTtl() != null){
                 entity.setExpiresAt(LocalDateTime.now().plusSeconds(request.getTtl()));
             }
-            repository.save(entity);
-
+            return entity;
         }catch (JsonProcessingException e){
             throw new RuntimeException("Failed to Serialize data");
         }
     }
 
     @Transactional
-    public synchronized BatchResponse createKeyValueBatch(List<KeyValueRequest> requests, String tenantId){
+    public BatchResponse createKeyValueBatch(List<KeyValueRequest> requests, String tenantId){
+        metrics.batchSize("create", requests.size());
+        try (StripedKeyLocks.Held ignored = lockBatch(requests, tenantId)) {
+            return insertKeyValueBatch(requests, tenantId);
+        }
+    }
+
+    private StripedKeyLocks.Held lockBatch(List<KeyValueRequest> requests, String tenantId){
+        if (batchTenantLock){
+            return locks.lockTenant(tenantId);
+        }
+        return locks.lockKeys(tenantId, requests.stream().map(KeyValueRequest::getKey).toList());
+    }
+
+    // Creates the queued single-key writes of several tenants in one transaction, for the group-commit pipeline.
+    // Returns, per tenant, the outcome of each request in order: null when it was inserted, otherwise the failure.
+    @Transactional
+    public Map<String, RuntimeException[]> createKeyValueGroups(Map<String, List<KeyValueRequest>> requestsByTenant){
+        Map<String, List<String>> keysByTenant = new HashMap<>();
+        requestsByTenant.forEach((tenantId, requests) ->
+                keysByTenant.put(tenantId, requests.stream().map(KeyValueRequest::getKey).toList()));
+
+        try (StripedKeyLocks.Held ignored = locks.lockKeys(keysByTenant)) {
+            Map<String, RuntimeException[]> outcomes = new HashMap<>();
+            requestsByTenant.forEach((tenantId, requests) -> outcomes.put(tenantId, insertKeyValues(requests, tenantId, "create_grouped")));
+            return outcomes;
+        }
+    }
+
+    private BatchResponse insertKeyValueBatch(List<KeyValueRequest> requests, String tenantId){
         BatchResponse response = new BatchResponse();
+        RuntimeException[] failures = insertKeyValues(requests, tenantId, "create");
+        for (int i = 0; i < requests.size(); i++){
+            if (failures[i] == null){
+                response.addSuccess(requests.get(i).getKey());
+            } else {
+                response.addFailure(requests.get(i).getKey(), failures[i].getMessage());
+            }
+        }
+        return response;
+    }
+
+    // Validates every item in memory, finds the taken keys with one IN query and writes the rest
+    // with multi-row INSERT ... ON CONFLICT DO NOTHING, then reports the outcome of each item in request order.
+    // Failures are counted by reason under the given operation tag.
+    private RuntimeException[] insertKeyValues(List<KeyValueRequest> requests, String tenantId, String operation){
+        Set<String> existingKeys = storage.findExistingKeys(tenantId,
+                requests.stream().map(KeyValueRequest::getKey).filter(Objects::nonNull).collect(Collectors.toSet()));
+        Set<String> batchKeys = new HashSet<>();
+
+        RuntimeException[] failures = new RuntimeException[requests.size()];
+        List<KeyValueEntity> survivors = new ArrayList<>(requests.size());
+        LocalDateTime now = LocalDateTime.now();
 
-        for (KeyValueRequest request : requests){
+        for (int i = 0; i < requests.size(); i++){
+            KeyValueRequest request = requests.get(i);
 
             try{
-                if (repository.existsByKeyAndTenantId(request.getKey(),tenantId)){
-                    response.addFailure(request.getKey(), "Key '" + request.getKey() + "' already exists for tenant: "+ tenantId);
+                if (existingKeys.contains(request.getKey()) || batchKeys.contains(request.getKey())){
+                    failures[i] = new DuplicateKeyException("Key '" + request.getKey() + "' already exists for tenant: "+ tenantId);
+                    metrics.batchFailure(operation, "duplicate");
                     continue;
                 }
 
-                String serializedDate = objectMapper.writeValueAsString(request.getData());
-                if (serializedDate.getBytes().length > 16 * 1024){
-                    response.addFailure(request.getKey(), "Value size exceeds 16KB limit");
+                EncodedValue encoded = codec.encode(request.getData());
+                metrics.valueSize(encoded.size());
+                if (encoded.size() > MAX_VALUE_BYTES){
+                    failures[i] = new IllegalArgumentException(VALUE_TOO_LARGE);
+                    metrics.batchFailure(operation, "value_too_large");
                     continue;
                 }
 
                 if (request.getKey().length() > 32){
-                    response.addFailure(request.getKey(), "Key length exceeds 32 characters");
+                    failures[i] = new IllegalArgumentException("Key length exceeds 32 characters");
+                    metrics.batchFailure(operation, "key_too_long");
                     continue;
                 }
 
                 KeyValueEntity enity = new KeyValueEntity();
                 enity.setKey(request.getKey());
                 enity.setTenantId(tenantId);
-                enity.setData(objectMapper.writeValueAsString(request.getData()));
+                enity.setData(encoded.stored());
+                enity.setContentHash(ContentHash.of(encoded.stored()));
 
                 if (request.getTtl() != null){
-                    enity.setExpiresAt(LocalDateTime.now().plusSeconds(request.getTtl()));
+                    enity.setExpiresAt(now.plusSeconds(request.getTtl()));
                 }
 
-                repository.save(enity);
-
-                response.addSuccess(request.getKey());
+                // Only a valid item claims its key, so a later valid item with the same key is still written.
+                batchKeys.add(request.getKey());
+                survivors.add(enity);
             }catch (JsonProcessingException e){
-               response.addFailure(request.getKey(), "Unexpected error: " + e.getMessage());
+               failures[i] = new IllegalArgumentException("Unexpected error: " + e.getMessage());
+               metrics.batchFailure(operation, "serialization");
             }
         }
 
-        return response;
+        Set<String> insertedKeys = survivors.isEmpty() ? Set.of() : storage.insertAllIfAbsent(survivors);
+        cache.invalidateAll(tenantId, insertedKeys);
+        feed.publishAll(tenantId, ChangeEvent.Type.CREATE, insertedKeys, 1);
+
+        for (int i = 0; i < requests.size(); i++){
+            String key = requests.get(i).getKey();
+            if (failures[i] == null && !insertedKeys.contains(key)){
+                failures[i] = new DuplicateKeyException("Key '" + key + "' already exists for tenant: "+ tenantId);
+                metrics.batchFailure(operation, "duplicate");
+            }
+        }
+
+        return failures;
     }
 
     public KeyValueResponse getKeyValue(String key, String tenantId){
-        KeyValueEntity entity = repository.findByKeyAndTenantId(key, tenantId)
-                .orElseThrow(() -> new NotFoundException("Key not found"));
+        ValueCache.Entry cached = cache.getEntry(tenantId, key, false);
+        if (cached != null){
+            return new KeyValueResponse(key, cached.value(), cached.version(), cached.contentHash());
+        }
 
-        if (entity.getExpiresAt() != null && entity.getExpiresAt().isBefore(LocalDateTime.now())){
-            repository.delete(entity);
-            throw new NotFoundException("Key has expired for tenant: " + tenantId);
+        long generation = cache.generation(tenantId, key);
+        KeyValueEntity entity = findLiveEntity(key, tenantId);
+
+        try{
+
+            Object data = codec.decode(entity.getData());
+            long contentHash = contentHash(entity);
+            cache.put(tenantId, key, generation, data, false, entity.getVersion(), contentHash, codec.encodedSize(entity.getData()), entity.getExpiresAt());
+            return new KeyValueResponse(entity.getKey(), data, entity.getVersion(), contentHash);
+        }catch (IOException e){
+            throw new RuntimeException("Failed to deserialize data");
         }
+    }
+
+    // Returns the stored JSON without parsing it, for the passthrough read mode.
+    public RawKeyValueResponse getRawKeyValue(String key, String tenantId){
+        ValueCache.Entry cached = cache.getEntry(tenantId, key, true);
+        if (cached != null){
+            return new RawKeyValueResponse(key, (String) cached.value(), cached.version(), cached.contentHash());
+        }
+
+        long generation = cache.generation(tenantId, key);
+        KeyValueEntity entity = findLiveEntity(key, tenantId);
 
         try{
+            String json = codec.toJson(entity.getData());
+            long contentHash = contentHash(entity);
+            cache.put(tenantId, key, generation, json, true, entity.getVersion(), contentHash, codec.encodedSize(entity.getData()), entity.getExpiresAt());
+            return new RawKeyValueResponse(entity.getKey(), json, entity.getVersion(), contentHash);
+        }catch (IOException e){
+            throw new RuntimeException("Failed to deserialize data");
+        }
+    }
 
-            Map<String, Object> data = objectMapper.readValue(entity.getData(), Map.class);
-            return new KeyValueResponse(entity.getKey(), data);
-        }catch (JsonProcessingException e){
+    // Serves what it can from the cache and resolves the remaining keys with one query that skips expired rows.
+    // With raw set the values are the stored JSON, written into the response as-is.
+    public BatchGetResponse getKeyValueBatch(List<String> keys, String tenantId, boolean raw){
+        Set<String> requested = keys.stream().filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+        if (requested.size() > maxGetKeys){
+            throw new IllegalArgumentException("Batch get is limited to " + maxGetKeys + " keys");
+        }
+        metrics.batchSize("get", requested.size());
+
+        Map<String, Object> found = new HashMap<>();
+        Map<String, Long> generations = new HashMap<>();
+        for (String key : requested){
+            ValueCache.Entry cached = cache.getEntry(tenantId, key, raw);
+            if (cached != null){
+                found.put(key, cached.value());
+            } else {
+                generations.put(key, cache.generation(tenantId, key));
+            }
+        }
+
+        if (!generations.isEmpty()){
+            try{
+                for (KeyValueEntity entity : storage.findLive(tenantId, generations.keySet(), LocalDateTime.now())){
+                    Object data = raw ? codec.toJson(entity.getData()) : codec.decode(entity.getData());
+                    cache.put(tenantId, entity.getKey(), generations.get(entity.getKey()), data, raw, entity.getVersion(),
+                            contentHash(entity), codec.encodedSize(entity.getData()), entity.getExpiresAt());
+                    found.put(entity.getKey(), data);
+                }
+            }catch (IOException e){
+                throw new RuntimeException("Failed to deserialize data");
+            }
+        }
+
+        BatchGetResponse response = new BatchGetResponse();
+        for (String key : requested){
+            Object data = found.get(key);
+            if (data == null){
+                response.addMiss(key);
+            } else {
+                response.addHit(key, raw ? new RawValue((String) data) : data);
+            }
+        }
+        return response;
+    }
+
+    // One keyset page of a tenant's live keys. The cursor is the last key of the previous page, base64url encoded.
+    public ScanPage scanKeyValues(String tenantId, String prefix, String cursor, int limit, boolean values){
+        if (limit < 1 || limit > maxScanPageSize){
+            throw new IllegalArgumentException("Page size must be between 1 and " + maxScanPageSize);
+        }
+        String after = cursor == null ? null : new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+
+        ScanPage page = new ScanPage();
+        String last;
+        if (values){
+            page.setItems(rawValues(storage.scan(tenantId, prefix, after, LocalDateTime.now(), limit)));
+            last = page.getItems().isEmpty() ? null : page.getItems().get(page.getItems().size() - 1).getKey();
+        } else {
+            page.setKeys(storage.scanKeys(tenantId, prefix, after, LocalDateTime.now(), limit));
+            last = page.getKeys().isEmpty() ? null : page.getKeys().get(page.getKeys().size() - 1);
+        }
+
+        int size = values ? page.getItems().size() : page.getKeys().size();
+        if (size == limit){
+            page.setNextCursor(Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8)));
+        }
+        return page;
+    }
+
+    // Writes a scan page as NDJSON, one {"key": ...} line per key, or the item with its stored JSON when the page
+    // has values. Streaming scans write page after page, so memory use does not depend on the size of the tenant.
+    public void writeNdjson(ScanPage page, OutputStream out) throws IOException {
+        if (page.getItems() != null){
+            for (RawKeyValueResponse item : page.getItems()){
+                out.write(scanWriter.writeValueAsBytes(item));
+                out.write('\n');
+            }
+        } else {
+            for (String key : page.getKeys()){
+                out.write(scanWriter.writeValueAsBytes(Map.of("key", key)));
+                out.write('\n');
+            }
+        }
+        out.flush();
+    }
+
+    private List<RawKeyValueResponse> rawValues(List<KeyValueEntity> entities){
+        List<RawKeyValueResponse> items = new ArrayList<>(entities.size());
+        try{
+            for (KeyValueEntity entity : entities){
+                items.add(new RawKeyValueResponse(entity.getKey(), codec.toJson(entity.getData()), entity.getVersion(),
+                        contentHash(entity)));
+            }
+        }catch (IOException e){
             throw new RuntimeException("Failed to deserialize data");
         }
+        return items;
     }
 
-    public void deleteKeyValue(String key, String tenantId){
-        KeyValueEntity entity = repository.findByKeyAndTenantId(key, tenantId)
+    // The content hash of a live key without loading its value: from the cache, otherwise from the hash column.
+    // Empty when the key is missing or expired, or its row was written before content hashes were stored.
+    public Optional<Long> findContentHash(String key, String tenantId){
+        ValueCache.Entry cached = cache.getEntry(tenantId, key);
+        if (cached != null){
+            return Optional.of(cached.contentHash());
+        }
+        return storage.findContentHash(tenantId, key, LocalDateTime.now());
+    }
+
+    // Rows written before the hash column existed are hashed when they are read.
+    private static long contentHash(KeyValueEntity entity){
+        return entity.getContentHash() != null ? entity.getContentHash() : ContentHash.of(entity.getData());
+    }
+
+    private KeyValueEntity findLiveEntity(String key, String tenantId){
+        KeyValueEntity entity = storage.find(tenantId, key)
                 .orElseThrow(() -> new NotFoundException("Key not found"));
-        repository.delete(entity);
+
+        if (entity.getExpiresAt() != null && entity.getExpiresAt().isBefore(LocalDateTime.now())){
+            storage.delete(entity);
+            metrics.lazyExpired();
+            feed.publish(tenantId, ChangeEvent.Type.EXPIRE, key, 0);
+            throw new NotFoundException("Key has expired for tenant: " + tenantId);
+        }
+        return entity;
+    }
+
+    // Deletes take the same locks as writes, which also holds them off while a tenant is being moved between shards.
+    public void deleteKeyValue(String key, String tenantId){
+        try (StripedKeyLocks.Held ignored = locks.lockKey(tenantId, key)) {
+            if (storage.deleteAll(tenantId, List.of(key)).isEmpty()){
+                throw new NotFoundException("Key not found");
+            }
+        }
+        cache.invalidate(tenantId, key);
+        feed.publish(tenantId, ChangeEvent.Type.DELETE, key, 0);
+    }
+
+    // Deletes the given keys, or every key starting with prefix, with one statement and reports the outcome per key.
+    public BatchResponse deleteKeyValueBatch(List<String> keys, String prefix, String tenantId){
+        BatchResponse response = new BatchResponse();
+
+        if (prefix != null){
+            if (prefix.isEmpty()){
+                throw new IllegalArgumentException("Prefix must not be empty");
+            }
+            Set<String> deleted;
+            try (StripedKeyLocks.Held ignored = locks.lockKeys(tenantId, List.of())) {
+                deleted = storage.deleteByPrefix(tenantId, prefix);
+            }
+            cache.invalidateAll(tenantId, deleted);
+            feed.publishAll(tenantId, ChangeEvent.Type.DELETE, deleted, 0);
+            deleted.stream().sorted().forEach(response::addSuccess);
+            return response;
+        }
+
+        if (keys == null || keys.isEmpty()){
+            throw new IllegalArgumentException("Either a list of keys or a prefix is required");
+        }
+        Set<String> requested = keys.stream().filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+        metrics.batchSize("delete", requested.size());
+        Set<String> deleted;
+        try (StripedKeyLocks.Held ignored = locks.lockKeys(tenantId, requested)) {
+            deleted = requested.isEmpty() ? Set.of() : storage.deleteAll(tenantId, requested);
+        }
+        cache.invalidateAll(tenantId, deleted);
+        feed.publishAll(tenantId, ChangeEvent.Type.DELETE, deleted, 0);
+
+        for (String key : requested){
+            if (deleted.contains(key)){
+                response.addSuccess(key);
+            } else {
+                response.addFailure(key, "Key not found");
+                metrics.batchFailure("delete", "not_found");
+            }
+        }
+        return response;
     }
 }
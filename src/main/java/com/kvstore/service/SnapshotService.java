@@ -0,0 +1,230 @@
+package com.kvstore.service;
+
+import com.kvstore.Utilities.SnapshotResult;
+import com.kvstore.Utilities.StripedKeyLocks;
+import com.kvstore.storage.ShardContext;
+import com.kvstore.storage.ShardRouter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Snapshots of a tenant, or of the whole table of a shard, streamed through PostgreSQL's binary COPY and
+// gzip compressed. A snapshot holds every live row with its absolute expiry, in primary key order.
+// A tenant restore replaces the tenant's rows under the tenant lock: they are deleted and the snapshot copied
+// straight into the table, then the tenant's rows are counted. A row of another tenant in the snapshot either
+// collides with an existing key or leaves the count short, and the restore is rolled back.
+// A table restore replaces the whole table: it is truncated, the expiry index dropped, the snapshot copied
+// straight into the table and the index built again once, then the table analyzed.
+// Each restore is one transaction, so a broken or truncated snapshot leaves the rows as they were.
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "kvstore.snapshot.enabled", havingValue = "true")
+public class SnapshotService {
+
+    private static final String COLUMNS = "tenant_id, key, data, expires_at, created_at, version, content_hash";
+    private static final String EXPIRY_INDEX = "idx_key_value_store_expires_at";
+
+    private static final String COPY_IN_SQL = "COPY key_value_store (" + COLUMNS + ") FROM STDIN (FORMAT binary)";
+    private static final String DELETE_TENANT_SQL = "DELETE FROM key_value_store WHERE tenant_id = ?";
+    private static final String COUNT_TENANT_SQL = "SELECT count(*) FROM key_value_store WHERE tenant_id = ?";
+
+    private static final String TRUNCATE_SQL = "TRUNCATE key_value_store";
+    private static final String DROP_INDEX_SQL = "DROP INDEX IF EXISTS " + EXPIRY_INDEX;
+    private static final String CREATE_INDEX_SQL = "CREATE INDEX " + EXPIRY_INDEX + " ON key_value_store (expires_at)";
+    private static final String ANALYZE_SQL = "ANALYZE key_value_store";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardRouter router;
+    private final StripedKeyLocks locks;
+    private final ValueCache cache;
+    private final ChangeFeed feed;
+    private final int bufferBytes;
+    private final int compressionLevel;
+
+    @Autowired
+    public SnapshotService(JdbcTemplate jdbcTemplate, ShardRouter router, StripedKeyLocks locks, ValueCache cache, ChangeFeed feed,
+                           @Value("${kvstore.snapshot.buffer-bytes:65536}") int bufferBytes,
+                           @Value("${kvstore.snapshot.compression-level:1}") int compressionLevel){
+        if (bufferBytes < 1 || compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION){
+            throw new IllegalArgumentException("Snapshot buffer must be positive and compression level between 0 and 9");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.router = router;
+        this.locks = locks;
+        this.cache = cache;
+        this.feed = feed;
+        this.bufferBytes = bufferBytes;
+        this.compressionLevel = compressionLevel;
+    }
+
+    public SnapshotResult exportTenant(String tenantId, OutputStream out) throws IOException {
+        return export(router.shardFor(tenantId), tenantId, out);
+    }
+
+    // Without sharding shard may be left out.
+    public SnapshotResult exportTable(String shard, OutputStream out) throws IOException {
+        return export(shard(shard), null, out);
+    }
+
+    public SnapshotResult restoreTenant(String tenantId, InputStream in) throws IOException {
+        String shard = router.shardFor(tenantId);
+        long started = System.nanoTime();
+        long rows;
+        try (StripedKeyLocks.Held ignored = locks.lockTenant(tenantId)) {
+            rows = inTransaction(shard, (con, pg) -> {
+                delete(con, tenantId);
+                long copied = pg.getCopyAPI().copyIn(COPY_IN_SQL, new GZIPInputStream(in, bufferBytes), bufferBytes);
+                if (count(con, tenantId) != copied){
+                    throw new IllegalArgumentException("Snapshot holds keys of other tenants than " + tenantId);
+                }
+                return copied;
+            });
+            cache.invalidateTenant(tenantId);
+            feed.reset(tenantId);
+        }
+        return result(shard, tenantId, rows, started, "Restored");
+    }
+
+    // Writes on the shard wait for the restore to commit, since TRUNCATE locks the table.
+    public SnapshotResult restoreTable(String shard, InputStream in) throws IOException {
+        String target = shard(shard);
+        long started = System.nanoTime();
+        long rows = inTransaction(target, (con, pg) -> {
+            execute(con, TRUNCATE_SQL);
+            execute(con, DROP_INDEX_SQL);
+            long copied = pg.getCopyAPI().copyIn(COPY_IN_SQL, new GZIPInputStream(in, bufferBytes), bufferBytes);
+            execute(con, CREATE_INDEX_SQL);
+            return copied;
+        });
+        cache.clear();
+        feed.resetAll();
+        ShardContext.callOn(target, () -> {
+            jdbcTemplate.execute(ANALYZE_SQL);
+            return null;
+        });
+        return result(target, null, rows, started, "Restored");
+    }
+
+    private SnapshotResult export(String shard, String tenantId, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        GZIPOutputStream gzip = new LeveledGzipOutputStream(out, bufferBytes, compressionLevel);
+        long rows = inTransaction(shard, (con, pg) ->
+                pg.getCopyAPI().copyOut(exportSql(pg, tenantId), gzip));
+        gzip.finish();
+        gzip.flush();
+        return result(shard, tenantId, rows, started, "Exported");
+    }
+
+    // COPY takes no parameters, so the tenant is escaped by the driver and the time of the expiry filter is ours.
+    private static String exportSql(PGConnection pg, String tenantId) throws SQLException {
+        String live = "(expires_at IS NULL OR expires_at > '" + Timestamp.valueOf(LocalDateTime.now()) + "')";
+        String query = tenantId == null
+                ? "SELECT " + COLUMNS + " FROM key_value_store WHERE " + live + " ORDER BY tenant_id, key"
+                : "SELECT " + COLUMNS + " FROM key_value_store WHERE tenant_id = '" + pg.escapeLiteral(tenantId)
+                        + "' AND " + live + " ORDER BY key";
+        return "COPY (" + query + ") TO STDOUT (FORMAT binary)";
+    }
+
+    private String shard(String shard){
+        if (shard == null || shard.isEmpty()){
+            if (router.isSharded()){
+                throw new IllegalArgumentException("A shard must be given when sharding is enabled");
+            }
+            return router.getPrimaryShard();
+        }
+        router.requireShard(shard);
+        return shard;
+    }
+
+    // Runs action on one connection to the shard's primary and commits, or rolls back if it fails.
+    private <T> T inTransaction(String shard, CopyAction<T> action) throws IOException {
+        try{
+            return ShardContext.callOn(shard, () -> jdbcTemplate.execute((Connection con) -> {
+                boolean autoCommit = con.getAutoCommit();
+                con.setAutoCommit(false);
+                try{
+                    T result = action.apply(con, con.unwrap(PGConnection.class));
+                    con.commit();
+                    return result;
+                }catch (IOException e){
+                    con.rollback();
+                    throw new UncheckedIOException(e);
+                }catch (SQLException | RuntimeException e){
+                    con.rollback();
+                    throw e;
+                }finally{
+                    con.setAutoCommit(autoCommit);
+                }
+            }));
+        }catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException {
+        try (Statement statement = con.createStatement()){
+            statement.execute(sql);
+        }
+    }
+
+    private static void delete(Connection con, String tenantId) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(DELETE_TENANT_SQL)){
+            statement.setString(1, tenantId);
+            statement.executeUpdate();
+        }
+    }
+
+    private static long count(Connection con, String tenantId) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(COUNT_TENANT_SQL)){
+            statement.setString(1, tenantId);
+            try (ResultSet rs = statement.executeQuery()){
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static SnapshotResult result(String shard, String tenantId, long rows, long started, String action){
+        SnapshotResult result = new SnapshotResult();
+        result.setShard(shard);
+        result.setTenantId(tenantId);
+        result.setRows(rows);
+        result.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("{} snapshot of {} on shard {}: {} rows in {} ms", action, tenantId == null ? "the table" : "tenant " + tenantId,
+                shard, rows, result.getDurationMillis());
+        return result;
+    }
+
+    // Gzip favours ratio by default; a snapshot is mostly limited by how fast it is compressed.
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        private LeveledGzipOutputStream(OutputStream out, int size, int level) throws IOException {
+            super(out, size);
+            def.setLevel(level);
+        }
+    }
+
+    private interface CopyAction<T> {
+        T apply(Connection con, PGConnection pg) throws SQLException, IOException;
+    }
+}
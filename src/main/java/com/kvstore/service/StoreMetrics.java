@@ -0,0 +1,121 @@
+package com.kvstore.service;
+
+import com.kvstore.exception.ConcurrencyLimitException;
+import com.kvstore.exception.DuplicateKeyException;
+import com.kvstore.exception.NotFoundException;
+import com.kvstore.exception.RateLimitException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Meters for the store's hot paths. Operation timers carry a tenant tag; to keep the number of time series
+// bounded only the first maxTenants tenants seen get their own tag value, later ones are reported as "other".
+@Component
+public class StoreMetrics {
+
+    private static final String OTHER_TENANT = "other";
+
+    private final MeterRegistry registry;
+    private final boolean tenantTag;
+    private final int maxTenants;
+    private final Set<String> taggedTenants = ConcurrentHashMap.newKeySet();
+
+    private final DistributionSummary valueSize;
+    private final Counter lazyExpired;
+
+    @Autowired
+    public StoreMetrics(MeterRegistry registry,
+                        @Value("${kvstore.metrics.tenant-tag:true}") boolean tenantTag,
+                        @Value("${kvstore.metrics.max-tenants:100}") int maxTenants){
+        this.registry = registry;
+        this.tenantTag = tenantTag;
+        this.maxTenants = maxTenants;
+        this.valueSize = DistributionSummary.builder("kvstore.value.size")
+                .description("Size of stored values after encoding")
+                .baseUnit("bytes")
+                .serviceLevelObjectives(128, 512, 1024, 4096, 8192, 16384)
+                .register(registry);
+        this.lazyExpired = Counter.builder("kvstore.ttl.lazy.deleted")
+                .description("Expired keys deleted by a read before the sweeper reached them")
+                .register(registry);
+    }
+
+    // Runs the operation and records its latency, tagged with the outcome the caller saw.
+    public <T> T time(String operation, String tenantId, Supplier<T> action){
+        long started = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = action.get();
+            outcome = "success";
+            return result;
+        } catch (NotFoundException e){
+            outcome = "not_found";
+            throw e;
+        } catch (DuplicateKeyException e){
+            outcome = "duplicate";
+            throw e;
+        } catch (IllegalArgumentException e){
+            outcome = "invalid";
+            throw e;
+        } catch (ConcurrencyLimitException | RateLimitException e){
+            outcome = "rejected";
+            throw e;
+        } finally {
+            Timer.builder("kvstore.operation")
+                    .description("Latency of store operations")
+                    .tags("operation", operation, "tenant", tenantTag(tenantId), "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void batchSize(String operation, int size){
+        DistributionSummary.builder("kvstore.batch.size")
+                .description("Items per batch request")
+                .tag("operation", operation)
+                .serviceLevelObjectives(1, 10, 100, 1000, 10000)
+                .register(registry)
+                .record(size);
+    }
+
+    public void batchFailure(String operation, String reason){
+        Counter.builder("kvstore.batch.failures")
+                .description("Batch items that failed, by reason")
+                .tags("operation", operation, "reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    public void valueSize(int bytes){
+        valueSize.record(bytes);
+    }
+
+    public void lazyExpired(){
+        lazyExpired.increment();
+    }
+
+    private String tenantTag(String tenantId){
+        if (!tenantTag || tenantId == null){
+            return OTHER_TENANT;
+        }
+        if (taggedTenants.contains(tenantId)){
+            return tenantId;
+        }
+        if (taggedTenants.size() < maxTenants && taggedTenants.add(tenantId)){
+            return tenantId;
+        }
+        return taggedTenants.contains(tenantId) ? tenantId : OTHER_TENANT;
+    }
+}
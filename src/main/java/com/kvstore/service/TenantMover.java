@@ -0,0 +1,325 @@
+package com.kvstore.service;
+
+import com.kvstore.Utilities.StripedKeyLocks;
+import com.kvstore.Utilities.TenantMoveResult;
+import com.kvstore.storage.ShardDataSources;
+import com.kvstore.storage.ShardDirectory;
+import com.kvstore.storage.ShardRouter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Moves a tenant's rows to another shard while it stays online. A first pass copies everything without
+// blocking writers; a second pass, under the exclusive tenant lock, copies only what changed since (rows are
+// compared by md5 of the value and expiry), then the tenant is pinned to the target and the lock released.
+// The lock only holds off writes on this instance: other instances keep writing to the source until they re-read
+// the placements. So the digests of the source rows are kept on the source just before the second pass, and once
+// the grace period is over, on a thread of its own, rows changed on the source since are copied over as well,
+// unless the target row changed after the snapshot too (the target's write wins). Then the source rows are deleted.
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "kvstore.sharding.enabled", havingValue = "true")
+public class TenantMover {
+
+    private static final String PAGE_SQL = "SELECT key, md5(data), expires_at, version FROM key_value_store "
+            + "WHERE tenant_id = ? AND key > ? ORDER BY key LIMIT ?";
+    private static final String DIGEST_SQL = "SELECT key, md5(data), expires_at, version FROM key_value_store "
+            + "WHERE tenant_id = ? AND key = ANY(?)";
+    private static final String ROWS_SQL = "SELECT key, data, expires_at, created_at, version, content_hash FROM key_value_store "
+            + "WHERE tenant_id = ? AND key = ANY(?)";
+    private static final String UPSERT_SQL = "INSERT INTO key_value_store (tenant_id, key, data, expires_at, created_at, version, content_hash) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT (tenant_id, key) DO UPDATE SET data = EXCLUDED.data, "
+            + "expires_at = EXCLUDED.expires_at, created_at = EXCLUDED.created_at, version = EXCLUDED.version, "
+            + "content_hash = EXCLUDED.content_hash";
+    // Partitioned by expiry the target has no unique index to upsert against: its rows of the keys are replaced.
+    private static final String INSERT_SQL = "INSERT INTO key_value_store (tenant_id, key, data, expires_at, created_at, version, content_hash) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_KEYS_SQL = "DELETE FROM key_value_store WHERE tenant_id = ? AND key = ANY(?)";
+    private static final String DELETE_TENANT_SQL = "DELETE FROM key_value_store WHERE tenant_id = ?";
+    private static final String CREATE_SNAPSHOT_SQL = "CREATE TABLE IF NOT EXISTS kvstore_tenant_move_snapshot "
+            + "(tenant_id varchar(255) NOT NULL, key varchar(32) COLLATE \"C\" NOT NULL, digest varchar(32), "
+            + "expires_at timestamp(6), version bigint NOT NULL, PRIMARY KEY (tenant_id, key))";
+    private static final String TAKE_SNAPSHOT_SQL = "INSERT INTO kvstore_tenant_move_snapshot (tenant_id, key, digest, expires_at, version) "
+            + "SELECT tenant_id, key, md5(data), expires_at, version FROM key_value_store WHERE tenant_id = ?";
+    private static final String DELETE_SNAPSHOT_SQL = "DELETE FROM kvstore_tenant_move_snapshot WHERE tenant_id = ?";
+    // Keys whose source row differs from the snapshot, with their snapshot row (all null when the key is new).
+    private static final String CHANGED_SINCE_SNAPSHOT_SQL = "SELECT coalesce(k.key, s.key), s.digest, s.expires_at, s.version FROM "
+            + "(SELECT key, md5(data) AS digest, expires_at, version FROM key_value_store WHERE tenant_id = ?) k FULL JOIN "
+            + "(SELECT key, digest, expires_at, version FROM kvstore_tenant_move_snapshot WHERE tenant_id = ?) s ON k.key = s.key "
+            + "WHERE (k.digest, k.expires_at, k.version) IS DISTINCT FROM (s.digest, s.expires_at, s.version)";
+
+    private final ShardRouter router;
+    private final ShardDirectory directory;
+    private final ShardDataSources shards;
+    private final StripedKeyLocks locks;
+    private final int batchSize;
+    private final long graceMillis;
+    private final boolean expiryPartitioned;
+    private final Set<String> moving = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService finisher;
+
+    @Autowired
+    public TenantMover(ShardRouter router, ShardDirectory directory, ShardDataSources shards, StripedKeyLocks locks,
+                       @Value("${kvstore.sharding.move.batch-size:1000}") int batchSize,
+                       @Value("${kvstore.sharding.move.grace-ms:15000}") long graceMillis,
+                       @Value("${kvstore.ttl.partitioning.enabled:false}") boolean expiryPartitioned){
+        if (batchSize < 1){
+            throw new IllegalArgumentException("kvstore.sharding.move.batch-size must be positive");
+        }
+        this.router = router;
+        this.directory = directory;
+        this.shards = shards;
+        this.locks = locks;
+        this.batchSize = batchSize;
+        this.graceMillis = graceMillis;
+        this.expiryPartitioned = expiryPartitioned;
+        this.finisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kvstore-tenant-move");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void init(){
+        for (String shard : router.getShards()){
+            shards.jdbc(shard).execute(CREATE_SNAPSHOT_SQL);
+        }
+    }
+
+    // Moving a tenant to the shard it is already on just pins it there, e.g. before the shard list changes.
+    // Answers once the tenant is pinned; the tenant counts as being moved until its source rows are deleted.
+    public TenantMoveResult move(String tenantId, String target){
+        router.requireShard(target);
+        if (!moving.add(tenantId)){
+            throw new IllegalStateException("Tenant " + tenantId + " is already being moved");
+        }
+        boolean finishing = false;
+        try{
+            TenantMoveResult result = doMove(tenantId, target);
+            if (!result.getSource().equals(target)){
+                finisher.schedule(() -> finish(tenantId, result.getSource(), target), graceMillis, TimeUnit.MILLISECONDS);
+                finishing = true;
+            }
+            return result;
+        }finally{
+            if (!finishing){
+                moving.remove(tenantId);
+            }
+        }
+    }
+
+    // Moves still in their grace period are dropped, leaving their rows on the source shard.
+    @PreDestroy
+    public void shutdown(){
+        finisher.shutdownNow();
+        if (!moving.isEmpty()){
+            log.warn("Stopped before the source rows of tenants {} were deleted", moving);
+        }
+    }
+
+    private TenantMoveResult doMove(String tenantId, String target){
+        long started = System.nanoTime();
+        directory.refresh();
+        String source = router.shardFor(tenantId);
+        TenantMoveResult result = new TenantMoveResult();
+        result.setTenantId(tenantId);
+        result.setSource(source);
+        result.setTarget(target);
+        if (source.equals(target)){
+            directory.save(tenantId, target);
+            return result;
+        }
+
+        log.info("Moving tenant {} from shard {} to {}", tenantId, source, target);
+        sync(tenantId, shards.jdbc(source), shards.jdbc(target), result);
+
+        // Taken before the second pass, which copies at least this state of every row to the target.
+        shards.jdbc(source).update(DELETE_SNAPSHOT_SQL, tenantId);
+        shards.jdbc(source).update(TAKE_SNAPSHOT_SQL, tenantId);
+
+        long paused = System.nanoTime();
+        try (StripedKeyLocks.Held ignored = locks.lockTenant(tenantId)) {
+            sync(tenantId, shards.jdbc(source), shards.jdbc(target), result);
+            directory.save(tenantId, target);
+        }
+        result.setPausedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - paused));
+        result.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("Moved tenant {} to shard {}: {} keys, writes paused for {} ms, source rows deleted in {} ms", tenantId,
+                target, result.getKeys(), result.getPausedMillis(), graceMillis);
+        return result;
+    }
+
+    // Runs after the grace period, when every instance writes the tenant to the target.
+    private void finish(String tenantId, String source, String target){
+        try{
+            catchUp(tenantId, shards.jdbc(source), shards.jdbc(target));
+            shards.jdbc(source).update(DELETE_TENANT_SQL, tenantId);
+            shards.jdbc(source).update(DELETE_SNAPSHOT_SQL, tenantId);
+        }catch (RuntimeException e){
+            log.error("Could not delete the rows of tenant {} from shard {} after moving it to {}", tenantId, source, target, e);
+        }finally{
+            moving.remove(tenantId);
+        }
+    }
+
+    // Copies the writes other instances made to the source after the snapshot. A key whose target row is no longer
+    // the snapshot's was written on the target since, and keeps that write.
+    private void catchUp(String tenantId, JdbcTemplate source, JdbcTemplate target){
+        Map<String, Row> snapshot = new HashMap<>();
+        source.query(CHANGED_SINCE_SNAPSHOT_SQL, rs -> {
+            String key = rs.getString(1);
+            snapshot.put(key, rs.getString(2) == null ? null : new Row(key, rs.getString(2), rs.getTimestamp(3), rs.getLong(4)));
+        }, tenantId, tenantId);
+        if (snapshot.isEmpty()){
+            return;
+        }
+
+        List<String> changed = new ArrayList<>(snapshot.keySet());
+        long copied = 0;
+        long kept = 0;
+        for (int from = 0; from < changed.size(); from += batchSize){
+            List<String> keys = changed.subList(from, Math.min(from + batchSize, changed.size()));
+            Map<String, Row> onSource = digests(source, tenantId, keys);
+            Map<String, Row> onTarget = digests(target, tenantId, keys);
+            List<String> late = new ArrayList<>();
+            for (String key : keys){
+                if (Objects.equals(onTarget.get(key), onSource.get(key))){
+                    continue;
+                }
+                if (Objects.equals(onTarget.get(key), snapshot.get(key))){
+                    late.add(key);
+                } else {
+                    kept++;
+                }
+            }
+            if (!late.isEmpty()){
+                // Deleting first also removes the keys deleted on the source.
+                withKeys(target, DELETE_KEYS_SQL, tenantId, late, PreparedStatement::executeUpdate);
+                copy(source, target, tenantId, late);
+                copied += late.size();
+            }
+        }
+        if (copied > 0 || kept > 0){
+            log.warn("Tenant {} was written on its old shard after the move: {} keys copied over, {} keys kept as written "
+                    + "on the new shard", tenantId, copied, kept);
+        }
+    }
+
+    // Makes the tenant's rows on target equal to those on source, copying only rows that differ.
+    private void sync(String tenantId, JdbcTemplate source, JdbcTemplate target, TenantMoveResult result){
+        long keys = 0;
+        String after = "";
+        List<Row> page;
+        while (!(page = page(source, tenantId, after)).isEmpty()){
+            keys += page.size();
+            List<String> keysOfPage = page.stream().map(Row::key).toList();
+            Map<String, Row> existing = digests(target, tenantId, keysOfPage);
+            List<String> changed = page.stream().filter(row -> !row.equals(existing.get(row.key()))).map(Row::key).toList();
+            if (!changed.isEmpty()){
+                copy(source, target, tenantId, changed);
+                result.setCopied(result.getCopied() + changed.size());
+            }
+            after = keysOfPage.get(keysOfPage.size() - 1);
+        }
+        result.setKeys(keys);
+
+        // Keys deleted on source since an earlier pass.
+        after = "";
+        while (!(page = page(target, tenantId, after)).isEmpty()){
+            List<String> keysOfPage = page.stream().map(Row::key).toList();
+            Map<String, Row> present = digests(source, tenantId, keysOfPage);
+            List<String> removed = keysOfPage.stream().filter(key -> !present.containsKey(key)).toList();
+            if (!removed.isEmpty()){
+                withKeys(target, DELETE_KEYS_SQL, tenantId, removed, PreparedStatement::executeUpdate);
+                result.setRemoved(result.getRemoved() + removed.size());
+            }
+            after = keysOfPage.get(keysOfPage.size() - 1);
+        }
+    }
+
+    private List<Row> page(JdbcTemplate jdbc, String tenantId, String after){
+        return jdbc.query(PAGE_SQL, (rs, i) -> row(rs), tenantId, after, batchSize);
+    }
+
+    private Map<String, Row> digests(JdbcTemplate jdbc, String tenantId, List<String> keys){
+        return withKeys(jdbc, DIGEST_SQL, tenantId, keys, statement -> {
+            Map<String, Row> rows = new HashMap<>();
+            try (ResultSet rs = statement.executeQuery()){
+                while (rs.next()){
+                    Row row = row(rs);
+                    rows.put(row.key(), row);
+                }
+            }
+            return rows;
+        });
+    }
+
+    private void copy(JdbcTemplate source, JdbcTemplate target, String tenantId, List<String> keys){
+        List<Object[]> rows = withKeys(source, ROWS_SQL, tenantId, keys, statement -> {
+            List<Object[]> values = new ArrayList<>(keys.size());
+            try (ResultSet rs = statement.executeQuery()){
+                while (rs.next()){
+                    values.add(new Object[]{tenantId, rs.getString(1), rs.getBytes(2), rs.getTimestamp(3), rs.getTimestamp(4), rs.getLong(5),
+                            rs.getObject(6, Long.class)});
+                }
+            }
+            return values;
+        });
+        if (expiryPartitioned){
+            withKeys(target, DELETE_KEYS_SQL, tenantId, keys, PreparedStatement::executeUpdate);
+            target.batchUpdate(INSERT_SQL, rows);
+        } else {
+            target.batchUpdate(UPSERT_SQL, rows);
+        }
+    }
+
+    private static <T> T withKeys(JdbcTemplate jdbc, String sql, String tenantId, List<String> keys, KeyStatement<T> action){
+        return jdbc.execute((Connection con) -> {
+            Array array = con.createArrayOf("varchar", keys.toArray());
+            try (PreparedStatement statement = con.prepareStatement(sql)){
+                statement.setString(1, tenantId);
+                statement.setArray(2, array);
+                return action.apply(statement);
+            }finally{
+                array.free();
+            }
+        });
+    }
+
+    private static Row row(ResultSet rs) throws SQLException {
+        return new Row(rs.getString(1), rs.getString(2), rs.getTimestamp(3), rs.getLong(4));
+    }
+
+    private interface KeyStatement<T> {
+        T apply(PreparedStatement statement) throws SQLException;
+    }
+
+    private record Row(String key, String digest, Timestamp expiresAt, long version) {
+    }
+}
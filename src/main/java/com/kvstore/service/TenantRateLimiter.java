@@ -0,0 +1,206 @@
+package com.kvstore.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kvstore.exception.RateLimitException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Token-bucket admission per tenant, with separate buckets for reads and writes. A request costs one token per
+// item, so a batch of 500 keys costs 500. Buckets are kept as GCRA (generic cell rate algorithm) state: one
+// "theoretical arrival time" per bucket, advanced by weight * (1 / rate) with a compare-and-set, so admission is
+// lock-free. A request that would push it more than burst / rate ahead of now is rejected straight away with
+// the time after which it would fit. Limits can be replaced at runtime through the ratelimits actuator endpoint.
+@Component
+public class TenantRateLimiter {
+
+    public enum Kind { READ, WRITE }
+
+    // Sustained rate in items per second and bucket size in items. A rate of 0 or less means unlimited.
+    public record Limit(double ratePerSecond, long burst) {
+        public static final Limit UNLIMITED = new Limit(0, 0);
+
+        // Without a burst the bucket holds one second's worth of items.
+        public static Limit of(double ratePerSecond, long burst){
+            if (ratePerSecond <= 0){
+                return UNLIMITED;
+            }
+            return new Limit(ratePerSecond, burst > 0 ? burst : Math.max(1, (long) Math.ceil(ratePerSecond)));
+        }
+
+        @JsonIgnore
+        public boolean isUnlimited(){
+            return ratePerSecond <= 0;
+        }
+
+        private long intervalNanos(){
+            return Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        }
+    }
+
+    public record TenantLimits(Limit read, Limit write) {
+        public Limit of(Kind kind){
+            return kind == Kind.READ ? read : write;
+        }
+    }
+
+    private final boolean enabled;
+    private final LongSupplier clock;
+    private final Counter readRejected;
+    private final Counter writeRejected;
+
+    private volatile TenantLimits defaults;
+    private final Map<String, TenantLimits> overrides = new ConcurrentHashMap<>();
+
+    // An idle bucket refills completely, so dropping it after a while loses nothing.
+    private final Cache<String, AtomicLong> buckets = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .build();
+
+    @Autowired
+    public TenantRateLimiter(MeterRegistry registry,
+                             @Value("${kvstore.ratelimit.enabled:false}") boolean enabled,
+                             @Value("${kvstore.ratelimit.read-rate:0}") double readRate,
+                             @Value("${kvstore.ratelimit.read-burst:0}") long readBurst,
+                             @Value("${kvstore.ratelimit.write-rate:0}") double writeRate,
+                             @Value("${kvstore.ratelimit.write-burst:0}") long writeBurst){
+        this(registry, enabled, new TenantLimits(Limit.of(readRate, readBurst), Limit.of(writeRate, writeBurst)), System::nanoTime);
+    }
+
+    public TenantRateLimiter(MeterRegistry registry, boolean enabled, TenantLimits defaults, LongSupplier clock){
+        this.enabled = enabled;
+        this.defaults = defaults;
+        this.clock = clock;
+        this.readRejected = Counter.builder("kvstore.ratelimit.rejected")
+                .description("Requests rejected by tenant rate limits")
+                .tag("kind", "read")
+                .register(registry);
+        this.writeRejected = Counter.builder("kvstore.ratelimit.rejected")
+                .description("Requests rejected by tenant rate limits")
+                .tag("kind", "write")
+                .register(registry);
+    }
+
+    public static TenantRateLimiter disabled(){
+        return new TenantRateLimiter(new SimpleMeterRegistry(), false,
+                new TenantLimits(Limit.UNLIMITED, Limit.UNLIMITED), System::nanoTime);
+    }
+
+    // Takes weight tokens from the tenant's bucket or throws RateLimitException without waiting.
+    public void admit(String tenantId, Kind kind, int weight){
+        Limit limit = enabled && weight > 0 ? limits(tenantId).of(kind) : Limit.UNLIMITED;
+        if (limit.isUnlimited()){
+            return;
+        }
+        if (weight > limit.burst()){
+            throw new IllegalArgumentException("Request of " + weight + " items exceeds the " + name(kind)
+                    + " burst of " + limit.burst() + " for tenant: " + tenantId);
+        }
+
+        long interval = limit.intervalNanos();
+        long tolerance = interval * limit.burst();
+        AtomicLong bucket = bucket(tenantId, kind);
+        while (true){
+            long now = clock.getAsLong();
+            long arrival = bucket.get();
+            long next = Math.max(arrival, now) + interval * weight;
+            long excess = next - now - tolerance;
+            if (excess > 0){
+                (kind == Kind.READ ? readRejected : writeRejected).increment();
+                throw new RateLimitException("Too many " + name(kind) + "s for tenant: " + tenantId,
+                        Math.max(1, (excess + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+            }
+            if (bucket.compareAndSet(arrival, next)){
+                return;
+            }
+        }
+    }
+
+    // Takes weight tokens and waits until they are covered instead of rejecting, for streaming imports where
+    // slowing down the reader pushes back on the client. Any weight is accepted.
+    public void reserve(String tenantId, Kind kind, int weight) throws InterruptedException {
+        Limit limit = enabled && weight > 0 ? limits(tenantId).of(kind) : Limit.UNLIMITED;
+        if (limit.isUnlimited()){
+            return;
+        }
+
+        long interval = limit.intervalNanos();
+        long tolerance = interval * limit.burst();
+        AtomicLong bucket = bucket(tenantId, kind);
+        long now;
+        long next;
+        do {
+            now = clock.getAsLong();
+            long arrival = bucket.get();
+            next = Math.max(arrival, now) + interval * weight;
+            if (bucket.compareAndSet(arrival, next)){
+                break;
+            }
+        } while (true);
+        long wait = next - now - tolerance;
+        if (wait > 0){
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    public TenantLimits limits(String tenantId){
+        return overrides.getOrDefault(tenantId, defaults);
+    }
+
+    public TenantLimits getDefaults(){
+        return defaults;
+    }
+
+    public Map<String, TenantLimits> getOverrides(){
+        return Map.copyOf(overrides);
+    }
+
+    // Changed limits start from a full bucket; otherwise debt run up at the old rate would be paid off at the new one.
+    public void setDefaults(TenantLimits limits){
+        this.defaults = limits;
+        buckets.invalidateAll();
+    }
+
+    public void setOverride(String tenantId, TenantLimits limits){
+        overrides.put(tenantId, limits);
+        resetBuckets(tenantId);
+    }
+
+    public void removeOverride(String tenantId){
+        overrides.remove(tenantId);
+        resetBuckets(tenantId);
+    }
+
+    private void resetBuckets(String tenantId){
+        for (Kind kind : Kind.values()){
+            buckets.invalidate(bucketKey(tenantId, kind));
+        }
+    }
+
+    private AtomicLong bucket(String tenantId, Kind kind){
+        return buckets.get(bucketKey(tenantId, kind), ignored -> new AtomicLong(clock.getAsLong()));
+    }
+
+    private static String bucketKey(String tenantId, Kind kind){
+        return kind.ordinal() + ":" + tenantId;
+    }
+
+    private static String name(Kind kind){
+        return kind.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,193 @@
+package com.kvstore.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Read-through cache of values keyed by (tenantId, key), either decoded or as the raw JSON of passthrough
+// reads. An entry records which, and a lookup only hits an entry in the representation it asks for.
+// Bounded by the serialized size of the cached values with Caffeine's W-TinyLFU eviction; an entry never
+// outlives the row's expiresAt. With a tenant share set, a tenant is not admitted past its share of the
+// capacity, so one hot tenant cannot evict everybody else. Off by default: invalidation is local to the instance.
+@Component
+public class ValueCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int GENERATION_STRIPES = 4096;
+
+    private final boolean enabled;
+    private final long maxTtlNanos;
+    private final long tenantMaxBytes;
+    private final Cache<CacheKey, CachedValue> cache;
+    private final ConcurrentHashMap<String, AtomicLong> tenantBytes = new ConcurrentHashMap<>();
+
+    // Bumped on every invalidation so a load that raced with a write does not cache the value it read.
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @Autowired
+    public ValueCache(@Value("${kvstore.cache.enabled:false}") boolean enabled,
+                      @Value("${kvstore.cache.max-bytes:67108864}") long maxBytes,
+                      @Value("${kvstore.cache.max-ttl-seconds:300}") long maxTtlSeconds,
+                      @Value("${kvstore.cache.tenant-share:0}") double tenantShare){
+        this.enabled = enabled;
+        this.maxTtlNanos = TimeUnit.SECONDS.toNanos(maxTtlSeconds);
+        this.tenantMaxBytes = tenantShare > 0 ? (long) (maxBytes * tenantShare) : 0;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((CacheKey key, CachedValue value) -> value.weight())
+                .expireAfter(new Expiry<CacheKey, CachedValue>() {
+                    @Override
+                    public long expireAfterCreate(CacheKey key, CachedValue value, long currentTime){
+                        return value.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(CacheKey key, CachedValue value, long currentTime, long currentDuration){
+                        return value.ttlNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(CacheKey key, CachedValue value, long currentTime, long currentDuration){
+                        return currentDuration;
+                    }
+                })
+                .executor(Runnable::run)
+                .removalListener((CacheKey key, CachedValue value, RemovalCause cause) -> {
+                    if (key != null && value != null){
+                        tenantUsage(key.tenantId()).addAndGet(-value.weight());
+                    }
+                })
+                .build();
+    }
+
+    public static ValueCache disabled(){
+        return new ValueCache(false, 0, 0, 0);
+    }
+
+    public Object get(String tenantId, String key){
+        Entry entry = getEntry(tenantId, key);
+        return entry == null ? null : entry.value();
+    }
+
+    // The cached value together with the version and content hash of the row it was read from.
+    public Entry getEntry(String tenantId, String key){
+        if (!enabled){
+            return null;
+        }
+        CachedValue cached = cache.getIfPresent(new CacheKey(tenantId, key));
+        return cached == null ? null : cached.entry();
+    }
+
+    // Only an entry holding the value decoded, or as raw JSON when raw is set.
+    public Entry getEntry(String tenantId, String key, boolean raw){
+        Entry entry = getEntry(tenantId, key);
+        return entry == null || entry.raw() != raw ? null : entry;
+    }
+
+    // Read before loading from the repository and passed back to put.
+    public long generation(String tenantId, String key){
+        return generations.get(stripe(tenantId, key));
+    }
+
+    public void put(String tenantId, String key, long generation, Object value, boolean raw, long version, long contentHash,
+                    int sizeBytes, LocalDateTime expiresAt){
+        if (!enabled || value == null){
+            return;
+        }
+
+        long ttlNanos = expiresAt == null ? maxTtlNanos
+                : Math.min(maxTtlNanos, Duration.between(LocalDateTime.now(), expiresAt).toNanos());
+        if (ttlNanos <= 0){
+            return;
+        }
+
+        int weight = sizeBytes + 2 * (tenantId.length() + key.length()) + ENTRY_OVERHEAD_BYTES;
+        AtomicLong usage = tenantUsage(tenantId);
+        if (tenantMaxBytes > 0 && usage.get() + weight > tenantMaxBytes){
+            return;
+        }
+
+        int stripe = stripe(tenantId, key);
+        cache.asMap().compute(new CacheKey(tenantId, key), (k, current) -> {
+            if (generations.get(stripe) != generation){
+                return current;
+            }
+            usage.addAndGet(weight);
+            return new CachedValue(new Entry(value, raw, version, contentHash), weight, ttlNanos);
+        });
+    }
+
+    public void invalidate(String tenantId, String key){
+        if (!enabled){
+            return;
+        }
+        generations.incrementAndGet(stripe(tenantId, key));
+        cache.invalidate(new CacheKey(tenantId, key));
+    }
+
+    public void invalidateAll(String tenantId, Collection<String> keys){
+        for (String key : keys){
+            invalidate(tenantId, key);
+        }
+    }
+
+    // Drops every cached value of the tenant, e.g. after its rows were replaced in bulk. All generations are
+    // bumped, so loads of other tenants running at the same time are not cached either.
+    public void invalidateTenant(String tenantId){
+        if (!enabled){
+            return;
+        }
+        bumpGenerations();
+        cache.asMap().keySet().removeIf(key -> key.tenantId().equals(tenantId));
+    }
+
+    public void clear(){
+        if (!enabled){
+            return;
+        }
+        bumpGenerations();
+        cache.invalidateAll();
+    }
+
+    public long getTenantBytes(String tenantId){
+        AtomicLong usage = tenantBytes.get(tenantId);
+        return usage == null ? 0 : usage.get();
+    }
+
+    private void bumpGenerations(){
+        for (int i = 0; i < GENERATION_STRIPES; i++){
+            generations.incrementAndGet(i);
+        }
+    }
+
+    private AtomicLong tenantUsage(String tenantId){
+        return tenantBytes.computeIfAbsent(tenantId, t -> new AtomicLong());
+    }
+
+    private static int stripe(String tenantId, String key){
+        int h = 31 * tenantId.hashCode() + key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private record CacheKey(String tenantId, String key) {
+    }
+
+    public record Entry(Object value, boolean raw, long version, long contentHash) {
+    }
+
+    private record CachedValue(Entry entry, int weight, long ttlNanos) {
+    }
+}
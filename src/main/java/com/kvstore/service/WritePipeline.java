@@ -0,0 +1,191 @@
+package com.kvstore.service;
+
+import com.kvstore.dto.KeyValueRequest;
+import com.kvstore.storage.ShardRouter;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+// Entry point for single-key creates. With group commit enabled, concurrent creates are queued and a flusher
+// thread writes up to maxBatch of them (or whatever arrived within maxDelay of the oldest) with one batched
+// insert and one commit; each caller blocks until its own outcome is known. Disabled, every create is its
+// own transaction as before.
+@Service
+public class WritePipeline {
+
+    private final KeyValueStoreService service;
+    private final ShardRouter router;
+    private final boolean enabled;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    private final List<Thread> flushers = new ArrayList<>();
+
+    private final DistributionSummary batchSize;
+    private final Timer queueDelay;
+    private final Timer flushDuration;
+
+    private volatile boolean running = true;
+
+    public WritePipeline(KeyValueStoreService service, MeterRegistry registry, boolean enabled, int maxBatch,
+                         long maxDelayMillis, int queueCapacity, int flusherCount){
+        this(service, registry, ShardRouter.single(), enabled, maxBatch, maxDelayMillis, queueCapacity, flusherCount);
+    }
+
+    @Autowired
+    public WritePipeline(KeyValueStoreService service, MeterRegistry registry, ShardRouter router,
+                         @Value("${kvstore.write.group-commit.enabled:false}") boolean enabled,
+                         @Value("${kvstore.write.group-commit.max-batch:64}") int maxBatch,
+                         @Value("${kvstore.write.group-commit.max-delay-ms:2}") long maxDelayMillis,
+                         @Value("${kvstore.write.group-commit.queue-capacity:10000}") int queueCapacity,
+                         @Value("${kvstore.write.group-commit.flushers:2}") int flusherCount){
+        this.service = service;
+        this.router = router;
+        this.enabled = enabled;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.batchSize = DistributionSummary.builder("kvstore.write.group.size")
+                .description("Creates written per group commit")
+                .register(registry);
+        this.queueDelay = Timer.builder("kvstore.write.group.queue.delay")
+                .description("Time a create waited in the group-commit queue before its flush started")
+                .register(registry);
+        this.flushDuration = Timer.builder("kvstore.write.group.flush.duration")
+                .description("Duration of one group commit")
+                .register(registry);
+
+        if (enabled){
+            for (int i = 0; i < flusherCount; i++){
+                Thread flusher = new Thread(this::run, "kvstore-group-commit-" + i);
+                flusher.setDaemon(true);
+                flusher.start();
+                flushers.add(flusher);
+            }
+        }
+    }
+
+    public void create(KeyValueRequest request, String tenantId){
+        if (!enabled){
+            service.createKeyValue(request, tenantId);
+            return;
+        }
+
+        PendingWrite write = new PendingWrite(tenantId, request, System.nanoTime(), new CompletableFuture<>());
+        try{
+            queue.put(write);
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing write");
+        }
+        if (!running){
+            write.result().completeExceptionally(new IllegalStateException("Write pipeline is shut down"));
+        }
+
+        try{
+            write.result().join();
+        }catch (CompletionException e){
+            if (e.getCause() instanceof RuntimeException cause){
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void run(){
+        while (running){
+            List<PendingWrite> batch = new ArrayList<>(maxBatch);
+            try{
+                PendingWrite first = queue.take();
+                batch.add(first);
+                long deadline = first.enqueuedAt() + maxDelayNanos;
+                while (batch.size() < maxBatch){
+                    long wait = deadline - System.nanoTime();
+                    PendingWrite next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+            }catch (InterruptedException e){
+                batch.forEach(write -> write.result().completeExceptionally(new IllegalStateException("Write pipeline is shut down")));
+                return;
+            }
+            flush(batch);
+        }
+    }
+
+    // A transaction cannot span shards, so a batch is committed once per shard it touches.
+    private void flush(List<PendingWrite> batch){
+        if (!router.isSharded()){
+            flushShard(batch);
+            return;
+        }
+        Map<String, List<PendingWrite>> writesByShard = new LinkedHashMap<>();
+        for (PendingWrite write : batch){
+            writesByShard.computeIfAbsent(router.shardFor(write.tenantId()), shard -> new ArrayList<>()).add(write);
+        }
+        writesByShard.values().forEach(this::flushShard);
+    }
+
+    private void flushShard(List<PendingWrite> batch){
+        long started = System.nanoTime();
+        Map<String, List<KeyValueRequest>> requestsByTenant = new LinkedHashMap<>();
+        Map<String, List<PendingWrite>> writesByTenant = new LinkedHashMap<>();
+        for (PendingWrite write : batch){
+            queueDelay.record(started - write.enqueuedAt(), TimeUnit.NANOSECONDS);
+            requestsByTenant.computeIfAbsent(write.tenantId(), t -> new ArrayList<>()).add(write.request());
+            writesByTenant.computeIfAbsent(write.tenantId(), t -> new ArrayList<>()).add(write);
+        }
+        batchSize.record(batch.size());
+
+        try{
+            Map<String, RuntimeException[]> outcomes = service.createKeyValueGroups(requestsByTenant);
+            writesByTenant.forEach((tenantId, writes) -> {
+                RuntimeException[] failures = outcomes.get(tenantId);
+                for (int i = 0; i < writes.size(); i++){
+                    if (failures[i] == null){
+                        writes.get(i).result().complete(null);
+                    } else {
+                        writes.get(i).result().completeExceptionally(failures[i]);
+                    }
+                }
+            });
+        }catch (RuntimeException e){
+            batch.forEach(write -> write.result().completeExceptionally(e));
+        }finally {
+            flushDuration.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        running = false;
+        flushers.forEach(Thread::interrupt);
+        PendingWrite write;
+        while ((write = queue.poll()) != null){
+            write.result().completeExceptionally(new IllegalStateException("Write pipeline is shut down"));
+        }
+    }
+
+    private record PendingWrite(String tenantId, KeyValueRequest request, long enqueuedAt, CompletableFuture<Void> result) {
+    }
+}
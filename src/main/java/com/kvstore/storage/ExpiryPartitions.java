@@ -0,0 +1,199 @@
+package com.kvstore.storage;
+
+import com.kvstore.Utilities.ExpirySweep;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Partitions key_value_store by expiry, so expired keys go away by dropping a whole partition instead of
+// deleting them row by row. The table is range partitioned on COALESCE(expires_at, 'infinity'): keys without
+// a TTL live in key_value_store_persistent, keys with one in buckets of bucket-minutes each, and keys that
+// expire past the newest bucket in the default partition key_value_store_later until their bucket is made.
+// Every sweep makes the bucket of the current time and premake-buckets after it, moving their keys out of
+// key_value_store_later, and drops the buckets whose keys have all expired.
+// Creating and dropping a bucket briefly locks the table; a sweep waits at most lock-timeout-ms for the lock
+// and otherwise leaves the bucket to the next sweep.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kvstore.ttl.partitioning.enabled", havingValue = "true")
+public class ExpiryPartitions {
+
+    private static final String TABLE = "key_value_store";
+    private static final String PERSISTENT = TABLE + "_persistent";
+    private static final String LATER = TABLE + "_later";
+    private static final String BUCKET_PREFIX = TABLE + "_b";
+    private static final DateTimeFormatter BUCKET_NAME = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+    private static final Pattern BUCKET_BOUNDS = Pattern.compile("FROM \\('([^']+)'\\) TO \\('([^']+)'\\)");
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE " + TABLE + " (tenant_id varchar(255) NOT NULL, "
+            + "key varchar(32) COLLATE \"C\" NOT NULL, data bytea NOT NULL, expires_at timestamp(6), created_at timestamp(6), "
+            + "version bigint NOT NULL DEFAULT 1, content_hash bigint) "
+            + "PARTITION BY RANGE ((COALESCE(expires_at, 'infinity'::timestamp)))";
+    private static final String CREATE_PERSISTENT_SQL = "CREATE TABLE " + PERSISTENT + " PARTITION OF " + TABLE
+            + " FOR VALUES FROM ('infinity') TO (MAXVALUE)";
+    private static final String CREATE_LATER_SQL = "CREATE TABLE " + LATER + " PARTITION OF " + TABLE + " DEFAULT";
+    private static final String CREATE_KEY_INDEX_SQL = "CREATE INDEX " + TABLE + "_key_idx ON " + TABLE + " (tenant_id, key)";
+    private static final String CREATE_EXPIRY_INDEX_SQL = "CREATE INDEX idx_key_value_store_expires_at ON " + TABLE + " (expires_at)";
+
+    private static final String PARTITIONS_SQL = "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+            + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = '" + TABLE + "'::regclass";
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final String LOCK_TIMEOUT_SQL = "SET LOCAL lock_timeout = ";
+    private static final String MOVE_FROM_LATER_SQL = "WITH moved AS (DELETE FROM " + LATER
+            + " WHERE expires_at >= ? AND expires_at < ? RETURNING *) INSERT INTO %s SELECT * FROM moved";
+    private static final String DELETE_EXPIRED_LATER_SQL = "DELETE FROM " + LATER + " WHERE expires_at <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactions;
+    private final long bucketMinutes;
+    private final int premakeBuckets;
+    private final long lockTimeoutMillis;
+
+    @Autowired
+    public ExpiryPartitions(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                            @Value("${kvstore.ttl.partitioning.bucket-minutes:60}") long bucketMinutes,
+                            @Value("${kvstore.ttl.partitioning.premake-buckets:3}") int premakeBuckets,
+                            @Value("${kvstore.ttl.partitioning.lock-timeout-ms:500}") long lockTimeoutMillis){
+        if (bucketMinutes < 1 || premakeBuckets < 0 || lockTimeoutMillis < 1){
+            throw new IllegalArgumentException("Expiry buckets need a positive width and lock timeout");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactions = new TransactionTemplate(transactionManager);
+        this.bucketMinutes = bucketMinutes;
+        this.premakeBuckets = premakeBuckets;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    // Creates the partitioned table, empty and without buckets; KeyValueSchemaMigrator fills it.
+    public void createTable(){
+        jdbcTemplate.execute(CREATE_TABLE_SQL);
+        jdbcTemplate.execute(CREATE_PERSISTENT_SQL);
+        jdbcTemplate.execute(CREATE_LATER_SQL);
+        jdbcTemplate.execute(CREATE_KEY_INDEX_SQL);
+        jdbcTemplate.execute(CREATE_EXPIRY_INDEX_SQL);
+    }
+
+    // Makes the bucket holding now and the premade ones after it, unless an existing bucket covers their range,
+    // e.g. one made before bucket-minutes was changed.
+    public void makeBuckets(LocalDateTime now){
+        List<Bucket> existing = buckets();
+        LocalDateTime from = bucketStart(now);
+        for (int i = 0; i <= premakeBuckets; i++){
+            LocalDateTime to = from.plusMinutes(bucketMinutes);
+            Bucket bucket = new Bucket(BUCKET_PREFIX + BUCKET_NAME.format(from), from, to);
+            if (existing.stream().noneMatch(bucket::overlaps)){
+                try{
+                    createBucket(bucket);
+                }catch (DataAccessException e){
+                    if (!isLockTimeout(e)){
+                        throw e;
+                    }
+                    log.warn("Could not lock {} to make expiry bucket {}, retrying on the next sweep", TABLE, bucket.name());
+                }
+            }
+            from = to;
+        }
+    }
+
+    // Drops the buckets whose keys have all expired and deletes the expired keys of the overflow partition.
+    // Expiries of dropped buckets are counted but not read key by key, so they are not published to the change feed.
+    public ExpirySweep sweep(LocalDateTime now){
+        ShardContext.setReplicaRead(false);
+        makeBuckets(now);
+
+        int removed = 0;
+        LocalDateTime oldest = null;
+        for (Bucket bucket : buckets()){
+            if (bucket.to().isAfter(now)){
+                break;
+            }
+            try{
+                removed += dropBucket(bucket);
+            }catch (DataAccessException e){
+                if (!isLockTimeout(e)){
+                    throw e;
+                }
+                log.warn("Could not lock {} to drop expiry bucket {}, retrying on the next sweep", TABLE, bucket.name());
+                if (oldest == null){
+                    oldest = bucket.from();
+                }
+            }
+        }
+        removed += jdbcTemplate.update(DELETE_EXPIRED_LATER_SQL, Timestamp.valueOf(now));
+        return new ExpirySweep(removed, oldest);
+    }
+
+    // Keys written to the bucket's range before it existed are moved out of key_value_store_later, which stays
+    // locked until the bucket is attached so that none are written there meanwhile.
+    private void createBucket(Bucket bucket){
+        transactions.executeWithoutResult(status -> {
+            jdbcTemplate.execute(LOCK_TIMEOUT_SQL + lockTimeoutMillis);
+            jdbcTemplate.execute("CREATE TABLE " + bucket.name() + " (LIKE " + TABLE + " INCLUDING DEFAULTS)");
+            jdbcTemplate.execute("LOCK TABLE " + LATER + " IN ACCESS EXCLUSIVE MODE");
+            jdbcTemplate.update(String.format(MOVE_FROM_LATER_SQL, bucket.name()),
+                    Timestamp.valueOf(bucket.from()), Timestamp.valueOf(bucket.to()));
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + bucket.name() + " FOR VALUES FROM ('"
+                    + Timestamp.valueOf(bucket.from()) + "') TO ('" + Timestamp.valueOf(bucket.to()) + "')");
+        });
+        log.info("Made expiry bucket {} for keys expiring from {} to {}", bucket.name(), bucket.from(), bucket.to());
+    }
+
+    private int dropBucket(Bucket bucket){
+        int rows = Objects.requireNonNull(transactions.execute(status -> {
+            jdbcTemplate.execute(LOCK_TIMEOUT_SQL + lockTimeoutMillis);
+            Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + bucket.name(), Integer.class);
+            jdbcTemplate.execute("DROP TABLE " + bucket.name());
+            return count;
+        }));
+        log.info("Dropped expiry bucket {} with {} expired keys", bucket.name(), rows);
+        return rows;
+    }
+
+    // The buckets of the table by start, read from the catalog so that their bounds do not depend on
+    // the current bucket width.
+    private List<Bucket> buckets(){
+        return jdbcTemplate.query(PARTITIONS_SQL, (rs, row) -> {
+                    Matcher bounds = BUCKET_BOUNDS.matcher(rs.getString(2));
+                    return bounds.find() ? new Bucket(rs.getString(1), Timestamp.valueOf(bounds.group(1)).toLocalDateTime(),
+                            Timestamp.valueOf(bounds.group(2)).toLocalDateTime()) : null;
+                }).stream()
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Bucket::from))
+                .toList();
+    }
+
+    private static boolean isLockTimeout(DataAccessException e){
+        return e.getMostSpecificCause() instanceof SQLException sql && LOCK_NOT_AVAILABLE.equals(sql.getSQLState());
+    }
+
+    // Buckets are aligned to multiples of their width since the epoch.
+    private LocalDateTime bucketStart(LocalDateTime time){
+        long minute = time.toEpochSecond(ZoneOffset.UTC) / 60;
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(minute, bucketMinutes) * bucketMinutes * 60, 0, ZoneOffset.UTC);
+    }
+
+    private record Bucket(String name, LocalDateTime from, LocalDateTime to) {
+        boolean overlaps(Bucket other){
+            return from.isBefore(other.to) && other.from.isBefore(to);
+        }
+    }
+}
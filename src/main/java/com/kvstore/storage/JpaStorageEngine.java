@@ -0,0 +1,203 @@
+package com.kvstore.storage;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.entity.KeyValueEntity;
+import com.kvstore.repository.KeyValueRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+// With expiry partitioning (see ExpiryPartitions) an expired row stays in its bucket until the bucket is
+// dropped: reads skip it, creates replace it and lazy expiry leaves it alone.
+@Component
+@ConditionalOnProperty(name = "kvstore.storage.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaStorageEngine implements StorageEngine {
+
+    private final KeyValueRepository repository;
+    private final ShardRouter router;
+    private final ReadRouter reads;
+    private final boolean expiryPartitioned;
+
+    public JpaStorageEngine(KeyValueRepository repository){
+        this(repository, ShardRouter.single(), ReadRouter.primaryOnly());
+    }
+
+    public JpaStorageEngine(KeyValueRepository repository, ShardRouter router, ReadRouter reads){
+        this(repository, router, reads, false);
+    }
+
+    @Autowired
+    public JpaStorageEngine(KeyValueRepository repository, ShardRouter router, ReadRouter reads,
+                            @Value("${kvstore.ttl.partitioning.enabled:false}") boolean expiryPartitioned){
+        this.repository = repository;
+        this.router = router;
+        this.reads = reads;
+        this.expiryPartitioned = expiryPartitioned;
+    }
+
+    @Override
+    public Optional<KeyValueEntity> find(String tenantId, String key){
+        routeRead(tenantId);
+        return repository.findByKeyAndTenantId(key, tenantId);
+    }
+
+    @Override
+    public Optional<Long> findContentHash(String tenantId, String key, LocalDateTime now){
+        routeRead(tenantId);
+        return repository.findContentHash(tenantId, key, now);
+    }
+
+    @Override
+    public boolean exists(String tenantId, String key){
+        routeRead(tenantId);
+        return repository.existsByKeyAndTenantId(key, tenantId);
+    }
+
+    @Override
+    public List<KeyValueEntity> findLive(String tenantId, Collection<String> keys, LocalDateTime now){
+        routeRead(tenantId);
+        return repository.findLive(tenantId, keys, now);
+    }
+
+    @Override
+    public List<KeyValueEntity> scan(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        routeRead(tenantId);
+        String from = prefix == null ? "" : prefix;
+        String to = prefixUpperBound(from);
+        return to == null ? repository.scan(tenantId, from, likePattern(prefix), after == null ? "" : after, now, Limit.of(limit))
+                : repository.scanRange(tenantId, from, to, likePattern(prefix), after == null ? "" : after, now, Limit.of(limit));
+    }
+
+    @Override
+    public List<String> scanKeys(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        routeRead(tenantId);
+        String from = prefix == null ? "" : prefix;
+        String to = prefixUpperBound(from);
+        return to == null ? repository.scanKeys(tenantId, from, likePattern(prefix), after == null ? "" : after, now, Limit.of(limit))
+                : repository.scanKeysRange(tenantId, from, to, likePattern(prefix), after == null ? "" : after, now, Limit.of(limit));
+    }
+
+    @Override
+    public void insert(KeyValueEntity entity){
+        routeWrite(entity.getTenantId());
+        repository.save(entity);
+    }
+
+    @Override
+    public Set<String> findExistingKeys(String tenantId, Collection<String> keys){
+        routeRead(tenantId);
+        return expiryPartitioned ? repository.findLiveKeys(tenantId, keys, LocalDateTime.now())
+                : repository.findExistingKeys(tenantId, keys);
+    }
+
+    @Override
+    public Set<String> insertAllIfAbsent(List<KeyValueEntity> entities){
+        for (KeyValueEntity entity : entities){
+            routeWrite(entity.getTenantId());
+        }
+        return repository.insertAllIfAbsent(entities);
+    }
+
+    @Override
+    public long upsert(KeyValueEntity entity, LocalDateTime now){
+        routeWrite(entity.getTenantId());
+        return repository.upsert(entity, now);
+    }
+
+    @Override
+    public CompareAndSetResult compareAndSet(KeyValueEntity entity, long expectedVersion, LocalDateTime now){
+        routeWrite(entity.getTenantId());
+        return repository.compareAndSet(entity, expectedVersion, now);
+    }
+
+    @Override
+    public void delete(KeyValueEntity entity){
+        if (expiryPartitioned && entity.getExpiresAt() != null && !entity.getExpiresAt().isAfter(LocalDateTime.now())){
+            return;
+        }
+        routePrimary(entity.getTenantId());
+        repository.delete(entity);
+    }
+
+    @Override
+    public Set<String> deleteAll(String tenantId, Collection<String> keys){
+        routeWrite(tenantId);
+        return repository.deleteAll(tenantId, keys);
+    }
+
+    @Override
+    public Set<String> deleteByPrefix(String tenantId, String prefix){
+        routeWrite(tenantId);
+        return repository.deleteByPrefix(tenantId, prefix);
+    }
+
+    // Expiry sweeps are not tenant scoped: they run against the shard the caller selected with ShardContext.
+    @Override
+    public List<TenantKey> deleteExpired(LocalDateTime now, int limit){
+        ShardContext.setReplicaRead(false);
+        return repository.deleteExpired(now, limit);
+    }
+
+    @Override
+    public LocalDateTime findOldestExpiry(LocalDateTime now){
+        ShardContext.setReplicaRead(false);
+        return repository.findOldestExpiry(now);
+    }
+
+    private void routeRead(String tenantId){
+        route(tenantId);
+        ShardContext.setReplicaRead(reads.replicaAllowed(tenantId));
+    }
+
+    private void routeWrite(String tenantId){
+        routePrimary(tenantId);
+        reads.recordWrite(tenantId);
+    }
+
+    // Lazy-expiry deletes go to the primary without making the tenant's reads sticky.
+    private void routePrimary(String tenantId){
+        route(tenantId);
+        ShardContext.setReplicaRead(false);
+    }
+
+    private void route(String tenantId){
+        if (router.isSharded()){
+            ShardContext.bind(router.shardFor(tenantId));
+        }
+    }
+
+    // The least string above every string starting with prefix in code point ("C" collation) order: the prefix with
+    // its last character incremented. Null when there is none, i.e. for an empty prefix.
+    private static String prefixUpperBound(String prefix){
+        int end = prefix.length();
+        while (end > 0){
+            int last = prefix.codePointBefore(end);
+            end -= Character.charCount(last);
+            if (last < Character.MAX_CODE_POINT){
+                int next = last + 1;
+                if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE){
+                    next = Character.MAX_SURROGATE + 1;
+                }
+                return prefix.substring(0, end) + Character.toString(next);
+            }
+        }
+        return null;
+    }
+
+    private static String likePattern(String prefix){
+        if (prefix == null){
+            return "%";
+        }
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+}
@@ -0,0 +1,659 @@
+package com.kvstore.storage;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.codec.ContentHash;
+import com.kvstore.entity.KeyValueEntity;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Embedded storage engine: an append-only log of memory-mapped segment files plus an in-memory index.
+//
+// Record layout (big endian):
+//   int length | int crc32 | byte type | long expiresAt | long createdAt
+//   | short tenantLength | tenant | short keyLength | key | int dataLength | data [| long version]
+// The version is only present in PUT_VERSIONED records; PUT records written before versions existed read as
+// version 1. length counts the bytes after itself and the CRC covers everything after the CRC. Times are epoch
+// microseconds (UTC), NO_EXPIRY when the key has no TTL. A zero length marks the end of a segment.
+//
+// The index maps tenant -> key -> record location, and a second index orders locations by expiry so
+// the TTL sweeper only touches expired keys. Writes append under one lock; reads are lock free.
+// On startup the segments are replayed in order; a record with a bad CRC ends its segment (torn write).
+// Compaction copies the live records of mostly dead segments into the active one and deletes the file.
+@Component
+@ConditionalOnProperty(name = "kvstore.storage.engine", havingValue = "log")
+public class LogStructuredStorageEngine implements StorageEngine, AutoCloseable {
+
+    // Written before values had versions; still read, as version 1.
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte PUT_VERSIONED = 3;
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+    private static final int HEADER_BYTES = 4 + 4 + 1 + 8 + 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final double compactionLiveRatio;
+
+    private final CopyOnWriteArrayList<Segment> segments = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Location>> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Location> expiryIndex = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong(Location::expiresAt)
+                    .thenComparingLong(location -> location.segment().id())
+                    .thenComparingInt(Location::offset));
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Segment active;
+
+    @Autowired
+    public LogStructuredStorageEngine(@Value("${kvstore.storage.log.directory:data}") Path directory,
+                                      @Value("${kvstore.storage.log.segment-bytes:67108864}") int segmentBytes,
+                                      @Value("${kvstore.storage.log.fsync:false}") boolean fsync,
+                                      @Value("${kvstore.storage.log.compaction-live-ratio:0.5}") double compactionLiveRatio){
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.compactionLiveRatio = compactionLiveRatio;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e){
+            throw new UncheckedIOException("Failed to open storage directory " + directory, e);
+        }
+    }
+
+    @Override
+    public Optional<KeyValueEntity> find(String tenantId, String key){
+        Location location = locate(tenantId, key);
+        return location == null ? Optional.empty() : Optional.of(read(location));
+    }
+
+    @Override
+    public boolean exists(String tenantId, String key){
+        return locate(tenantId, key) != null;
+    }
+
+    @Override
+    public Optional<Long> findContentHash(String tenantId, String key, LocalDateTime now){
+        return Optional.ofNullable(live(tenantId, key, now)).map(KeyValueEntity::getContentHash);
+    }
+
+    @Override
+    public List<KeyValueEntity> findLive(String tenantId, Collection<String> keys, LocalDateTime now){
+        Map<String, Location> tenantIndex = index.get(tenantId);
+        List<KeyValueEntity> live = new ArrayList<>();
+        if (tenantIndex != null){
+            long nowMicros = toMicros(now);
+            for (String key : keys){
+                Location location = tenantIndex.get(key);
+                if (location != null && (location.expiresAt() == NO_EXPIRY || location.expiresAt() > nowMicros)){
+                    live.add(read(location));
+                }
+            }
+        }
+        return live;
+    }
+
+    @Override
+    public List<KeyValueEntity> scan(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        List<KeyValueEntity> entries = new ArrayList<>();
+        for (Location location : scanLocations(tenantId, prefix, after, now, limit)){
+            entries.add(read(location));
+        }
+        return entries;
+    }
+
+    @Override
+    public List<String> scanKeys(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        return scanLocations(tenantId, prefix, after, now, limit).stream().map(Location::key).toList();
+    }
+
+    @Override
+    public void insert(KeyValueEntity entity){
+        writeLock.lock();
+        try {
+            put(entity.getTenantId(), entity.getKey(), append(PUT_VERSIONED, entity));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> findExistingKeys(String tenantId, Collection<String> keys){
+        Map<String, Location> tenantIndex = index.get(tenantId);
+        Set<String> existing = new HashSet<>();
+        if (tenantIndex != null){
+            for (String key : keys){
+                if (tenantIndex.containsKey(key)){
+                    existing.add(key);
+                }
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public Set<String> insertAllIfAbsent(List<KeyValueEntity> entities){
+        Set<String> inserted = new HashSet<>();
+        writeLock.lock();
+        try {
+            for (KeyValueEntity entity : entities){
+                if (locate(entity.getTenantId(), entity.getKey()) == null){
+                    put(entity.getTenantId(), entity.getKey(), append(PUT_VERSIONED, entity));
+                    inserted.add(entity.getKey());
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return inserted;
+    }
+
+    @Override
+    public long upsert(KeyValueEntity entity, LocalDateTime now){
+        writeLock.lock();
+        try {
+            KeyValueEntity current = live(entity.getTenantId(), entity.getKey(), now);
+            if (current != null){
+                entity.setCreatedAt(current.getCreatedAt());
+            }
+            entity.setVersion(current == null ? 1 : current.getVersion() + 1);
+            put(entity.getTenantId(), entity.getKey(), append(PUT_VERSIONED, entity));
+            return entity.getVersion();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public CompareAndSetResult compareAndSet(KeyValueEntity entity, long expectedVersion, LocalDateTime now){
+        writeLock.lock();
+        try {
+            KeyValueEntity current = live(entity.getTenantId(), entity.getKey(), now);
+            if (current == null || current.getVersion() != expectedVersion){
+                return new CompareAndSetResult(false, current == null ? 0 : current.getVersion());
+            }
+            entity.setCreatedAt(current.getCreatedAt());
+            entity.setVersion(expectedVersion + 1);
+            put(entity.getTenantId(), entity.getKey(), append(PUT_VERSIONED, entity));
+            return new CompareAndSetResult(true, entity.getVersion());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(KeyValueEntity entity){
+        writeLock.lock();
+        try {
+            if (locate(entity.getTenantId(), entity.getKey()) != null){
+                tombstone(entity.getTenantId(), entity.getKey());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> deleteAll(String tenantId, Collection<String> keys){
+        Set<String> deleted = new HashSet<>();
+        writeLock.lock();
+        try {
+            for (String key : keys){
+                if (locate(tenantId, key) != null){
+                    tombstone(tenantId, key);
+                    deleted.add(key);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return deleted;
+    }
+
+    @Override
+    public Set<String> deleteByPrefix(String tenantId, String prefix){
+        Set<String> deleted = new HashSet<>();
+        ConcurrentSkipListMap<String, Location> tenantIndex = index.get(tenantId);
+        if (tenantIndex == null){
+            return deleted;
+        }
+        writeLock.lock();
+        try {
+            for (String key : tenantIndex.tailMap(prefix).keySet()){
+                if (!key.startsWith(prefix)){
+                    break;
+                }
+                tombstone(tenantId, key);
+                deleted.add(key);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return deleted;
+    }
+
+    // Expired records need no tombstone while they stay in the log: replay skips records whose expiry has passed
+    // and drops the key. Compaction writes one when it drops such a record ahead of an older segment.
+    @Override
+    public List<TenantKey> deleteExpired(LocalDateTime now, int limit){
+        long nowMicros = toMicros(now);
+        List<TenantKey> deleted = new ArrayList<>();
+        writeLock.lock();
+        try {
+            while (deleted.size() < limit){
+                Location oldest = expiryIndex.isEmpty() ? null : expiryIndex.first();
+                if (oldest == null || oldest.expiresAt() >= nowMicros){
+                    break;
+                }
+                ConcurrentSkipListMap<String, Location> tenantIndex = index.get(oldest.tenantId());
+                if (tenantIndex != null && tenantIndex.remove(oldest.key(), oldest)){
+                    oldest.segment().liveBytes().addAndGet(-oldest.length());
+                    deleted.add(new TenantKey(oldest.tenantId(), oldest.key()));
+                }
+                expiryIndex.remove(oldest);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return deleted;
+    }
+
+    @Override
+    public LocalDateTime findOldestExpiry(LocalDateTime now){
+        Location oldest = expiryIndex.isEmpty() ? null : expiryIndex.first();
+        return oldest == null || oldest.expiresAt() >= toMicros(now) ? null : fromMicros(oldest.expiresAt());
+    }
+
+    @Scheduled(fixedDelayString = "${kvstore.storage.log.compaction-interval-ms:30000}")
+    public void compact(){
+        for (Segment segment : segments){
+            if (segment != active && segment.liveBytes().get() < segment.writePosition() * compactionLiveRatio){
+                rewrite(segment);
+            }
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close(){
+        writeLock.lock();
+        try {
+            for (Segment segment : segments){
+                segment.buffer().force();
+                segment.channel().close();
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void tombstone(String tenantId, String key){
+        appendTombstone(tenantId, key);
+        remove(tenantId, key);
+    }
+
+    private void appendTombstone(String tenantId, String key){
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setTenantId(tenantId);
+        entity.setKey(key);
+        append(DELETE, entity);
+    }
+
+    private List<Location> scanLocations(String tenantId, String prefix, String after, LocalDateTime now, int limit){
+        ConcurrentSkipListMap<String, Location> tenantIndex = index.get(tenantId);
+        List<Location> locations = new ArrayList<>();
+        if (tenantIndex == null){
+            return locations;
+        }
+
+        String start = prefix == null ? "" : prefix;
+        Map<String, Location> range = after != null && after.compareTo(start) >= 0
+                ? tenantIndex.tailMap(after, false) : tenantIndex.tailMap(start, true);
+        long nowMicros = toMicros(now);
+        for (Location location : range.values()){
+            if (locations.size() == limit || (prefix != null && !location.key().startsWith(prefix))){
+                break;
+            }
+            if (location.expiresAt() == NO_EXPIRY || location.expiresAt() > nowMicros){
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    private KeyValueEntity live(String tenantId, String key, LocalDateTime now){
+        Location location = locate(tenantId, key);
+        if (location == null || (location.expiresAt() != NO_EXPIRY && location.expiresAt() <= toMicros(now))){
+            return null;
+        }
+        return read(location);
+    }
+
+    private Location locate(String tenantId, String key){
+        Map<String, Location> tenantIndex = index.get(tenantId);
+        return tenantIndex == null ? null : tenantIndex.get(key);
+    }
+
+    // Callers hold the write lock for every index change.
+    private void put(String tenantId, String key, Location location){
+        Location previous = index.computeIfAbsent(tenantId, t -> new ConcurrentSkipListMap<>()).put(key, location);
+        forget(previous);
+        location.segment().liveBytes().addAndGet(location.length());
+        if (location.expiresAt() != NO_EXPIRY){
+            expiryIndex.add(location);
+        }
+    }
+
+    private void remove(String tenantId, String key){
+        Map<String, Location> tenantIndex = index.get(tenantId);
+        if (tenantIndex != null){
+            forget(tenantIndex.remove(key));
+        }
+    }
+
+    private void forget(Location location){
+        if (location != null){
+            location.segment().liveBytes().addAndGet(-location.length());
+            if (location.expiresAt() != NO_EXPIRY){
+                expiryIndex.remove(location);
+            }
+        }
+    }
+
+    private Location append(byte type, KeyValueEntity entity){
+        byte[] tenant = entity.getTenantId().getBytes(StandardCharsets.UTF_8);
+        byte[] key = entity.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] data = type == DELETE ? new byte[0] : entity.getData();
+        long expiresAt = entity.getExpiresAt() == null ? NO_EXPIRY : toMicros(entity.getExpiresAt());
+        long createdAt = entity.getCreatedAt() == null ? 0 : toMicros(entity.getCreatedAt());
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + 2 + tenant.length + 2 + key.length + 4 + data.length
+                + (type == PUT_VERSIONED ? 8 : 0));
+        record.putInt(record.capacity() - 4).putInt(0).put(type).putLong(expiresAt).putLong(createdAt)
+                .putShort((short) tenant.length).put(tenant)
+                .putShort((short) key.length).put(key)
+                .putInt(data.length).put(data);
+        if (type == PUT_VERSIONED){
+            record.putLong(entity.getVersion());
+        }
+        byte[] bytes = record.array();
+        ByteBuffer.wrap(bytes).putInt(4, crc(bytes, 8, bytes.length - 8));
+
+        return write(bytes, type, entity.getTenantId(), entity.getKey(), expiresAt);
+    }
+
+    private Location write(byte[] bytes, byte type, String tenantId, String key, long expiresAt){
+        if (bytes.length + 4 > segmentBytes){
+            throw new IllegalArgumentException("Record of " + bytes.length + " bytes does not fit in a segment");
+        }
+        if (active.writePosition() + bytes.length + 4 > segmentBytes){
+            active.buffer().force();
+            active = createSegment(active.id() + 1);
+        }
+
+        int offset = active.writePosition();
+        // Everything but the length first, so a crash mid-write leaves a zero length or a bad CRC.
+        active.buffer().put(offset + 4, bytes, 4, bytes.length - 4);
+        active.buffer().putInt(offset, ByteBuffer.wrap(bytes).getInt(0));
+        if (fsync){
+            active.buffer().force(offset, bytes.length);
+        }
+        active.advance(bytes.length);
+        return new Location(active, offset, type == DELETE ? 0 : bytes.length, expiresAt, tenantId, key);
+    }
+
+    private KeyValueEntity read(Location location){
+        ByteBuffer buffer = location.segment().buffer().duplicate();
+        byte type = buffer.get(location.offset() + 4 + 4);
+        buffer.position(location.offset() + 4 + 4 + 1);
+        long expiresAt = buffer.getLong();
+        long createdAt = buffer.getLong();
+        String tenantId = readString(buffer, buffer.getShort());
+        String key = readString(buffer, buffer.getShort());
+        byte[] data = new byte[buffer.getInt()];
+        buffer.get(data);
+
+        KeyValueEntity entity = new KeyValueEntity();
+        entity.setTenantId(tenantId);
+        entity.setKey(key);
+        entity.setData(data);
+        entity.setExpiresAt(expiresAt == NO_EXPIRY ? null : fromMicros(expiresAt));
+        entity.setCreatedAt(fromMicros(createdAt));
+        entity.setVersion(type == PUT_VERSIONED ? buffer.getLong() : 1);
+        // Not kept in the log: hashing the bytes on read is cheap next to decoding them.
+        entity.setContentHash(ContentHash.of(data));
+        return entity;
+    }
+
+    private void rewrite(Segment segment){
+        long nowMicros = toMicros(LocalDateTime.now());
+        ByteBuffer buffer = segment.buffer().duplicate();
+        int position = 0;
+
+        while (position < segment.writePosition()){
+            int length = buffer.getInt(position);
+            byte[] bytes = new byte[length + 4];
+            buffer.get(position, bytes);
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            byte type = record.get(8);
+            long expiresAt = record.getLong(9);
+            record.position(HEADER_BYTES);
+            String tenantId = readString(record, record.getShort());
+            String key = readString(record, record.getShort());
+
+            writeLock.lock();
+            try {
+                Location current = locate(tenantId, key);
+                boolean isCurrent = current != null && current.segment() == segment && current.offset() == position;
+                if (type != DELETE && isCurrent && (expiresAt == NO_EXPIRY || expiresAt >= nowMicros)){
+                    put(tenantId, key, write(bytes, type, tenantId, key, expiresAt));
+                } else {
+                    if (isCurrent){
+                        remove(tenantId, key);
+                    }
+                    // Replay lets a tombstone or an expired record mask a PUT of the key in an older segment, so
+                    // unless a newer record of the key is live, one is written in place of the record dropped.
+                    if (locate(tenantId, key) == null && hasOlderSegment(segment)){
+                        appendTombstone(tenantId, key);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            position += length + 4;
+        }
+
+        writeLock.lock();
+        try {
+            segments.remove(segment);
+            segment.channel().close();
+            Files.deleteIfExists(segment.path());
+        } catch (IOException e){
+            throw new UncheckedIOException("Failed to delete compacted segment " + segment.path(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean hasOlderSegment(Segment segment){
+        return segments.get(0) != segment;
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)){
+            paths = files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .toList();
+        }
+
+        long nowMicros = toMicros(LocalDateTime.now());
+        for (Path path : paths){
+            Segment segment = openSegment(path, segmentId(path));
+            segments.add(segment);
+            replay(segment, nowMicros);
+        }
+
+        active = segments.isEmpty() ? createSegment(1) : segments.get(segments.size() - 1);
+    }
+
+    private void replay(Segment segment, long nowMicros){
+        ByteBuffer buffer = segment.buffer().duplicate();
+        int position = 0;
+
+        while (position + 4 <= segmentBytes){
+            int length = buffer.getInt(position);
+            if (length < HEADER_BYTES - 4 || position + 4 + length > segmentBytes){
+                break;
+            }
+            byte[] bytes = new byte[length + 4];
+            buffer.get(position, bytes);
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            if (record.getInt(4) != crc(bytes, 8, bytes.length - 8)){
+                break;
+            }
+
+            byte type = record.get(8);
+            long expiresAt = record.getLong(9);
+            record.position(HEADER_BYTES);
+            String tenantId = readString(record, record.getShort());
+            String key = readString(record, record.getShort());
+
+            if (type != DELETE && (expiresAt == NO_EXPIRY || expiresAt >= nowMicros)){
+                put(tenantId, key, new Location(segment, position, bytes.length, expiresAt, tenantId, key));
+            } else {
+                remove(tenantId, key);
+            }
+            position += bytes.length;
+        }
+        segment.advance(position);
+    }
+
+    private Segment createSegment(long id){
+        Segment segment = openSegment(directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), id);
+        segments.add(segment);
+        return segment;
+    }
+
+    private Segment openSegment(Path path, long id){
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            return new Segment(id, path, channel, buffer);
+        } catch (IOException e){
+            throw new UncheckedIOException("Failed to open segment " + path, e);
+        }
+    }
+
+    private static long segmentId(Path path){
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String readString(ByteBuffer buffer, int length){
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] bytes, int offset, int length){
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static long toMicros(LocalDateTime time){
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros){
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000), Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile int writePosition;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer){
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        long id(){
+            return id;
+        }
+
+        Path path(){
+            return path;
+        }
+
+        FileChannel channel(){
+            return channel;
+        }
+
+        MappedByteBuffer buffer(){
+            return buffer;
+        }
+
+        AtomicLong liveBytes(){
+            return liveBytes;
+        }
+
+        int writePosition(){
+            return writePosition;
+        }
+
+        void advance(int bytes){
+            writePosition += bytes;
+        }
+    }
+
+    private record Location(Segment segment, int offset, int length, long expiresAt, String tenantId, String key) {
+    }
+}
@@ -0,0 +1,63 @@
+package com.kvstore.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+// Decides whether a read may be served by a replica. Reads inside a write transaction (e.g. the existence
+// checks of a create) always go to the primary. A tenant that wrote in the last kvstore.replicas.sticky-ms also
+// reads from the primary, so it sees its own writes although replicas lag behind. Stickiness is tracked per
+// instance; keep it above kvstore.replicas.max-lag-ms, the most a replica that is still used can lag.
+@Component
+public class ReadRouter {
+
+    private static final int MAX_STICKY_TENANTS = 100_000;
+
+    private final boolean enabled;
+    private final Cache<String, Boolean> recentWriters;
+
+    @Autowired
+    public ReadRouter(@Value("${kvstore.replicas.enabled:false}") boolean enabled,
+                      @Value("${kvstore.replicas.sticky-ms:2000}") long stickyMillis){
+        this(enabled, stickyMillis, Ticker.systemTicker());
+    }
+
+    public ReadRouter(boolean enabled, long stickyMillis, Ticker ticker){
+        this.enabled = enabled;
+        this.recentWriters = enabled && stickyMillis > 0
+                ? Caffeine.newBuilder()
+                        .maximumSize(MAX_STICKY_TENANTS)
+                        .expireAfterWrite(Duration.ofMillis(stickyMillis))
+                        .ticker(ticker)
+                        .build()
+                : null;
+    }
+
+    public static ReadRouter primaryOnly(){
+        return new ReadRouter(false, 0);
+    }
+
+    public boolean replicaAllowed(String tenantId){
+        if (!enabled){
+            return false;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()){
+            return false;
+        }
+        return recentWriters == null || recentWriters.getIfPresent(tenantId) == null;
+    }
+
+    public void recordWrite(String tenantId){
+        if (recentWriters != null){
+            recentWriters.put(tenantId, Boolean.TRUE);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.kvstore.storage;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// The primary of a shard together with its replicas. Connections for reads the storage engine marked as
+// replica-safe (ShardContext.isReplicaRead) come from a replica in rotation, everything else from the primary.
+// A replica that refuses a connection is ejected and the next one is tried, then the primary.
+public class ReadWriteDataSource extends AbstractDataSource {
+
+    private final DataSource primary;
+    private final ReplicaSet replicas;
+
+    public ReadWriteDataSource(DataSource primary, ReplicaSet replicas){
+        this.primary = primary;
+        this.replicas = replicas;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (ShardContext.isReplicaRead()){
+            ReplicaSet.Replica replica;
+            while ((replica = replicas.pick()) != null){
+                try{
+                    Connection connection = replica.getDataSource().getConnection();
+                    replicas.countRead(true);
+                    return connection;
+                }catch (SQLException e){
+                    replicas.failed(replica, e);
+                }
+            }
+            replicas.countRead(false);
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+}
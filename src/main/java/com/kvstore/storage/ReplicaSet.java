@@ -0,0 +1,147 @@
+package com.kvstore.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The read replicas of one primary. Replication lag is probed periodically; a replica that lags more than
+// maxLagMillis, or whose probe or last connection attempt failed, is ejected until a probe finds it caught up.
+// Reads are spread round-robin over the replicas in use and fall back to the primary when there are none.
+@Slf4j
+public class ReplicaSet {
+
+    // Zero on a server that is not in recovery, so a primary can stand in for a replica locally. A standby that
+    // has replayed everything it received is not lagging even if the last replayed transaction is old.
+    private static final String POSTGRES_LAG_SQL = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+            + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+    public static final LagProbe POSTGRES_LAG = dataSource ->
+            new JdbcTemplate(dataSource).queryForObject(POSTGRES_LAG_SQL, Double.class).longValue();
+
+    private final String shard;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter replicaReads;
+    private final Counter primaryReads;
+
+    public ReplicaSet(String shard, List<Replica> replicas, long maxLagMillis, MeterRegistry registry){
+        this.shard = shard;
+        this.replicas = List.copyOf(replicas);
+        this.maxLagMillis = maxLagMillis;
+        this.replicaReads = Counter.builder("kvstore.replica.reads")
+                .description("Connections for reads that could be served by a replica, by where they went")
+                .tag("shard", shard).tag("target", "replica")
+                .register(registry);
+        this.primaryReads = Counter.builder("kvstore.replica.reads")
+                .description("Connections for reads that could be served by a replica, by where they went")
+                .tag("shard", shard).tag("target", "primary")
+                .register(registry);
+        for (Replica replica : this.replicas){
+            Gauge.builder("kvstore.replica.lag", replica, r -> r.lagMillis)
+                    .description("Replication lag of the replica as of its last probe, in milliseconds")
+                    .baseUnit("milliseconds")
+                    .tag("shard", shard).tag("replica", replica.name)
+                    .register(registry);
+            Gauge.builder("kvstore.replica.healthy", replica, r -> r.healthy ? 1 : 0)
+                    .description("1 while the replica serves reads, 0 while it is ejected")
+                    .tag("shard", shard).tag("replica", replica.name)
+                    .register(registry);
+            replica.ejected = Counter.builder("kvstore.replica.ejected")
+                    .description("Times the replica was taken out of rotation")
+                    .tag("shard", shard).tag("replica", replica.name)
+                    .register(registry);
+        }
+    }
+
+    public List<Replica> getReplicas(){
+        return replicas;
+    }
+
+    // A replica in rotation, or null when every replica is ejected.
+    public Replica pick(){
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++){
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy){
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    public void probe(){
+        for (Replica replica : replicas){
+            try{
+                replica.lagMillis = replica.probe.lagMillis(replica.dataSource);
+                setHealthy(replica, replica.lagMillis <= maxLagMillis,
+                        "lag " + replica.lagMillis + " ms exceeds " + maxLagMillis + " ms");
+            }catch (Exception e){
+                setHealthy(replica, false, "lag probe failed: " + e.getMessage());
+            }
+        }
+    }
+
+    void failed(Replica replica, Exception e){
+        setHealthy(replica, false, "connection failed: " + e.getMessage());
+    }
+
+    void countRead(boolean onReplica){
+        (onReplica ? replicaReads : primaryReads).increment();
+    }
+
+    private synchronized void setHealthy(Replica replica, boolean healthy, String reason){
+        if (replica.healthy == healthy){
+            return;
+        }
+        replica.healthy = healthy;
+        if (healthy){
+            log.info("Replica {} of shard {} is back in rotation", replica.name, shard);
+        } else {
+            replica.ejected.increment();
+            log.warn("Replica {} of shard {} ejected: {}", replica.name, shard, reason);
+        }
+    }
+
+    public interface LagProbe {
+        long lagMillis(DataSource dataSource) throws Exception;
+    }
+
+    public static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private final LagProbe probe;
+        private volatile long lagMillis;
+        private volatile boolean healthy;
+        private Counter ejected;
+
+        // Out of rotation until the first probe.
+        public Replica(String name, DataSource dataSource, LagProbe probe){
+            this.name = name;
+            this.dataSource = dataSource;
+            this.probe = probe;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public DataSource getDataSource(){
+            return dataSource;
+        }
+
+        public boolean isHealthy(){
+            return healthy;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.kvstore.storage;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// The replica sets of every shard, created by ReplicaConfig. Lag is probed on a thread of its own rather than
+// the shared scheduler, where a long expiry sweep would delay the ejection of a lagging replica.
+public class ReplicaSets implements AutoCloseable {
+
+    private final Map<String, ReplicaSet> sets;
+    private final ScheduledExecutorService prober;
+
+    public ReplicaSets(Map<String, ReplicaSet> sets, long probeIntervalMillis){
+        this.sets = Map.copyOf(sets);
+        probe();
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kvstore-replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The data source for a shard: its primary alone when it has no replicas.
+    public DataSource wrap(String shard, DataSource primary){
+        ReplicaSet set = sets.get(shard);
+        return set == null || set.getReplicas().isEmpty() ? primary : new ReadWriteDataSource(primary, set);
+    }
+
+    public Map<String, ReplicaSet> getSets(){
+        return sets;
+    }
+
+    public void probe(){
+        sets.values().forEach(ReplicaSet::probe);
+    }
+
+    @Override
+    public void close() throws Exception {
+        prober.shutdownNow();
+        for (ReplicaSet set : sets.values()){
+            for (ReplicaSet.Replica replica : set.getReplicas()){
+                if (replica.getDataSource() instanceof AutoCloseable closeable){
+                    closeable.close();
+                }
+            }
+        }
+    }
+}
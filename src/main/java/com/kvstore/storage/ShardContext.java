@@ -0,0 +1,73 @@
+package com.kvstore.storage;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Supplier;
+
+// The shard the current thread's storage calls go to, read by ShardRoutingDataSource when a connection is
+// actually needed, and whether the call is a read that a replica of that shard may serve (ReadWriteDataSource).
+// Inside a transaction the first shard used is bound to it until completion: the transaction holds one
+// connection, so a later call for a tenant on another shard is refused instead of being written to the wrong
+// database.
+public final class ShardContext {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+    private static final Object TRANSACTION_KEY = new Object();
+
+    private ShardContext(){
+    }
+
+    public static String current(){
+        return CURRENT.get();
+    }
+
+    public static boolean isReplicaRead(){
+        return REPLICA_READ.get() != null;
+    }
+
+    public static void setReplicaRead(boolean replicaRead){
+        if (replicaRead){
+            REPLICA_READ.set(Boolean.TRUE);
+        } else {
+            REPLICA_READ.remove();
+        }
+    }
+
+    public static void bind(String shard){
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            String bound = (String) TransactionSynchronizationManager.getResource(TRANSACTION_KEY);
+            if (bound == null){
+                TransactionSynchronizationManager.bindResource(TRANSACTION_KEY, shard);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status){
+                        TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_KEY);
+                    }
+                });
+            } else if (!bound.equals(shard)){
+                throw new IllegalStateException("Transaction uses shard " + bound + " and cannot also use shard " + shard);
+            }
+        }
+        CURRENT.set(shard);
+    }
+
+    // Runs action against the primary of the given shard and restores the previous routing afterwards.
+    public static <T> T callOn(String shard, Supplier<T> action){
+        String previous = CURRENT.get();
+        boolean replicaRead = isReplicaRead();
+        CURRENT.set(shard);
+        setReplicaRead(false);
+        try{
+            return action.get();
+        }finally{
+            if (previous == null){
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+            setReplicaRead(replicaRead);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.kvstore.storage;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The connection pool of every shard by name, for work that addresses a shard directly rather than through
+// the routing data source (placement directory, tenant moves).
+public class ShardDataSources implements AutoCloseable {
+
+    private final Map<String, DataSource> dataSources;
+    private final Map<String, JdbcTemplate> templates = new LinkedHashMap<>();
+
+    public ShardDataSources(Map<String, DataSource> dataSources){
+        this.dataSources = Map.copyOf(dataSources);
+        dataSources.forEach((shard, dataSource) -> templates.put(shard, new JdbcTemplate(dataSource)));
+    }
+
+    public Map<String, DataSource> getDataSources(){
+        return dataSources;
+    }
+
+    public JdbcTemplate jdbc(String shard){
+        JdbcTemplate template = templates.get(shard);
+        if (template == null){
+            throw new IllegalArgumentException("Unknown shard: " + shard);
+        }
+        return template;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (DataSource dataSource : dataSources.values()){
+            if (dataSource instanceof AutoCloseable closeable){
+                closeable.close();
+            }
+        }
+    }
+}
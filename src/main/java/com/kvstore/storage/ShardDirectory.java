@@ -0,0 +1,50 @@
+package com.kvstore.storage;
+
+import jakarta.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Tenant placements that override the hash ring, kept in the primary shard so that every instance sees the
+// same pins. Loaded at startup and re-read periodically to pick up moves made by other instances.
+@Component
+@ConditionalOnProperty(name = "kvstore.sharding.enabled", havingValue = "true")
+public class ShardDirectory {
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS kvstore_tenant_shard "
+            + "(tenant_id varchar(255) PRIMARY KEY, shard varchar(64) NOT NULL, updated_at timestamp(6) NOT NULL DEFAULT now())";
+    private static final String SELECT_SQL = "SELECT tenant_id, shard FROM kvstore_tenant_shard";
+    private static final String UPSERT_SQL = "INSERT INTO kvstore_tenant_shard (tenant_id, shard) VALUES (?, ?) "
+            + "ON CONFLICT (tenant_id) DO UPDATE SET shard = EXCLUDED.shard, updated_at = now()";
+
+    @Autowired
+    private ShardRouter router;
+
+    @Autowired
+    private ShardDataSources shards;
+
+    @PostConstruct
+    public void init(){
+        shards.jdbc(router.getPrimaryShard()).execute(CREATE_TABLE_SQL);
+        refresh();
+    }
+
+    @Scheduled(fixedDelayString = "${kvstore.sharding.placement-refresh-ms:10000}")
+    public synchronized void refresh(){
+        Map<String, String> placements = new HashMap<>();
+        shards.jdbc(router.getPrimaryShard()).query(SELECT_SQL, rs -> {
+            placements.put(rs.getString(1), rs.getString(2));
+        });
+        router.setPlacements(placements);
+    }
+
+    public synchronized void save(String tenantId, String shard){
+        shards.jdbc(router.getPrimaryShard()).update(UPSERT_SQL, tenantId, shard);
+        router.setPlacement(tenantId, shard);
+    }
+}
@@ -0,0 +1,115 @@
+package com.kvstore.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Maps tenants to shards. Tenants are placed on a consistent-hash ring with virtualNodes points per shard, so
+// adding or removing a shard only remaps the tenants of the ring segments that change hands (about 1/N of
+// them). A tenant moved by TenantMover is pinned to its shard, which takes precedence over the ring.
+// Without sharding there is a single shard and every tenant maps to it.
+@Component
+public class ShardRouter {
+
+    public static final String DEFAULT_SHARD = "default";
+
+    private final List<String> shards;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, String> placements = new ConcurrentHashMap<>();
+
+    // The shard list only counts with kvstore.sharding.enabled, which is what sets up a data source per shard.
+    @Autowired
+    public ShardRouter(@Value("${kvstore.sharding.enabled:false}") boolean enabled,
+                       @Value("${kvstore.sharding.shards:}") List<String> shards,
+                       @Value("${kvstore.sharding.virtual-nodes:128}") int virtualNodes){
+        this(enabled ? shards : List.of(), virtualNodes);
+    }
+
+    public ShardRouter(List<String> shards, int virtualNodes){
+        List<String> names = shards.stream().map(String::trim).filter(name -> !name.isEmpty()).distinct().toList();
+        this.shards = names.isEmpty() ? List.of(DEFAULT_SHARD) : names;
+        for (String shard : this.shards){
+            for (int i = 0; i < virtualNodes; i++){
+                ring.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    public static ShardRouter single(){
+        return new ShardRouter(List.of(), 1);
+    }
+
+    public String shardFor(String tenantId){
+        String pinned = placements.get(tenantId);
+        return pinned != null ? pinned : ringShard(tenantId);
+    }
+
+    // The shard the ring assigns, ignoring placements.
+    public String ringShard(String tenantId){
+        if (shards.size() == 1){
+            return shards.get(0);
+        }
+        SortedMap<Long, String> tail = ring.tailMap(hash(tenantId));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    public List<String> getShards(){
+        return shards;
+    }
+
+    // Shard holding the placement directory and anything that is not tenant scoped.
+    public String getPrimaryShard(){
+        return shards.get(0);
+    }
+
+    public boolean isSharded(){
+        return shards.size() > 1;
+    }
+
+    public Map<String, String> getPlacements(){
+        return Map.copyOf(placements);
+    }
+
+    public void setPlacement(String tenantId, String shard){
+        requireShard(shard);
+        placements.put(tenantId, shard);
+    }
+
+    // Replaces all placements, e.g. with the directory's content; pins to unknown shards are ignored.
+    public void setPlacements(Map<String, String> current){
+        current.forEach((tenantId, shard) -> {
+            if (shards.contains(shard)){
+                placements.put(tenantId, shard);
+            }
+        });
+        placements.keySet().retainAll(current.keySet());
+    }
+
+    public void requireShard(String shard){
+        if (!shards.contains(shard)){
+            throw new IllegalArgumentException("Unknown shard: " + shard);
+        }
+    }
+
+    // FNV-1a over the UTF-8 bytes with a 64-bit finalizer: stable across JVMs and restarts, unlike hashCode.
+    static long hash(String value){
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)){
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
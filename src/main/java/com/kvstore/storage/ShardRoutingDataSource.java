@@ -0,0 +1,14 @@
+package com.kvstore.storage;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+// Hands out connections of the shard in ShardContext, or of the primary shard when none is set.
+// Wrapped in a LazyConnectionDataSourceProxy, so a transaction only picks its connection at the first
+// statement, after the storage engine has bound the tenant's shard.
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    @Override
+    protected Object determineCurrentLookupKey(){
+        return ShardContext.current();
+    }
+}
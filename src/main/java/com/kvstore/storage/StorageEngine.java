@@ -0,0 +1,63 @@
+package com.kvstore.storage;
+
+import com.kvstore.Utilities.CompareAndSetResult;
+import com.kvstore.Utilities.TenantKey;
+import com.kvstore.entity.KeyValueEntity;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+// Persistence operations used by KeyValueStoreService. Selected with kvstore.storage.engine:
+// "jpa" (default) keeps values in Postgres, "log" in the embedded log-structured engine.
+public interface StorageEngine {
+
+    Optional<KeyValueEntity> find(String tenantId, String key);
+
+    boolean exists(String tenantId, String key);
+
+    // ContentHash of a key that is live at now, without reading its value; empty when the key is missing or
+    // expired, or its row has no hash.
+    Optional<Long> findContentHash(String tenantId, String key, LocalDateTime now);
+
+    // Entries among keys that have not expired at now; missing and expired keys are left out.
+    List<KeyValueEntity> findLive(String tenantId, Collection<String> keys, LocalDateTime now);
+
+    // Up to limit live entries of a tenant whose key starts with prefix (null for all) and sorts after
+    // the given key (null to start at the beginning), in key order.
+    List<KeyValueEntity> scan(String tenantId, String prefix, String after, LocalDateTime now, int limit);
+
+    // Same as scan, returning only the keys.
+    List<String> scanKeys(String tenantId, String prefix, String after, LocalDateTime now, int limit);
+
+    void insert(KeyValueEntity entity);
+
+    Set<String> findExistingKeys(String tenantId, Collection<String> keys);
+
+    // Inserts every entity whose key is not taken yet and returns the keys that were written.
+    Set<String> insertAllIfAbsent(List<KeyValueEntity> entities);
+
+    // Inserts the entity or replaces the value and expiry of the existing key as one atomic step, and returns the
+    // stored version: 1 for a new key (or one that had expired before now), otherwise the previous version + 1.
+    long upsert(KeyValueEntity entity, LocalDateTime now);
+
+    // Replaces the value and expiry of a key that is live at now, as one atomic step, only while its version is
+    // expectedVersion.
+    CompareAndSetResult compareAndSet(KeyValueEntity entity, long expectedVersion, LocalDateTime now);
+
+    void delete(KeyValueEntity entity);
+
+    // Deletes the given keys of a tenant and returns the keys that existed.
+    Set<String> deleteAll(String tenantId, Collection<String> keys);
+
+    // Deletes every key of a tenant that starts with prefix and returns the deleted keys.
+    Set<String> deleteByPrefix(String tenantId, String prefix);
+
+    // Deletes at most limit entries that expired before now, oldest first, and returns the removed keys.
+    List<TenantKey> deleteExpired(LocalDateTime now, int limit);
+
+    // Expiry time of the oldest entry that expired before now, or null when there is none.
+    LocalDateTime findOldestExpiry(LocalDateTime now);
+}